@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.List;
+
+/**
+ * Implement this interface in a {@link StructrObject} subclass to handle the
+ * post-load work of many entities at once, e.g. to resolve their references
+ * with {@link StructrRef#resolveAll(StructrClient, java.util.Collection)}
+ * instead of one request per entity. When a type implements this interface,
+ * {@link StructrObject#onDbLoad()} is not called for its entities.
+ *
+ * <p>The method is called on one of the loaded entities, with the entities
+ * of a response in groups of up to one hundred, or with the entities of a
+ * chunk when the results are streamed.</p>
+ */
+public interface BatchPostLoad<T extends StructrObject> {
+
+	/**
+	 * Will be called after the given entities have been created from the
+	 * JSON source.
+	 *
+	 * @param client the client the entities were loaded from
+	 * @param entities the entities
+	 * @throws Throwable
+	 */
+	public void onDbLoadAll(final StructrClient client, final List<T> entities) throws Throwable;
+}
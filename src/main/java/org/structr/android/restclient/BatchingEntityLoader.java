@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects requests for single entities over a short time window and loads
+ * them with one {@link StructrObject#dbGetAll(StructrClient, Class, java.util.Collection)}
+ * call per type. Use this class instead of one {@link IdEntityLoader} per
+ * entity when many entities are requested at the same time, e.g. by the rows
+ * of a list that become visible.
+ *
+ * <p>The following example shows how you can use this class in your activity.</p>
+ * <pre>
+ * BatchingEntityLoader loader = new BatchingEntityLoader();
+ * ...
+ * loader.load(Example.class, id, new EntityHandler&lt;Example&gt;() {
+ *
+ *	public void handleProgress(Progress... progress) {
+ *		// handle progress / exception
+ *	}
+ *
+ *	public void handleResult(Example result) {
+ *		// handle result
+ *	}
+ * });
+ * </pre>
+ *
+ * <p>Handlers are called on the main thread. If no entity exists for an ID,
+ * its handlers receive a {@link StructrException} with code 404 and a null
+ * result, like with {@link IdEntityLoader}.</p>
+ */
+public class BatchingEntityLoader {
+
+	public static final long DEFAULT_WINDOW = 20;
+
+	private final Map<Class, Map<String, List<EntityHandler>>> pending = new LinkedHashMap<Class, Map<String, List<EntityHandler>>>();
+	private final Handler mainHandler                                  = new Handler(Looper.getMainLooper());
+	private StructrClient client                                       = null;
+	private boolean scheduled                                          = false;
+	private long window                                                = 0;
+
+	private final Runnable flush = new Runnable() {
+
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	public BatchingEntityLoader() {
+		this(StructrClient.getDefault(), DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param client the client to load the entities from
+	 * @param window the time in milliseconds to wait for more requests
+	 * before loading
+	 */
+	public BatchingEntityLoader(final StructrClient client, final long window) {
+		this.client = client;
+		this.window = window;
+	}
+
+	/**
+	 * Requests the entity with the given type and ID.
+	 *
+	 * @param type the type of the entity
+	 * @param id the ID of the entity
+	 * @param handler the handler that receives the entity
+	 */
+	public synchronized <T extends StructrObject> void load(final Class<T> type, final String id, final EntityHandler<T> handler) {
+
+		Map<String, List<EntityHandler>> ids = pending.get(type);
+		if (ids == null) {
+
+			ids = new LinkedHashMap<String, List<EntityHandler>>();
+			pending.put(type, ids);
+		}
+
+		List<EntityHandler> handlers = ids.get(id);
+		if (handlers == null) {
+
+			handlers = new ArrayList<EntityHandler>();
+			ids.put(id, handlers);
+		}
+
+		handlers.add(handler);
+
+		if (!scheduled) {
+
+			scheduled = true;
+			mainHandler.postDelayed(flush, window);
+		}
+	}
+
+	// ----- private methods -----
+	private void flush() {
+
+		Map<Class, Map<String, List<EntityHandler>>> batch;
+
+		synchronized (this) {
+
+			batch     = new LinkedHashMap<Class, Map<String, List<EntityHandler>>>(pending);
+			scheduled = false;
+
+			pending.clear();
+		}
+
+		for (Map.Entry<Class, Map<String, List<EntityHandler>>> entry : batch.entrySet()) {
+			client.getExecutor().execute(new Loader(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	// ----- nested classes -----
+	private class Loader implements Runnable {
+
+		private Map<String, List<EntityHandler>> handlers = null;
+		private Class type                                = null;
+
+		Loader(final Class type, final Map<String, List<EntityHandler>> handlers) {
+			this.type     = type;
+			this.handlers = handlers;
+		}
+
+		@Override
+		public void run() {
+
+			BulkResult result   = null;
+			Throwable throwable = null;
+
+			try {
+				result = StructrObject.dbGetAll(client, type, handlers.keySet());
+
+			} catch (Throwable t) {
+				throwable = t;
+			}
+
+			final BulkResult finalResult   = result;
+			final Throwable finalThrowable = throwable;
+
+			mainHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+
+					for (Map.Entry<String, List<EntityHandler>> entry : handlers.entrySet()) {
+
+						StructrObject entity = finalResult != null ? finalResult.get(entry.getKey()) : null;
+						Throwable error      = finalThrowable;
+
+						if (error == null && entity == null) {
+							error = new StructrException(404, "Not Found", entry.getKey());
+						}
+
+						for (EntityHandler handler : entry.getValue()) {
+
+							if (error != null) {
+								handler.handleProgress(new Progress(error));
+							}
+
+							handler.handleResult(entity);
+						}
+					}
+				}
+			});
+		}
+	}
+}
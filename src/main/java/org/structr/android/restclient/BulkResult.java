@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of {@link StructrObject#dbGetAll(StructrClient, Class, java.util.Collection)}.
+ */
+public class BulkResult<T extends StructrObject> {
+
+	private Map<String, T> entities   = null;
+	private List<String> missingIds   = null;
+	private List<T> results           = null;
+
+	BulkResult(final List<String> ids, final Map<String, T> entities) {
+
+		this.entities   = entities;
+		this.results    = new ArrayList<T>(entities.size());
+		this.missingIds = new ArrayList<String>();
+
+		for (String id : ids) {
+
+			T entity = entities.get(id);
+			if (entity != null) {
+				results.add(entity);
+			} else {
+				missingIds.add(id);
+			}
+		}
+	}
+
+	/**
+	 * @return the entities that were found, in the order of the requested IDs
+	 */
+	public List<T> getResults() {
+		return Collections.unmodifiableList(results);
+	}
+
+	/**
+	 * @return the requested IDs for which no entity was found, in the order
+	 * in which they were requested
+	 */
+	public List<String> getMissingIds() {
+		return Collections.unmodifiableList(missingIds);
+	}
+
+	/**
+	 * @return the entity with the given ID, or null if it was not found or not requested
+	 */
+	public T get(final String id) {
+		return entities.get(id);
+	}
+
+	/**
+	 * @return whether an entity was found for every requested ID
+	 */
+	public boolean isComplete() {
+		return missingIds.isEmpty();
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+/**
+ * A notification that an entity has been created, modified or deleted on the
+ * server.
+ */
+public class ChangeEvent {
+
+	public enum Kind {
+		CREATED, MODIFIED, DELETED
+	}
+
+	private Kind kind   = null;
+	private String type = null;
+	private String id   = null;
+
+	/**
+	 * @param kind the kind of change
+	 * @param type the type name of the entity, or null if unknown
+	 * @param id the ID of the entity
+	 */
+	public ChangeEvent(final Kind kind, final String type, final String id) {
+		this.kind = kind;
+		this.type = type;
+		this.id   = id;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the type name of the changed entity as reported by the server,
+	 * or null if unknown
+	 */
+	public String getType() {
+		return type;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return whether this event may concern entities of the given type
+	 */
+	public boolean concerns(final Class<? extends StructrObject> entityType) {
+		return type == null || type.equalsIgnoreCase(entityType.getSimpleName());
+	}
+
+	@Override
+	public String toString() {
+		return kind + " " + type + "(" + id + ")";
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.List;
+
+/**
+ * A listener that receives the entities of a collection request in chunks
+ * while the response is still being received. Please note that this listener
+ * is called on the thread that executes the request.
+ */
+public interface ChunkListener<T extends StructrObject> {
+
+	/**
+	 * Will be called for every chunk of entities that has been parsed.
+	 * @param chunk the entities of this chunk
+	 */
+	public void onChunk(List<T> chunk);
+}
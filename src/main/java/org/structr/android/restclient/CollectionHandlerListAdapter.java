@@ -24,21 +24,27 @@
 
 package org.structr.android.restclient;
 
+import android.database.DataSetObservable;
 import android.database.DataSetObserver;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ListAdapter;
 import android.widget.ListView;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * A list adapter that displays the results of a collection loader. Rows are
+ * shown as soon as the first chunk of results has arrived.
  *
  * @author Christian Morgner
  */
-public abstract class CollectionHandlerListAdapter<T extends StructrObject> implements CollectionHandler<T>, ListAdapter {
+public abstract class CollectionHandlerListAdapter<T extends StructrObject> implements StreamingCollectionHandler<T>, ListAdapter {
 
-	private ListView listView = null;
-	private List<T> list      = null;
+	private final DataSetObservable observable = new DataSetObservable();
+	private ListView listView                  = null;
+	private List<T> list                       = null;
+	private boolean loading                    = false;
 
 	public CollectionHandlerListAdapter(final ListView listView) {
 		this.listView = listView;
@@ -50,11 +56,43 @@ public abstract class CollectionHandlerListAdapter<T extends StructrObject> impl
 	public void handleProgress(final Progress... progress) {
 	}
 
+	@Override
+	public void handleChunk(final List<T> chunk) {
+
+		if (loading) {
+
+			list.addAll(chunk);
+			observable.notifyChanged();
+
+		} else {
+
+			// the first chunk of a load replaces the results of the previous one
+			boolean attached = list != null && listView.getAdapter() == this;
+
+			this.list    = new ArrayList<T>(chunk);
+			this.loading = true;
+
+			if (attached) {
+				observable.notifyChanged();
+			} else {
+				listView.setAdapter(this);
+			}
+		}
+	}
+
 	@Override
 	public void handleResults(final List<T> results) {
 
-		this.list = results;
-		listView.setAdapter(this);
+		boolean attached = list != null && listView.getAdapter() == this;
+
+		this.list    = results;
+		this.loading = false;
+
+		if (attached) {
+			observable.notifyChanged();
+		} else {
+			listView.setAdapter(this);
+		}
 	}
 
 	@Override
@@ -69,10 +107,12 @@ public abstract class CollectionHandlerListAdapter<T extends StructrObject> impl
 
 	@Override
 	public void registerDataSetObserver(final DataSetObserver dso) {
+		observable.registerObserver(dso);
 	}
 
 	@Override
 	public void unregisterDataSetObserver(final DataSetObserver dso) {
+		observable.unregisterObserver(dso);
 	}
 
 	@Override
@@ -134,6 +174,7 @@ public abstract class CollectionHandlerListAdapter<T extends StructrObject> impl
 
 		if (list != null) {
 			list.clear();
+			observable.notifyChanged();
 		}
 	}
 }
@@ -0,0 +1,492 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.util.LruCache;
+
+import java.lang.reflect.Field;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A read-mostly list of entities that stores the exposed fields of its
+ * elements column by column, in primitive arrays where possible. Strings are
+ * dictionary-encoded, so repeated values like categories or status names are
+ * stored only once. Entity instances are created on demand in {@link #get(int)}
+ * and a small number of them is kept for rows that are accessed repeatedly,
+ * e.g. by an adapter.
+ *
+ * <p>Use this class for very large collections, see
+ * {@link StructrObject#dbListCompact(StructrClient, StructrQuery)}. Elements
+ * are copies: changes to an entity returned by this list are not written back
+ * to the list, and transient state set in {@link StructrObject#onDbLoad()} is
+ * lost.</p>
+ */
+public class CompactList<T extends StructrObject> extends AbstractList<T> implements RandomAccess {
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int ROW_CACHE_SIZE   = 64;
+
+	private final List<String> dictionary  = new ArrayList<String>();
+	private Map<String, Integer> lookup    = new HashMap<String, Integer>();
+	private LruCache<Integer, T> rows      = new LruCache<Integer, T>(ROW_CACHE_SIZE);
+	private StructrClient client           = null;
+	private Column[] columns               = null;
+	private Class<T> type                  = null;
+	private String view                    = null;
+	private int capacity                   = INITIAL_CAPACITY;
+	private int size                       = 0;
+
+	public CompactList(final Class<T> type) {
+		this(type, null, null);
+	}
+
+	CompactList(final Class<T> type, final StructrClient client, final String view) {
+
+		Field[] fields = StructrObject.getExposedFields(type);
+
+		this.columns = new CompactList.Column[fields.length];
+		this.client  = client;
+		this.type    = type;
+		this.view    = view;
+
+		for (int i=0; i<fields.length; i++) {
+			columns[i] = createColumn(fields[i]);
+		}
+	}
+
+	/**
+	 * Appends the field values of the given entity to this list. The entity
+	 * itself is not retained.
+	 *
+	 * @param entity the entity
+	 * @return true
+	 */
+	@Override
+	public boolean add(final T entity) {
+
+		if (size == capacity) {
+
+			capacity = capacity * 2;
+			for (Column column : columns) {
+				column.resize(capacity);
+			}
+		}
+
+		write(size, entity);
+
+		size++;
+		modCount++;
+
+		return true;
+	}
+
+	/**
+	 * Replaces the field values of the given row with those of the given
+	 * entity. The entity itself is not retained.
+	 *
+	 * @param index the row
+	 * @param entity the entity
+	 * @return the entity that represented the row before
+	 */
+	@Override
+	public T set(final int index, final T entity) {
+
+		T previous = get(index);
+
+		write(index, entity);
+		rows.remove(index);
+
+		return previous;
+	}
+
+	/**
+	 * Returns an entity with the field values of the given row.
+	 *
+	 * @param index the row
+	 * @return the entity
+	 */
+	@Override
+	public T get(final int index) {
+
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+
+		T entity = rows.get(index);
+		if (entity == null) {
+
+			try {
+				entity = type.newInstance();
+				for (Column column : columns) {
+					column.field.set(entity, column.get(index));
+				}
+
+			} catch (Throwable t) {
+				throw new IllegalStateException("Unable to instantiate " + type.getName(), t);
+			}
+
+			if (client != null) {
+				entity.setClient(client);
+			}
+
+			entity.setView(view);
+			rows.put(index, entity);
+		}
+
+		return entity;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+
+		capacity = INITIAL_CAPACITY;
+		size     = 0;
+
+		for (Column column : columns) {
+			column.resize(capacity);
+		}
+
+		dictionary.clear();
+		lookup = new HashMap<String, Integer>();
+		rows.evictAll();
+		modCount++;
+	}
+
+	/**
+	 * Releases the unused capacity of all columns and the lookup table of the
+	 * string dictionary. Call this method after the last element was added.
+	 */
+	public void trimToSize() {
+
+		capacity = Math.max(size, 1);
+		for (Column column : columns) {
+			column.resize(capacity);
+		}
+
+		lookup = null;
+	}
+
+	// ----- private methods -----
+	private void write(final int index, final T entity) {
+
+		try {
+			for (Column column : columns) {
+				column.set(index, column.field.get(entity));
+			}
+
+		} catch (IllegalAccessException iaex) {
+
+			// exposed fields are accessible
+			throw new IllegalStateException(iaex);
+		}
+	}
+
+	private int encode(final String value) {
+
+		if (lookup == null) {
+
+			lookup = new HashMap<String, Integer>();
+			for (int i=0; i<dictionary.size(); i++) {
+				lookup.put(dictionary.get(i), i);
+			}
+		}
+
+		Integer index = lookup.get(value);
+		if (index == null) {
+
+			index = dictionary.size();
+			dictionary.add(value);
+			lookup.put(value, index);
+		}
+
+		return index;
+	}
+
+	private Column createColumn(final Field field) {
+
+		Class fieldType = field.getType();
+
+		if (fieldType == int.class || fieldType == Integer.class || fieldType == short.class || fieldType == Short.class || fieldType == byte.class || fieldType == Byte.class || fieldType == char.class || fieldType == Character.class) {
+			return new IntColumn(field);
+		}
+
+		if (fieldType == long.class || fieldType == Long.class || fieldType == Date.class) {
+			return new LongColumn(field);
+		}
+
+		if (fieldType == double.class || fieldType == Double.class || fieldType == float.class || fieldType == Float.class) {
+			return new DoubleColumn(field);
+		}
+
+		if (fieldType == boolean.class || fieldType == Boolean.class) {
+			return new BooleanColumn(field);
+		}
+
+		if (fieldType == String.class) {
+			return new StringColumn(field);
+		}
+
+		return new ObjectColumn(field);
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The values of a single field. Null values of boxed types are tracked in
+	 * a separate flag array, which is only allocated when the first null
+	 * value is stored.
+	 */
+	private abstract class Column {
+
+		protected Field field     = null;
+		protected Class fieldType = null;
+		private boolean[] nulls   = null;
+
+		Column(final Field field) {
+			this.field     = field;
+			this.fieldType = field.getType();
+		}
+
+		abstract void setValue(final int index, final Object value);
+		abstract Object getValue(final int index);
+		abstract void resizeValues(final int capacity);
+
+		void set(final int index, final Object value) {
+
+			if (value == null) {
+
+				if (nulls == null) {
+					nulls = new boolean[capacity];
+				}
+
+				nulls[index] = true;
+
+			} else {
+
+				if (nulls != null) {
+					nulls[index] = false;
+				}
+
+				setValue(index, value);
+			}
+		}
+
+		Object get(final int index) {
+
+			if (nulls != null && nulls[index]) {
+				return null;
+			}
+
+			return getValue(index);
+		}
+
+		void resize(final int capacity) {
+
+			if (nulls != null) {
+				nulls = Arrays.copyOf(nulls, capacity);
+			}
+
+			resizeValues(capacity);
+		}
+	}
+
+	private class IntColumn extends Column {
+
+		private int[] values = new int[capacity];
+
+		IntColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		void setValue(final int index, final Object value) {
+			values[index] = value instanceof Character ? (Character)value : ((Number)value).intValue();
+		}
+
+		@Override
+		Object getValue(final int index) {
+
+			int value = values[index];
+
+			if (fieldType == short.class || fieldType == Short.class) {
+				return (short)value;
+			}
+
+			if (fieldType == byte.class || fieldType == Byte.class) {
+				return (byte)value;
+			}
+
+			if (fieldType == char.class || fieldType == Character.class) {
+				return (char)value;
+			}
+
+			return value;
+		}
+
+		@Override
+		void resizeValues(final int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	private class LongColumn extends Column {
+
+		private long[] values = new long[capacity];
+
+		LongColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		void setValue(final int index, final Object value) {
+			values[index] = value instanceof Date ? ((Date)value).getTime() : (Long)value;
+		}
+
+		@Override
+		Object getValue(final int index) {
+
+			if (fieldType == Date.class) {
+				return new Date(values[index]);
+			}
+
+			return values[index];
+		}
+
+		@Override
+		void resizeValues(final int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	private class DoubleColumn extends Column {
+
+		private double[] values = new double[capacity];
+
+		DoubleColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		void setValue(final int index, final Object value) {
+			values[index] = ((Number)value).doubleValue();
+		}
+
+		@Override
+		Object getValue(final int index) {
+
+			if (fieldType == float.class || fieldType == Float.class) {
+				return (float)values[index];
+			}
+
+			return values[index];
+		}
+
+		@Override
+		void resizeValues(final int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	private class BooleanColumn extends Column {
+
+		private boolean[] values = new boolean[capacity];
+
+		BooleanColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		void setValue(final int index, final Object value) {
+			values[index] = (Boolean)value;
+		}
+
+		@Override
+		Object getValue(final int index) {
+			return values[index];
+		}
+
+		@Override
+		void resizeValues(final int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	private class StringColumn extends Column {
+
+		private int[] values = new int[capacity];
+
+		StringColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		void setValue(final int index, final Object value) {
+			values[index] = encode((String)value);
+		}
+
+		@Override
+		Object getValue(final int index) {
+			return dictionary.get(values[index]);
+		}
+
+		@Override
+		void resizeValues(final int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	/**
+	 * Stores values of all other types, e.g. nested entities or collections,
+	 * as references.
+	 */
+	private class ObjectColumn extends Column {
+
+		private Object[] values = new Object[capacity];
+
+		ObjectColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		void setValue(final int index, final Object value) {
+			values[index] = value;
+		}
+
+		@Override
+		Object getValue(final int index) {
+			return values[index];
+		}
+
+		@Override
+		void resizeValues(final int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+}
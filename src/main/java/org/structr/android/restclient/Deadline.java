@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a group of REST operations must be finished. A
+ * deadline that is entered on a thread applies to every request made on that
+ * thread until it is restored, so multi-request operations like
+ * {@link StructrRef#resolveAll(StructrClient, java.util.Collection)} share a
+ * single time budget. Nested deadlines never extend an outer deadline.
+ *
+ * <pre>
+ * Deadline previous = Deadline.after(5, TimeUnit.SECONDS).enter();
+ * try {
+ *	Example example = StructrObject.dbGet(Example.class, id);
+ *	...
+ * } finally {
+ *	Deadline.restore(previous);
+ * }
+ * </pre>
+ *
+ * <p>Requests that exceed their deadline fail with a
+ * {@link StructrTimeoutException}.</p>
+ */
+public final class Deadline {
+
+	private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+	private long expiresAt = 0;
+
+	private Deadline(final long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * Creates a deadline that expires after the given duration.
+	 *
+	 * @param duration the duration
+	 * @param unit the unit of the duration
+	 * @return the deadline
+	 */
+	public static Deadline after(final long duration, final TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(duration));
+	}
+
+	/**
+	 * @return the deadline of the current thread, or null
+	 */
+	public static Deadline current() {
+		return current.get();
+	}
+
+	/**
+	 * Makes this deadline the deadline of the current thread, unless the
+	 * current thread already has an earlier deadline.
+	 *
+	 * @return the previous deadline, to be passed to {@link #restore(Deadline)}
+	 */
+	public Deadline enter() {
+
+		Deadline previous = current.get();
+		current.set(earliest(previous, this));
+
+		return previous;
+	}
+
+	/**
+	 * Restores the deadline that was active before {@link #enter()} was called.
+	 *
+	 * @param previous the return value of {@link #enter()}
+	 */
+	public static void restore(final Deadline previous) {
+
+		if (previous != null) {
+			current.set(previous);
+		} else {
+			current.remove();
+		}
+	}
+
+	/**
+	 * @return the time left until this deadline expires, or 0 if it has expired
+	 */
+	public long remaining(final TimeUnit unit) {
+		return unit.convert(Math.max(expiresAt - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+	}
+
+	public boolean isExpired() {
+		return expiresAt - System.nanoTime() <= 0;
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline(" + remaining(TimeUnit.MILLISECONDS) + " ms remaining)";
+	}
+
+	// ----- package-private static methods -----
+	/**
+	 * @return the earlier of the given deadlines, either of which may be null
+	 */
+	static Deadline earliest(final Deadline d1, final Deadline d2) {
+
+		if (d1 == null) {
+			return d2;
+		}
+
+		if (d2 == null) {
+			return d1;
+		}
+
+		return d1.expiresAt - d2.expiresAt <= 0 ? d1 : d2;
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * A bounded identity cache that maps type and ID to the most recently
+ * loaded entity instance. Every {@link StructrClient} owns its own cache,
+ * so entities from different servers never mix. The cache shrinks when the
+ * system runs low on memory, see {@link StructrCacheManager}.
+ */
+public class EntityCache implements TrimmableCache {
+
+	public static final int DEFAULT_MAX_SIZE = 500;
+
+	private LruCache<String, StructrObject> cache = null;
+
+	public EntityCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public EntityCache(final int maxSize) {
+
+		this.cache = new LruCache<String, StructrObject>(maxSize);
+
+		StructrCacheManager.getInstance().register(this);
+	}
+
+	/**
+	 * Returns the cached entity with the given type and ID.
+	 *
+	 * @param type the type of the entity
+	 * @param id the ID of the entity
+	 * @return the cached entity, or null if there is no such entity in this cache
+	 */
+	public <T extends StructrObject> T get(final Class<T> type, final String id) {
+
+		if (id != null) {
+
+			StructrObject obj = cache.get(key(type, id));
+			if (obj != null && type.isInstance(obj)) {
+				return type.cast(obj);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stores the given entity in this cache, replacing any previously cached
+	 * instance with the same type and ID. Entities without an ID are ignored.
+	 *
+	 * @param entity the entity to cache
+	 */
+	public void put(final StructrObject entity) {
+
+		if (entity != null && entity.getId() != null) {
+			cache.put(key(entity.getClass(), entity.getId()), entity);
+		}
+	}
+
+	/**
+	 * Removes the entity with the given type and ID from this cache.
+	 *
+	 * @param type the type of the entity
+	 * @param id the ID of the entity
+	 */
+	public void remove(final Class type, final String id) {
+
+		if (id != null) {
+			cache.remove(key(type, id));
+		}
+	}
+
+	/**
+	 * Removes the entity with the given ID from this cache, regardless of
+	 * its type.
+	 *
+	 * @param id the ID of the entity
+	 */
+	public void removeAll(final String id) {
+
+		if (id != null) {
+
+			String suffix = ":".concat(id);
+			for (String key : cache.snapshot().keySet()) {
+
+				if (key.endsWith(suffix)) {
+					cache.remove(key);
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		cache.evictAll();
+	}
+
+	// ----- interface TrimmableCache -----
+	@Override
+	public String getName() {
+		return "Entities";
+	}
+
+	@Override
+	public void trimMemory(final int level) {
+		cache.trimToSize((int)(cache.size() * StructrCacheManager.getRetainedFraction(level)));
+	}
+
+	@Override
+	public int size() {
+		return cache.size();
+	}
+
+	@Override
+	public int maxSize() {
+		return cache.maxSize();
+	}
+
+	@Override
+	public int evictionCount() {
+		return cache.evictionCount();
+	}
+
+	// ----- private static methods -----
+	private static String key(final Class type, final String id) {
+		return type.getName().concat(":").concat(id);
+	}
+}
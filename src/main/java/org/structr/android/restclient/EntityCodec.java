@@ -0,0 +1,689 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact binary codec for the exposed fields of a {@link StructrObject}
+ * subclass. The codec for a type is built once from the type's fields and
+ * then reused, so encoding and decoding need no reflection lookups and no
+ * class descriptors, unlike Java serialization. Use it for on-disk caches,
+ * and {@link StructrParcelable} to pass entities in intents.
+ *
+ * <p>Every encoded entity starts with a signature of the field layout, so
+ * data written by an older version of an entity class is rejected with an
+ * IOException instead of being decoded into the wrong fields.</p>
+ */
+public class EntityCodec<T extends StructrObject> {
+
+	private static final Map<Class, EntityCodec> codecs = new ConcurrentHashMap<Class, EntityCodec>();
+
+	private Class<T> type          = null;
+	private FieldCodec[] fields    = null;
+	private int signature          = 0;
+
+	private EntityCodec(final Class<T> type) {
+
+		Field[] exposed = StructrObject.getExposedFields(type);
+		int hash        = type.getName().hashCode();
+
+		this.type   = type;
+		this.fields = new FieldCodec[exposed.length];
+
+		for (int i=0; i<fields.length; i++) {
+
+			Field field = exposed[i];
+			fields[i]   = new FieldCodec(field, ValueCodec.forType(field.getGenericType()));
+			hash        = hash * 31 + field.getName().hashCode();
+			hash        = hash * 31 + field.getType().getName().hashCode();
+		}
+
+		this.signature = hash;
+	}
+
+	/**
+	 * Returns the codec for the given type, creating it on first use.
+	 *
+	 * @param type the entity type
+	 * @return the codec
+	 */
+	public static <T extends StructrObject> EntityCodec<T> forType(final Class<T> type) {
+
+		EntityCodec<T> codec = codecs.get(type);
+		if (codec == null) {
+
+			codec = new EntityCodec<T>(type);
+			codecs.put(type, codec);
+		}
+
+		return codec;
+	}
+
+	/**
+	 * Writes the given entity to the given output.
+	 *
+	 * @param out the output
+	 * @param entity the entity, must not be null
+	 * @throws IOException
+	 */
+	public void write(final DataOutput out, final T entity) throws IOException {
+
+		out.writeInt(signature);
+		writeString(out, entity.getView());
+
+		try {
+			for (FieldCodec field : fields) {
+				field.codec.write(out, field.field.get(entity));
+			}
+
+		} catch (IllegalAccessException iaex) {
+			throw new IOException(iaex.getMessage());
+		}
+	}
+
+	/**
+	 * Reads an entity from the given input.
+	 *
+	 * @param in the input
+	 * @return the entity
+	 * @throws IOException if the input was written by a different version of the entity class
+	 */
+	public T read(final DataInput in) throws IOException {
+
+		if (in.readInt() != signature) {
+			throw new IOException("Incompatible encoding for " + type.getName() + ", field layout has changed.");
+		}
+
+		T entity = newInstance(type);
+		entity.setView(readString(in));
+
+		try {
+			for (FieldCodec field : fields) {
+				field.field.set(entity, field.codec.read(in));
+			}
+
+		} catch (IllegalAccessException iaex) {
+			throw new IOException(iaex.getMessage());
+		}
+
+		return entity;
+	}
+
+	/**
+	 * Writes the given list of entities to the given output.
+	 *
+	 * @param out the output
+	 * @param entities the entities
+	 * @throws IOException
+	 */
+	public void writeList(final DataOutput out, final List<T> entities) throws IOException {
+
+		writeVarInt(out, entities.size());
+		for (T entity : entities) {
+			write(out, entity);
+		}
+	}
+
+	/**
+	 * Reads a list of entities from the given input.
+	 *
+	 * @param in the input
+	 * @return the entities
+	 * @throws IOException
+	 */
+	public List<T> readList(final DataInput in) throws IOException {
+
+		int size      = readVarInt(in);
+		List<T> list  = new ArrayList<T>(size);
+
+		for (int i=0; i<size; i++) {
+			list.add(read(in));
+		}
+
+		return list;
+	}
+
+	/**
+	 * @return the given entity encoded as a byte array
+	 */
+	public byte[] toBytes(final T entity) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out        = new DataOutputStream(bytes);
+
+		write(out, entity);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return the entity encoded in the given byte array
+	 */
+	public T fromBytes(final byte[] data) throws IOException {
+		return read(new DataInputStream(new ByteArrayInputStream(data)));
+	}
+
+	// ----- private static methods -----
+	private static <T extends StructrObject> T newInstance(final Class<T> type) throws IOException {
+
+		try {
+			return type.newInstance();
+
+		} catch (Throwable t) {
+			throw new IOException("Unable to instantiate " + type.getName() + ", a public no-arg constructor is required.");
+		}
+	}
+
+	static void writeVarInt(final DataOutput out, final int value) throws IOException {
+		writeVarLong(out, value & 0xffffffffL);
+	}
+
+	static int readVarInt(final DataInput in) throws IOException {
+		return (int)readVarLong(in);
+	}
+
+	static void writeVarLong(final DataOutput out, long value) throws IOException {
+
+		while ((value & ~0x7fL) != 0) {
+
+			out.writeByte((int)((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+
+		out.writeByte((int)value);
+	}
+
+	static long readVarLong(final DataInput in) throws IOException {
+
+		long value = 0;
+		int shift  = 0;
+
+		while (shift < 64) {
+
+			byte b = in.readByte();
+			value |= (long)(b & 0x7f) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+
+			shift += 7;
+		}
+
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	static void writeString(final DataOutput out, final String value) throws IOException {
+
+		if (value == null) {
+
+			writeVarInt(out, 0);
+
+		} else {
+
+			byte[] data = value.getBytes("UTF-8");
+			writeVarInt(out, data.length + 1);
+			out.write(data);
+		}
+	}
+
+	static String readString(final DataInput in) throws IOException {
+
+		int length = readVarInt(in);
+		if (length == 0) {
+			return null;
+		}
+
+		byte[] data = new byte[length - 1];
+		in.readFully(data);
+
+		return new String(data, "UTF-8");
+	}
+
+	// ----- nested classes -----
+	private static class FieldCodec {
+
+		private Field field      = null;
+		private ValueCodec codec = null;
+
+		FieldCodec(final Field field, final ValueCodec codec) {
+			this.field = field;
+			this.codec = codec;
+		}
+	}
+
+	/**
+	 * Encodes a single value of a specific type. Primitive fields are written
+	 * without null marker, all other values are preceded by a presence byte.
+	 */
+	private static abstract class ValueCodec {
+
+		abstract void write(final DataOutput out, final Object value) throws IOException;
+		abstract Object read(final DataInput in) throws IOException;
+
+		static ValueCodec forType(final Type genericType) {
+
+			// a type variable or wildcard is encoded like its upper bound
+			if (genericType instanceof TypeVariable) {
+				return forType(((TypeVariable)genericType).getBounds()[0]);
+			}
+
+			if (genericType instanceof WildcardType) {
+				return forType(((WildcardType)genericType).getUpperBounds()[0]);
+			}
+
+			// generic arrays and all other types are left to gson
+			if (!(genericType instanceof Class) && !(genericType instanceof ParameterizedType)) {
+				return new Nullable(new JsonCodec(genericType));
+			}
+
+			Class type = genericType instanceof Class ? (Class)genericType : (Class)((ParameterizedType)genericType).getRawType();
+
+			if (type.isPrimitive()) {
+				return forPrimitive(type);
+			}
+
+			if (type == Boolean.class || type == Byte.class || type == Short.class || type == Character.class || type == Integer.class || type == Long.class || type == Float.class || type == Double.class) {
+				return new Nullable(forPrimitive(unbox(type)));
+			}
+
+			if (type == String.class) {
+				return STRING;
+			}
+
+			if (type == Date.class) {
+				return new Nullable(DATE);
+			}
+
+			if (type.isEnum()) {
+				return new Nullable(new EnumCodec(type));
+			}
+
+			if (StructrObject.class.isAssignableFrom(type)) {
+				return new Nullable(new EntityValueCodec(type));
+			}
+
+			if (type == StructrRef.class && genericType instanceof ParameterizedType) {
+
+				Type refType = ((ParameterizedType)genericType).getActualTypeArguments()[0];
+				if (refType instanceof Class) {
+					return new Nullable(new RefCodec((Class)refType));
+				}
+			}
+
+			if ((type == List.class || type == Collection.class || type == ArrayList.class || type == Set.class) && genericType instanceof ParameterizedType) {
+
+				Type elementType = ((ParameterizedType)genericType).getActualTypeArguments()[0];
+				return new Nullable(new CollectionCodec(type == Set.class, forType(elementType)));
+			}
+
+			return new Nullable(new JsonCodec(genericType));
+		}
+
+		private static ValueCodec forPrimitive(final Class type) {
+
+			if (type == boolean.class) {
+				return BOOLEAN;
+			}
+
+			if (type == byte.class) {
+				return BYTE;
+			}
+
+			if (type == short.class || type == char.class || type == int.class) {
+				return new IntCodec(type);
+			}
+
+			if (type == long.class) {
+				return LONG;
+			}
+
+			if (type == float.class) {
+				return FLOAT;
+			}
+
+			return DOUBLE;
+		}
+
+		private static Class unbox(final Class type) {
+
+			if (type == Boolean.class) return boolean.class;
+			if (type == Byte.class) return byte.class;
+			if (type == Short.class) return short.class;
+			if (type == Character.class) return char.class;
+			if (type == Integer.class) return int.class;
+			if (type == Long.class) return long.class;
+			if (type == Float.class) return float.class;
+
+			return double.class;
+		}
+	}
+
+	private static final ValueCodec BOOLEAN = new ValueCodec() {
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			out.writeBoolean((Boolean)value);
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return in.readBoolean();
+		}
+	};
+
+	private static final ValueCodec BYTE = new ValueCodec() {
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			out.writeByte((Byte)value);
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return in.readByte();
+		}
+	};
+
+	private static final ValueCodec LONG = new ValueCodec() {
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+
+			long v = (Long)value;
+			writeVarLong(out, (v << 1) ^ (v >> 63));
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+
+			long v = readVarLong(in);
+			return (v >>> 1) ^ -(v & 1);
+		}
+	};
+
+	private static final ValueCodec FLOAT = new ValueCodec() {
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			out.writeFloat((Float)value);
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return in.readFloat();
+		}
+	};
+
+	private static final ValueCodec DOUBLE = new ValueCodec() {
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			out.writeDouble((Double)value);
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return in.readDouble();
+		}
+	};
+
+	private static final ValueCodec STRING = new ValueCodec() {
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			writeString(out, (String)value);
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return readString(in);
+		}
+	};
+
+	private static final ValueCodec DATE = new ValueCodec() {
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			out.writeLong(((Date)value).getTime());
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return new Date(in.readLong());
+		}
+	};
+
+	/**
+	 * Writes short, char and int values as zigzag-encoded variable-length
+	 * integers, so small values need a single byte.
+	 */
+	private static class IntCodec extends ValueCodec {
+
+		private Class type = null;
+
+		IntCodec(final Class type) {
+			this.type = type;
+		}
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+
+			int v = value instanceof Character ? (Character)value : ((Number)value).intValue();
+			writeVarInt(out, (v << 1) ^ (v >> 31));
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+
+			int v = readVarInt(in);
+			v = (v >>> 1) ^ -(v & 1);
+
+			if (type == short.class) {
+				return (short)v;
+			}
+
+			if (type == char.class) {
+				return (char)v;
+			}
+
+			return v;
+		}
+	}
+
+	private static class Nullable extends ValueCodec {
+
+		private ValueCodec codec = null;
+
+		Nullable(final ValueCodec codec) {
+			this.codec = codec;
+		}
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+
+			out.writeBoolean(value != null);
+			if (value != null) {
+				codec.write(out, value);
+			}
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return in.readBoolean() ? codec.read(in) : null;
+		}
+	}
+
+	private static class EnumCodec extends ValueCodec {
+
+		private Class type = null;
+
+		EnumCodec(final Class type) {
+			this.type = type;
+		}
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			writeString(out, ((Enum)value).name());
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return Enum.valueOf(type, readString(in));
+		}
+	}
+
+	private static class EntityValueCodec extends ValueCodec {
+
+		private Class type = null;
+
+		EntityValueCodec(final Class type) {
+			this.type = type;
+		}
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+
+			// the declared type may be a super class of the actual type
+			writeString(out, value.getClass().getName());
+			EntityCodec.forType((Class<StructrObject>)value.getClass()).write(out, (StructrObject)value);
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+
+			String className = readString(in);
+			Class actualType = type;
+
+			if (!type.getName().equals(className)) {
+
+				try {
+					actualType = Class.forName(className, true, type.getClassLoader());
+
+				} catch (ClassNotFoundException cnfex) {
+					throw new IOException("Unknown entity type " + className);
+				}
+			}
+
+			return EntityCodec.forType((Class<StructrObject>)actualType).read(in);
+		}
+	}
+
+	/**
+	 * Writes only the ID of a reference, the type is known from the field.
+	 */
+	private static class RefCodec extends ValueCodec {
+
+		private Class type = null;
+
+		RefCodec(final Class type) {
+			this.type = type;
+		}
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			writeString(out, ((StructrRef)value).getId());
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return new StructrRef(type, readString(in));
+		}
+	}
+
+	private static class CollectionCodec extends ValueCodec {
+
+		private ValueCodec elementCodec = null;
+		private boolean set             = false;
+
+		CollectionCodec(final boolean set, final ValueCodec elementCodec) {
+
+			// elements can be null even if the element type is primitive
+			this.elementCodec = elementCodec instanceof Nullable ? elementCodec : new Nullable(elementCodec);
+			this.set          = set;
+		}
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+
+			Collection collection = (Collection)value;
+
+			writeVarInt(out, collection.size());
+			for (Object element : collection) {
+				elementCodec.write(out, element);
+			}
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+
+			int size                = readVarInt(in);
+			Collection collection   = set ? new HashSet(size) : new ArrayList(size);
+
+			for (int i=0; i<size; i++) {
+				collection.add(elementCodec.read(in));
+			}
+
+			return collection;
+		}
+	}
+
+	/**
+	 * Fallback for field types without a binary representation.
+	 */
+	private static class JsonCodec extends ValueCodec {
+
+		private Type type = null;
+
+		JsonCodec(final Type type) {
+			this.type = type;
+		}
+
+		@Override
+		void write(final DataOutput out, final Object value) throws IOException {
+			writeString(out, StructrObject.getGson().toJson(value, type));
+		}
+
+		@Override
+		Object read(final DataInput in) throws IOException {
+			return StructrObject.getGson().fromJson(readString(in), type);
+		}
+	}
+}
@@ -72,6 +72,7 @@ public class EntityCreator<T extends StructrObject> extends StructrConnector<T>
 
 		try {
 			if(entity != null) {
+				bind(entity);
 				entity.dbCreate();
 			}
 
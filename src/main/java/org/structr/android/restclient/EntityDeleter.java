@@ -73,6 +73,7 @@ public class EntityDeleter extends StructrConnector<StructrObject> {
 		try {
 			
 			if(entity != null) {
+				bind(entity);
 				entity.dbDelete();
 				entity.setId(null);
 			}
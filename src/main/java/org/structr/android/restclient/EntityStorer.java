@@ -73,6 +73,7 @@ public class EntityStorer extends StructrConnector<StructrObject> {
 		try {
 			
 			if(entity != null) {
+				bind(entity);
 				entity.dbStore();
 			}
 
@@ -71,7 +71,7 @@ public class IdEntityLoader<T extends StructrObject> extends StructrConnector<T>
 		}
 
 		try {
-			return StructrObject.dbGet(type, id);
+			return StructrObject.dbGet(getClient(), type, id);
 
 		} catch(Throwable t) {
 			publishProgress(new Progress(t));
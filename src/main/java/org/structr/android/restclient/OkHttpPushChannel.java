@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * A {@link PushChannel} that connects to the websocket endpoint of a structr
+ * server, <code>/structr/ws</code>, and translates its CREATE, UPDATE and
+ * DELETE messages into {@link ChangeEvent}s. The channel is reported open
+ * once the server has acknowledged the login. Requires the optional OkHttp
+ * dependency, see {@link OkHttpTransport}.
+ */
+public class OkHttpPushChannel implements PushChannel {
+
+	private static final String PATH = "/structr/ws";
+	private static final int LOGIN_OK = 100;
+
+	private OkHttpClient http     = null;
+	private StructrClient client  = null;
+	private WebSocket socket      = null;
+
+	public OkHttpPushChannel(final StructrClient client) {
+		this(client, new OkHttpClient.Builder().readTimeout(0, TimeUnit.MILLISECONDS).pingInterval(30, TimeUnit.SECONDS).build());
+	}
+
+	public OkHttpPushChannel(final StructrClient client, final OkHttpClient http) {
+		this.client = client;
+		this.http   = http;
+	}
+
+	@Override
+	public synchronized void open(final Listener listener) {
+
+		String server = client.getServer();
+		if (server.endsWith("/")) {
+			server = server.substring(0, server.length() - 1);
+		}
+
+		socket = http.newWebSocket(new Request.Builder().url(server + PATH).build(), new WebSocketListener() {
+
+			private boolean loggedIn = false;
+
+			@Override
+			public void onOpen(final WebSocket webSocket, final Response response) {
+
+				JsonObject data = new JsonObject();
+				data.addProperty("username", client.getUserName());
+				data.addProperty("password", client.getPassword());
+
+				JsonObject login = new JsonObject();
+				login.addProperty("command", "LOGIN");
+				login.add("data", data);
+
+				webSocket.send(login.toString());
+			}
+
+			@Override
+			public void onMessage(final WebSocket webSocket, final String text) {
+
+				if (!loggedIn) {
+
+					int status = parseLoginStatus(text);
+					if (status == LOGIN_OK) {
+
+						loggedIn = true;
+						listener.onOpen();
+
+					} else if (status > 0) {
+
+						webSocket.close(1000, null);
+						listener.onClosed(new StructrException(status, "Login failed", text));
+					}
+
+					return;
+				}
+
+				ChangeEvent event = parse(text);
+				if (event != null) {
+					listener.onEvent(event);
+				}
+			}
+
+			@Override
+			public void onClosed(final WebSocket webSocket, final int code, final String reason) {
+				listener.onClosed(null);
+			}
+
+			@Override
+			public void onFailure(final WebSocket webSocket, final Throwable t, final Response response) {
+				listener.onClosed(t);
+			}
+		});
+	}
+
+	@Override
+	public synchronized void close() {
+
+		if (socket != null) {
+
+			socket.close(1000, null);
+			socket = null;
+		}
+	}
+
+	/**
+	 * Creates an {@link OkHttpPushChannel} for every client.
+	 */
+	public static class Factory implements PushChannel.Factory {
+
+		@Override
+		public PushChannel create(final StructrClient client) {
+			return new OkHttpPushChannel(client);
+		}
+	}
+
+	// ----- private static methods -----
+	private static ChangeEvent parse(final String text) {
+
+		try {
+			JsonObject message = new JsonParser().parse(text).getAsJsonObject();
+			String command     = getString(message, "command");
+			ChangeEvent.Kind kind;
+
+			if ("CREATE".equals(command)) {
+				kind = ChangeEvent.Kind.CREATED;
+
+			} else if ("UPDATE".equals(command) || "SET_PROPERTY".equals(command) || "SET_PROPERTIES".equals(command)) {
+				kind = ChangeEvent.Kind.MODIFIED;
+
+			} else if ("DELETE".equals(command)) {
+				kind = ChangeEvent.Kind.DELETED;
+
+			} else {
+				return null;
+			}
+
+			JsonObject data = message.has("data") && message.get("data").isJsonObject() ? message.getAsJsonObject("data") : new JsonObject();
+			String id       = getString(message, "id");
+			String type     = getString(data, "type");
+
+			if (id == null) {
+				id = getString(data, "id");
+			}
+
+			return id != null ? new ChangeEvent(kind, type, id) : null;
+
+		} catch (RuntimeException ignore) {
+
+			// not a JSON object, ignore
+			return null;
+		}
+	}
+
+	/**
+	 * @return the status code of a reply to the LOGIN command, or -1 if the
+	 * message is no such reply
+	 */
+	private static int parseLoginStatus(final String text) {
+
+		try {
+			JsonObject message = new JsonParser().parse(text).getAsJsonObject();
+			String command     = getString(message, "command");
+			JsonElement code   = message.get("code");
+
+			if (("LOGIN".equals(command) || "STATUS".equals(command)) && code != null && code.isJsonPrimitive()) {
+				return code.getAsInt();
+			}
+
+		} catch (RuntimeException ignore) {
+
+			// not a JSON object, ignore
+		}
+
+		return -1;
+	}
+
+	private static String getString(final JsonObject object, final String key) {
+
+		JsonElement element = object.get(key);
+		if (element != null && element.isJsonPrimitive()) {
+			return element.getAsString();
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+/**
+ * A {@link StructrTransport} based on OkHttp. Servers that support HTTP/2
+ * are reached over a single connection, on which concurrent REST calls and
+ * uploads of all clients that share this transport are multiplexed.
+ *
+ * <p>OkHttp is an optional dependency of this library. Add
+ * <code>com.squareup.okhttp3:okhttp</code> to your application and configure
+ * the transport before the first request:</p>
+ * <pre>
+ * StructrClient.getDefault().setTransport(new OkHttpTransport());
+ * </pre>
+ */
+public class OkHttpTransport implements StructrTransport {
+
+	private OkHttpClient client = null;
+
+	public OkHttpTransport() {
+		this(new OkHttpClient.Builder().protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)).build());
+	}
+
+	/**
+	 * Creates a transport that uses the given OkHttp client, e.g. to share its
+	 * connection pool with the rest of the application.
+	 *
+	 * @param client the OkHttp client
+	 */
+	public OkHttpTransport(final OkHttpClient client) {
+		this.client = client;
+	}
+
+	@Override
+	public StructrResponse execute(final StructrRequest request) throws IOException {
+
+		Request.Builder builder = new Request.Builder().url(request.getUrl());
+
+		for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+			builder.header(header.getKey(), header.getValue());
+		}
+
+		final StructrRequest.Body body = request.getBody();
+		final boolean repeatable       = body == null || body instanceof StructrRequest.ByteArrayBody;
+		RequestBody requestBody        = null;
+
+		if (body != null) {
+
+			requestBody = new RequestBody() {
+
+				private boolean written = false;
+
+				@Override
+				public MediaType contentType() {
+					return body.getContentType() != null ? MediaType.parse(body.getContentType()) : null;
+				}
+
+				@Override
+				public long contentLength() {
+					return body.getContentLength();
+				}
+
+				@Override
+				public void writeTo(final BufferedSink sink) throws IOException {
+
+					// streamed bodies such as uploads can only be sent once, so a
+					// redirect or an authentication challenge must not resend them
+					if (written && !repeatable) {
+						throw new IOException("The body of " + request.getMethod() + " " + request.getUrl() + " cannot be sent again");
+					}
+
+					written = true;
+					body.writeTo(sink.outputStream());
+				}
+			};
+
+		} else if (requiresBody(request.getMethod())) {
+
+			requestBody = RequestBody.create(null, new byte[0]);
+		}
+
+		builder.method(request.getMethod(), requestBody);
+
+		OkHttpClient callClient = client;
+		if (request.getConnectTimeout() > 0 || request.getReadTimeout() > 0 || !repeatable) {
+
+			// derived clients share the connection pool of the original client
+			OkHttpClient.Builder clientBuilder = client.newBuilder();
+
+			if (!repeatable) {
+				clientBuilder.retryOnConnectionFailure(false);
+			}
+
+			if (request.getConnectTimeout() > 0) {
+				clientBuilder.connectTimeout(request.getConnectTimeout(), TimeUnit.MILLISECONDS);
+			}
+
+			if (request.getReadTimeout() > 0) {
+				clientBuilder.readTimeout(request.getReadTimeout(), TimeUnit.MILLISECONDS);
+				clientBuilder.writeTimeout(request.getReadTimeout(), TimeUnit.MILLISECONDS);
+			}
+
+			callClient = clientBuilder.build();
+		}
+
+		return new OkHttpResponse(callClient.newCall(builder.build()).execute());
+	}
+
+	// ----- private static methods -----
+	private static boolean requiresBody(final String method) {
+		return "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method);
+	}
+
+	// ----- nested classes -----
+	private static class OkHttpResponse implements StructrResponse {
+
+		private Response response = null;
+
+		OkHttpResponse(final Response response) {
+			this.response = response;
+		}
+
+		@Override
+		public int getCode() {
+			return response.code();
+		}
+
+		@Override
+		public String getMessage() {
+			return response.message();
+		}
+
+		@Override
+		public String getHeader(final String name) {
+			return response.header(name);
+		}
+
+		@Override
+		public InputStream getBody() {
+			return response.body().byteStream();
+		}
+
+		@Override
+		public void close() {
+			response.close();
+		}
+	}
+}
@@ -23,7 +23,8 @@ import java.util.List;
 /**
  * An asynchronous connector that fetches a list of entities from a REST server. The
  * execute method takes at least two parameters, the entity type and the path to
- * load the entities from.
+ * load the entities from. An optional {@see Projection} selects the view to load.
+ * Instead of the type and path, you can pass a {@see StructrQuery}.
  *
  * <p>The following example shows how you can use this class in your activity.</p>
  * <pre>
@@ -40,32 +41,58 @@ import java.util.List;
  * }).execute(Example.class, "/examples?attr1=foo&attr2=bar&sort=date&order=asc");
  * </pre>
  *
+ * <p>If the handler is a {@see StreamingCollectionHandler}, the results are
+ * delivered in chunks while the response is still being received.</p>
+ *
  * @author Christian Morgner
  */
 public class PathCollectionLoader<T extends StructrObject> extends StructrConnector<List<T>> {
 
 	private CollectionHandler<T> updater = null;
+	private int chunkSize                = DEFAULT_CHUNK_SIZE;
 
 	public PathCollectionLoader(final CollectionHandler<T> updater) {
 		this.updater = updater;
 	}
 
+	/**
+	 * Sets the number of results that are passed to a {@see StreamingCollectionHandler}
+	 * at once.
+	 *
+	 * @param chunkSize the chunk size
+	 * @return this loader
+	 */
+	public PathCollectionLoader<T> setChunkSize(final int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
 	@Override
 	protected List<T> doInBackground(Object... parameters) {
 
 		StringBuilder path = new StringBuilder();
+		StructrQuery<T> query = null;
+		Projection projection = null;
 		Class type = null;
 
 		try {
 			for(Object obj : parameters) {
 				if(obj instanceof Class) {
 					type = (Class)obj;
+				} else if(obj instanceof StructrQuery) {
+					query = (StructrQuery<T>)obj;
+				} else if(obj instanceof Projection) {
+					projection = (Projection)obj;
 				} else {
 					path.append(obj.toString());
 				}
 			}
 
-			return StructrObject.dbList(type, path.toString());
+			if (query != null) {
+				return StructrObject.dbList(getClient(), query, chunkSize, this.<T>createChunkListener(updater));
+			}
+
+			return StructrObject.dbList(getClient(), type, path.toString(), projection, chunkSize, this.<T>createChunkListener(updater));
 
 		} catch(Throwable t) {
 			publishProgress(new Progress(t));
@@ -76,7 +103,7 @@ public class PathCollectionLoader<T extends StructrObject> extends StructrConnec
 
 	@Override
 	protected void onProgressUpdate(final Progress... progress) {
-		updater.handleProgress(progress);
+		dispatchProgress(updater, progress);
 	}
 
 	@Override
@@ -23,7 +23,7 @@ import android.app.Activity;
 /**
  * An asynchronous connector that fetches a single entity from a REST server.
  * The execute method takes at least two parameters, the entity type and
- * the path to load the entity from.
+ * the path to load the entity from, or a single {@see StructrQuery}.
  *
  * <p>The following example shows how you can use this class in your activity.</p>
  * <pre>
@@ -57,20 +57,27 @@ public class PathEntityLoader<T extends StructrObject> extends StructrConnector<
 	@Override
 	protected T doInBackground(final Object... parameters) {
 
-		StringBuilder path = new StringBuilder();
-		Class<T> type      = null;
+		StringBuilder path    = new StringBuilder();
+		StructrQuery<T> query = null;
+		Class<T> type         = null;
 
 		for(Object obj : parameters) {
 
 			if(obj instanceof Class) {
 				type = (Class)obj;
+			} else if(obj instanceof StructrQuery) {
+				query = (StructrQuery<T>)obj;
 			} else {
 				path.append(obj.toString());
 			}
 		}
 
 		try {
-			return StructrObject.dbLoad(type, path.toString());
+			if (query != null) {
+				return StructrObject.dbLoad(getClient(), query);
+			}
+
+			return StructrObject.dbLoad(getClient(), type, path.toString());
 
 		} catch(Throwable t) {
 			publishProgress(new Progress(t));
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link StructrException} that collects the failures of
+ * {@link StructrObject#onDbLoad()} hooks that ran in parallel.
+ */
+public class PostLoadException extends StructrException {
+
+	private List<Throwable> failures = null;
+	private int total                = 0;
+
+	public PostLoadException(final List<Throwable> failures, final int total) {
+
+		super(0, "Post-load failed", failures.size() + " of " + total + " entities failed, first failure: " + failures.get(0));
+
+		this.failures = failures;
+		this.total    = total;
+
+		initCause(failures.get(0));
+	}
+
+	/**
+	 * @return the failures of the individual hooks
+	 */
+	public List<Throwable> getFailures() {
+		return Collections.unmodifiableList(failures);
+	}
+
+	/**
+	 * @return the number of entities whose hooks were run
+	 */
+	public int getTotal() {
+		return total;
+	}
+}
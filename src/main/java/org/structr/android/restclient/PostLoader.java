@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the post-load hooks of freshly loaded entities, either sequentially
+ * on the calling thread, in parallel on the post-load pool of the client, or
+ * as a single {@link BatchPostLoad} call.
+ */
+class PostLoader {
+
+	// hooks that load collections themselves must not wait for the pool they run on
+	private static final ThreadLocal<Boolean> inPool = new ThreadLocal<Boolean>();
+
+	static <T extends StructrObject> void run(final StructrClient client, final List<T> entities) throws Throwable {
+
+		if (entities.isEmpty()) {
+			return;
+		}
+
+		T first = entities.get(0);
+		if (first instanceof BatchPostLoad) {
+
+			((BatchPostLoad<T>)first).onDbLoadAll(client, entities);
+			return;
+		}
+
+		ExecutorService executor = client.getPostLoadExecutor();
+		if (executor == null || entities.size() == 1 || inPool.get() != null) {
+
+			for (T entity : entities) {
+				entity.onDbLoad();
+			}
+
+			return;
+		}
+
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		final CountDownLatch latch     = new CountDownLatch(entities.size());
+		final Deadline deadline        = Deadline.current();
+
+		for (final T entity : entities) {
+
+			Runnable hook = new Runnable() {
+
+				@Override
+				public void run() {
+
+					Deadline previous = deadline != null ? deadline.enter() : null;
+					inPool.set(Boolean.TRUE);
+
+					try {
+						entity.onDbLoad();
+
+					} catch (Throwable t) {
+
+						synchronized (failures) {
+							failures.add(t);
+						}
+
+					} finally {
+
+						inPool.remove();
+						Deadline.restore(previous);
+						latch.countDown();
+					}
+				}
+			};
+
+			try {
+				executor.execute(hook);
+
+			} catch (RejectedExecutionException rex) {
+
+				// pool was replaced, run on this thread
+				hook.run();
+			}
+		}
+
+		latch.await();
+
+		if (!failures.isEmpty()) {
+			throw new PostLoadException(failures, entities.size());
+		}
+	}
+}
@@ -18,21 +18,36 @@
  */
 package org.structr.android.restclient;
 
+import java.util.List;
+
 /**
  * Encapsulates an exception that might be thrown during the execution of
- * a structr connector.
+ * a structr connector, or a chunk of results that a streaming connector
+ * has already received.
  * 
  * @author Christian Morgner
  */
 public class Progress {
 	
 	private Throwable throwable = null;
+	private List<? extends StructrObject> chunk = null;
 	
 	public Progress(Throwable throwable) {
 		this.throwable = throwable;
 	}
+
+	public Progress(List<? extends StructrObject> chunk) {
+		this.chunk = chunk;
+	}
 	
 	public Throwable getThrowable() {
 		return throwable;
 	}
+
+	/**
+	 * @return the chunk of results, or null if this progress encapsulates an exception
+	 */
+	public List<? extends StructrObject> getChunk() {
+		return chunk;
+	}
 }
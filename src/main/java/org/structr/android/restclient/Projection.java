@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+/**
+ * Selects a named structr view instead of the default representation of an
+ * entity. Views contain only a subset of the properties of a type, so they are
+ * a lot cheaper to transfer and parse for list screens. Entities that were
+ * loaded with a projection are partial, see {@link StructrObject#isPartial()}
+ * and {@link StructrObject#dbUpgrade()}.
+ *
+ * <p>A projection can be passed as an additional parameter to
+ * {@link StructrObject#dbList(Class, String, boolean, Object...)}, to the
+ * collection loaders and to {@link StructrObject#dbGet(Class, String, Projection)}.</p>
+ */
+public class Projection {
+
+	private String view = null;
+
+	private Projection(final String view) {
+		this.view = view;
+	}
+
+	/**
+	 * Creates a projection that requests the structr view with the given name,
+	 * i.e. <code>/rest/&lt;type&gt;/&lt;view&gt;</code>.
+	 *
+	 * @param view the name of the view
+	 * @return the projection
+	 */
+	public static Projection view(final String view) {
+		return new Projection(view);
+	}
+
+	public String getView() {
+		return view;
+	}
+
+	@Override
+	public String toString() {
+		return view;
+	}
+
+	// ----- package-private static methods -----
+	/**
+	 * Inserts the view of the given projection into the given path, right
+	 * before the query string.
+	 */
+	static String apply(final Projection projection, final String path) {
+
+		if (projection == null) {
+			return path;
+		}
+
+		int pos = path.indexOf('?');
+		if (pos < 0) {
+			return path.concat("/").concat(projection.getView());
+		}
+
+		return path.substring(0, pos).concat("/").concat(projection.getView()).concat(path.substring(pos));
+	}
+
+	static String getView(final Projection projection) {
+		return projection != null ? projection.getView() : null;
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+/**
+ * A connection to the server that delivers {@link ChangeEvent}s as soon as
+ * entities are created, modified or deleted. Subscriptions of a client share
+ * a single channel. The default implementation is {@link OkHttpPushChannel},
+ * a stand-in for tests can be configured with
+ * {@link StructrSubscriptions#setChannelFactory(PushChannel.Factory)}.
+ */
+public interface PushChannel {
+
+	/**
+	 * Opens this channel. Implementations must not block, the listener is
+	 * notified when the channel is ready.
+	 *
+	 * @param listener the listener that receives the events of this channel
+	 */
+	public void open(final Listener listener);
+
+	/**
+	 * Closes this channel. The listener will not receive any more events.
+	 */
+	public void close();
+
+	// ----- nested classes -----
+	/**
+	 * Receives the events of a {@link PushChannel}. Methods can be called on
+	 * any thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * Will be called when the channel is ready. Events that occurred while
+		 * the channel was closed are lost, so listeners should refresh their
+		 * state here.
+		 */
+		public void onOpen();
+
+		public void onEvent(final ChangeEvent event);
+
+		/**
+		 * Will be called when the channel was closed by the server or failed.
+		 *
+		 * @param cause the cause of the failure, or null
+		 */
+		public void onClosed(final Throwable cause);
+	}
+
+	/**
+	 * Creates the push channels of a client.
+	 */
+	public interface Factory {
+
+		public PushChannel create(final StructrClient client);
+	}
+}
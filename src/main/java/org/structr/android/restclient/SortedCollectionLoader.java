@@ -27,7 +27,9 @@ import java.util.List;
  * parameters are: a String that specifies the sort key, a boolean that indicates
  * whether the results should be sorted ascending (true) or descending (false), and
  * zero or more {@see SortedCollectionLoader.Param} instances that specify filter
- * and/or paging parameters for the REST method call.
+ * and/or paging parameters for the REST method call. An optional {@see Projection}
+ * selects the view to load. Instead of these parameters, you can pass a
+ * {@see StructrQuery} that describes the whole request.
  *
  * <p>The following example shows how you can use this class in your activity.</p>
  * <pre>
@@ -44,23 +46,40 @@ import java.util.List;
  * }).execute(Example.class, sortyKey, sortAscendingDescending, "/examples);
  * </pre>
  *
+ * <p>If the handler is a {@see StreamingCollectionHandler}, the results are
+ * delivered in chunks while the response is still being received.</p>
+ *
  * @author Christian Morgner
  */
 public class SortedCollectionLoader<T extends StructrObject> extends StructrConnector<List<T>> {
 
 	private CollectionHandler updater = null;
+	private int chunkSize             = DEFAULT_CHUNK_SIZE;
 
 	public SortedCollectionLoader(CollectionHandler updater) {
 		this.updater = updater;
 	}
 
+	/**
+	 * Sets the number of results that are passed to a {@see StreamingCollectionHandler}
+	 * at once.
+	 *
+	 * @param chunkSize the chunk size
+	 * @return this loader
+	 */
+	public SortedCollectionLoader<T> setChunkSize(final int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
 	@Override
 	protected List<T> doInBackground(Object... parameters) {
 
-		List<Param> params = new ArrayList<Param>();
-		String sortKey     = "id";
-		Boolean asc        = true;
-		Class<T> type      = null;
+		List<Object> params     = new ArrayList<Object>();
+		StructrQuery<T> query   = null;
+		String sortKey          = "id";
+		Boolean asc             = true;
+		Class<T> type           = null;
 
 		try {
 			for(Object obj : parameters) {
@@ -77,13 +96,31 @@ public class SortedCollectionLoader<T extends StructrObject> extends StructrConn
 
 					asc = (Boolean)obj;
 
-				} else if(obj instanceof Param) {
+				} else if(obj instanceof StructrQuery) {
+
+					query = (StructrQuery<T>)obj;
+
+				} else if(obj instanceof Param || obj instanceof Projection) {
+
+					params.add(obj);
+				}
+			}
+
+			if (query == null) {
+
+				query = StructrQuery.of(type).sort(sortKey, asc);
+
+				for (Object param : params) {
 
-					params.add((Param)obj);
+					if (param instanceof Param) {
+						query.eq(((Param)param).name, ((Param)param).value);
+					} else {
+						query.view((Projection)param);
+					}
 				}
 			}
 
-			return StructrObject.dbList(type, sortKey, asc, params.toArray());
+			return StructrObject.dbList(getClient(), query, chunkSize, this.<T>createChunkListener(updater));
 
 		} catch(Throwable t) {
 			publishProgress(new Progress(t));
@@ -94,7 +131,7 @@ public class SortedCollectionLoader<T extends StructrObject> extends StructrConn
 
 	@Override
 	protected void onProgressUpdate(Progress... progress) {
-		updater.handleProgress(progress);
+		dispatchProgress(updater, progress);
 	}
 
 	@Override
@@ -102,6 +139,10 @@ public class SortedCollectionLoader<T extends StructrObject> extends StructrConn
 		updater.handleResults(list);
 	}
 
+	/**
+	 * A filter parameter. Use {@see StructrQuery} for range, list and paging
+	 * parameters.
+	 */
 	public static class Param {
 
 		String name = null;
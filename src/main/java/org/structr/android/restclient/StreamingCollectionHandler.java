@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.List;
+
+/**
+ * A {@see CollectionHandler} that receives the results of a collection
+ * resource in chunks while they are still being downloaded. Register it
+ * with a {@see PathCollectionLoader} or a {@see SortedCollectionLoader} to
+ * display the first results before the whole response has arrived.
+ */
+public interface StreamingCollectionHandler<T extends StructrObject> extends CollectionHandler<T> {
+
+	/**
+	 * Will be called for every chunk of results, in the order in which the
+	 * results arrive. {@see CollectionHandler#handleResults} will be called
+	 * with the complete result list after the last chunk.
+	 * @param chunk the results of this chunk
+	 */
+	public void handleChunk(List<T> chunk);
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shrinks all registered {@link TrimmableCache}s of this library when the
+ * system runs low on memory, so that our caches never get the application
+ * killed. The manager is installed by {@link StructrConnector#initialize(Context)},
+ * caches are held weakly and need not be unregistered.
+ */
+public class StructrCacheManager implements ComponentCallbacks2 {
+
+	private static final StructrCacheManager instance = new StructrCacheManager();
+
+	private final Map<TrimmableCache, Boolean> caches = new WeakHashMap<TrimmableCache, Boolean>();
+	private Context context                           = null;
+	private int lastLevel                             = 0;
+
+	private StructrCacheManager() {}
+
+	public static StructrCacheManager getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Registers this manager for memory pressure callbacks of the given
+	 * context's application. Subsequent calls have no effect.
+	 *
+	 * @param context any context of the application
+	 */
+	public synchronized void install(final Context context) {
+
+		if (this.context == null) {
+
+			this.context = context.getApplicationContext();
+			this.context.registerComponentCallbacks(this);
+		}
+	}
+
+	public synchronized void register(final TrimmableCache cache) {
+		caches.put(cache, Boolean.TRUE);
+	}
+
+	public synchronized void unregister(final TrimmableCache cache) {
+		caches.remove(cache);
+	}
+
+	/**
+	 * @return the currently registered caches, e.g. to display their sizes
+	 * and eviction counts
+	 */
+	public synchronized List<TrimmableCache> getCaches() {
+		return Collections.unmodifiableList(new ArrayList<TrimmableCache>(caches.keySet()));
+	}
+
+	/**
+	 * @return the level of the last memory pressure event, or 0
+	 */
+	public synchronized int getLastTrimLevel() {
+		return lastLevel;
+	}
+
+	/**
+	 * Returns the fraction of its current size that a cache should keep at
+	 * the given trim level. Caches are cleared when the process is likely to
+	 * be killed or the device is critically low on memory, and halved or
+	 * reduced by a quarter on milder levels.
+	 *
+	 * @param level one of the TRIM_MEMORY constants of {@link ComponentCallbacks2}
+	 * @return the fraction to keep, between 0 and 1
+	 */
+	public static float getRetainedFraction(final int level) {
+
+		if (level >= TRIM_MEMORY_MODERATE) {
+			return 0.0f;
+		}
+
+		if (level >= TRIM_MEMORY_UI_HIDDEN) {
+			return 0.5f;
+		}
+
+		if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+			return 0.0f;
+		}
+
+		if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			return 0.5f;
+		}
+
+		if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+			return 0.75f;
+		}
+
+		return 1.0f;
+	}
+
+	/**
+	 * Trims all registered caches as if the given memory pressure event had
+	 * occurred.
+	 *
+	 * @param level one of the TRIM_MEMORY constants of {@link ComponentCallbacks2}
+	 */
+	public void trimMemory(final int level) {
+
+		for (TrimmableCache cache : getCaches()) {
+			cache.trimMemory(level);
+		}
+	}
+
+	// ----- interface ComponentCallbacks2 -----
+	@Override
+	public void onTrimMemory(final int level) {
+
+		synchronized (this) {
+			lastLevel = level;
+		}
+
+		trimMemory(level);
+	}
+
+	@Override
+	public void onLowMemory() {
+		onTrimMemory(TRIM_MEMORY_COMPLETE);
+	}
+
+	@Override
+	public void onConfigurationChanged(final Configuration newConfig) {
+	}
+}
@@ -0,0 +1,454 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The connection settings, worker pool, entity cache and metrics for a single
+ * structr REST server. Most applications only need the default client that is
+ * configured by {@link StructrConnector#initialize(android.content.Context)},
+ * but you can create additional instances to talk to several servers at the
+ * same time. Connectors can be bound to a client with
+ * {@link StructrConnector#bindTo(StructrClient)}.
+ *
+ * <p>A client can have any number of read replicas in addition to its primary
+ * server. Write operations always go to the primary server, read operations
+ * are routed to the server with the lowest measured latency.</p>
+ */
+public class StructrClient {
+
+	private static final StructrClient defaultClient = new StructrClient();
+
+	private static final long PROBE_INTERVAL = TimeUnit.SECONDS.toNanos(60);
+	private static final long FAILURE_PENALTY = TimeUnit.SECONDS.toNanos(10);
+	private static final int DEFAULT_POOL_SIZE = 4;
+	private static final int DEFAULT_BATCH_SIZE = 100;
+	private static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+	private static final int DEFAULT_READ_TIMEOUT = 30000;
+
+	private final List<Endpoint> replicas = new CopyOnWriteArrayList<Endpoint>();
+	private final EntityCache cache       = new EntityCache();
+	private final Metrics metrics         = new Metrics();
+	private ExecutorService batchExecutor = null;
+	private volatile ExecutorService executor         = null;
+	private volatile ExecutorService postLoadExecutor = null;
+	private StructrSubscriptions subscriptions = null;
+
+	private volatile StructrTransport transport = new UrlConnectionTransport();
+	private volatile int connectTimeout         = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int readTimeout            = DEFAULT_READ_TIMEOUT;
+	private volatile long requestTimeout        = 0;
+	private volatile int batchSize              = DEFAULT_BATCH_SIZE;
+
+	private volatile Endpoint primary     = null;
+	private volatile String userName      = null;
+	private volatile String password      = null;
+
+	/**
+	 * Creates an unconfigured client. You must call {@link #configure} before
+	 * using it.
+	 */
+	public StructrClient() {
+		this(null, null, null);
+	}
+
+	public StructrClient(final String server, final String userName, final String password) {
+
+		this.executor      = createExecutor("StructrClient #", DEFAULT_POOL_SIZE);
+		this.batchExecutor = createExecutor("StructrClient batch #", DEFAULT_POOL_SIZE);
+		configure(server, userName, password);
+	}
+
+	/**
+	 * @return the client that is used by all connectors and entities that are
+	 * not explicitly bound to a different client
+	 */
+	public static StructrClient getDefault() {
+		return defaultClient;
+	}
+
+	/**
+	 * Sets the primary server and the credentials of this client.
+	 *
+	 * @param server the base URL of the primary server
+	 * @param userName the user name
+	 * @param password the password
+	 */
+	public void configure(final String server, final String userName, final String password) {
+
+		this.primary  = server != null ? new Endpoint(server) : null;
+		this.userName = userName;
+		this.password = password;
+	}
+
+	/**
+	 * Adds a read replica to this client. Read operations will be routed to
+	 * the replica when its measured latency is lower than the latency of the
+	 * primary server.
+	 *
+	 * @param server the base URL of the replica
+	 */
+	public void addReplica(final String server) {
+		replicas.add(new Endpoint(server));
+	}
+
+	public void removeReplica(final String server) {
+
+		for (Endpoint endpoint : replicas) {
+			if (endpoint.getServer().equals(server)) {
+				replicas.remove(endpoint);
+			}
+		}
+	}
+
+	/**
+	 * Sets the maximum number of connectors that can run concurrently on
+	 * this client's worker pool.
+	 *
+	 * @param poolSize the number of worker threads
+	 */
+	public synchronized void setPoolSize(final int poolSize) {
+
+		ExecutorService old = executor;
+		executor = createExecutor("StructrClient #", poolSize);
+		old.shutdown();
+	}
+
+	/**
+	 * Enables parallel execution of {@link StructrObject#onDbLoad()} for the
+	 * entities of a collection. Hooks run on a separate pool with the given
+	 * number of threads, and all failures are reported together in a
+	 * {@link PostLoadException}. Use this when your onDbLoad() overrides make
+	 * synchronous requests.
+	 *
+	 * @param parallelism the maximum number of hooks that run concurrently,
+	 * or 1 to run them sequentially on the loading thread (the default)
+	 */
+	public synchronized void setPostLoadParallelism(final int parallelism) {
+
+		ExecutorService old = postLoadExecutor;
+		postLoadExecutor = parallelism > 1 ? createExecutor("StructrClient post-load #", parallelism) : null;
+
+		if (old != null) {
+			old.shutdown();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of IDs per request of
+	 * {@link StructrObject#dbGetAll(StructrClient, Class, java.util.Collection)}.
+	 *
+	 * @param batchSize the number of IDs per request, default 100
+	 */
+	public void setBatchSize(final int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public String getServer() {
+		return getPrimary().getServer();
+	}
+
+	public String getUserName() {
+		if (userName == null) {
+			throw new IllegalStateException("StructrClient not configured! You must call StructrConnector.initialize() or StructrClient.configure() before using it.");
+		}
+		return userName;
+	}
+
+	public String getPassword() {
+		if (password == null) {
+			throw new IllegalStateException("StructrClient not configured! You must call StructrConnector.initialize() or StructrClient.configure() before using it.");
+		}
+		return password;
+	}
+
+	/**
+	 * Replaces the network layer of this client, e.g. with an
+	 * {@link OkHttpTransport} to multiplex requests over HTTP/2.
+	 *
+	 * @param transport the transport
+	 */
+	public void setTransport(final StructrTransport transport) {
+		this.transport = transport;
+	}
+
+	public StructrTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Sets the timeouts for every request of this client. A request fails with
+	 * a {@link StructrTimeoutException} if it cannot connect within the connect
+	 * timeout, if the server does not send data for longer than the read
+	 * timeout, or if it takes longer than the request timeout in total.
+	 *
+	 * @param connectTimeout the connect timeout in milliseconds, default 15 seconds
+	 * @param readTimeout the read timeout in milliseconds, default 30 seconds
+	 * @param requestTimeout the total timeout per request in milliseconds, or 0 for none
+	 */
+	public void setTimeouts(final int connectTimeout, final int readTimeout, final long requestTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout    = readTimeout;
+		this.requestTimeout = requestTimeout;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public long getRequestTimeout() {
+		return requestTimeout;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return the live query subscriptions of this client
+	 */
+	public synchronized StructrSubscriptions getSubscriptions() {
+
+		if (subscriptions == null) {
+			subscriptions = new StructrSubscriptions(this);
+		}
+
+		return subscriptions;
+	}
+
+	public EntityCache getCache() {
+		return cache;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	// ----- package-private methods -----
+	Endpoint getPrimary() {
+
+		Endpoint endpoint = primary;
+		if (endpoint == null) {
+			throw new IllegalStateException("StructrClient not configured! You must call StructrConnector.initialize() or StructrClient.configure() before using it.");
+		}
+
+		return endpoint;
+	}
+
+	/**
+	 * Selects the endpoint for a read operation. Endpoints that have not been
+	 * measured for a while are probed first, otherwise the endpoint with the
+	 * lowest average latency wins.
+	 */
+	Endpoint getReadEndpoint() {
+
+		Endpoint best = getPrimary();
+		if (replicas.isEmpty()) {
+			return best;
+		}
+
+		long now = System.nanoTime();
+		if (best.needsProbe(now)) {
+			return best;
+		}
+
+		for (Endpoint endpoint : replicas) {
+
+			if (endpoint.needsProbe(now)) {
+				return endpoint;
+			}
+
+			if (endpoint.getLatency() < best.getLatency()) {
+				best = endpoint;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * @return the deadline for a request that starts now, i.e. the earlier of
+	 * the current thread's deadline and the request timeout, or null
+	 */
+	Deadline getRequestDeadline() {
+
+		Deadline deadline = Deadline.current();
+		if (requestTimeout > 0) {
+			deadline = Deadline.earliest(deadline, Deadline.after(requestTimeout, TimeUnit.MILLISECONDS));
+		}
+
+		return deadline;
+	}
+
+	/**
+	 * @return the pool that runs the batches of bulk operations. Tasks in this
+	 * pool never wait for other tasks, so bulk operations cannot deadlock
+	 * when they are called from a connector.
+	 */
+	ExecutorService getBatchExecutor() {
+		return batchExecutor;
+	}
+
+	/**
+	 * @return the pool for parallel post-load hooks, or null if they run
+	 * sequentially
+	 */
+	ExecutorService getPostLoadExecutor() {
+		return postLoadExecutor;
+	}
+
+	// ----- private methods -----
+	private static ExecutorService createExecutor(final String name, final int poolSize) {
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(runnable, name + count.incrementAndGet());
+			}
+		});
+
+		pool.allowCoreThreadTimeOut(true);
+
+		return pool;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * A server this client can talk to, together with its measured latency.
+	 */
+	static class Endpoint {
+
+		private String server         = null;
+		private volatile long latency = 0;
+		private volatile long measured = 0;
+
+		Endpoint(final String server) {
+			this.server = server;
+		}
+
+		String getServer() {
+			return server;
+		}
+
+		long getLatency() {
+			return latency;
+		}
+
+		/**
+		 * Records the duration of a successful request, using an exponentially
+		 * weighted moving average so that a single slow request does not move
+		 * all traffic to a different server.
+		 */
+		void success(final long nanos) {
+
+			long current = latency;
+			latency  = measured == 0 ? nanos : (current * 4 + nanos) / 5;
+			measured = System.nanoTime();
+		}
+
+		void failure() {
+
+			latency  = Math.max(latency * 2, FAILURE_PENALTY);
+			measured = System.nanoTime();
+		}
+
+		boolean needsProbe(final long now) {
+			return measured == 0 || now - measured > PROBE_INTERVAL;
+		}
+	}
+
+	/**
+	 * Request counters of a {@link StructrClient}.
+	 */
+	public static class Metrics {
+
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong latency  = new AtomicLong();
+		private final AtomicLong timeouts = new AtomicLong();
+
+		void success(final Endpoint endpoint, final long nanos) {
+
+			requests.incrementAndGet();
+			latency.addAndGet(nanos);
+			endpoint.success(nanos);
+		}
+
+		void failure(final Endpoint endpoint) {
+
+			requests.incrementAndGet();
+			failures.incrementAndGet();
+			endpoint.failure();
+		}
+
+		void timeout(final Endpoint endpoint) {
+
+			timeouts.incrementAndGet();
+			failure(endpoint);
+		}
+
+		public long getRequestCount() {
+			return requests.get();
+		}
+
+		/**
+		 * @return the number of failed requests, including timeouts
+		 */
+		public long getFailureCount() {
+			return failures.get();
+		}
+
+		public long getTimeoutCount() {
+			return timeouts.get();
+		}
+
+		/**
+		 * @return the average duration of successful requests in milliseconds
+		 */
+		public long getAverageLatency() {
+
+			long successful = requests.get() - failures.get();
+			if (successful > 0) {
+				return TimeUnit.NANOSECONDS.toMillis(latency.get() / successful);
+			}
+
+			return 0;
+		}
+	}
+}
@@ -23,6 +23,11 @@ import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.preference.PreferenceManager;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The base class for all asynchronous connectors in this package. Instances of
  * this class use the default shared preferences of the given activity to obtain
@@ -30,6 +35,10 @@ import android.preference.PreferenceManager;
  * REST server. The keys used for these values are "Server", "UserName" and
  * "Password".
  *
+ * <p>These settings configure the default {@link StructrClient}. To connect to a
+ * different server, bind the connector to another client with
+ * {@link #bindTo(StructrClient)}.</p>
+ *
  * @author Christian Morgner
  */
 public abstract class StructrConnector<T> extends AsyncTask<Object, Progress, T> {
@@ -38,9 +47,13 @@ public abstract class StructrConnector<T> extends AsyncTask<Object, Progress, T>
 	public static final String USERNAME_KEY = "UserName";
 	public static final String PASSWORD_KEY = "Password";
 
-	private static String server                  = null;
-	private static String userName                = null;
-	private static String password                = null;
+	/**
+	 * The default number of results per chunk for streaming connectors.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 20;
+
+	private StructrClient client = null;
+	private long timeout         = 0;
 
 	/**
 	 * This method must be called at least once to initialize the connection
@@ -61,32 +74,172 @@ public abstract class StructrConnector<T> extends AsyncTask<Object, Progress, T>
 		});
 
 		updatePreferences(prefs);
+
+		// shrink caches under memory pressure
+		StructrCacheManager.getInstance().install(context);
 	}
 
 	private static void updatePreferences(SharedPreferences prefs) {
-		server   = prefs.getString(SERVER_KEY, "");
-		userName = prefs.getString(USERNAME_KEY, "");
-		password = prefs.getString(PASSWORD_KEY, "");
+		StructrClient.getDefault().configure(prefs.getString(SERVER_KEY, ""), prefs.getString(USERNAME_KEY, ""), prefs.getString(PASSWORD_KEY, ""));
 	}
 
 	public static String getServer() {
-		if(server == null) {
-			throw new IllegalStateException("StructrConnector not initialized! You must call StructrConnector.initialize() before using it.");
-		}
-		return server;
+		return StructrClient.getDefault().getServer();
 	}
 
 	public static String getUserName() {
-		if(userName == null) {
-			throw new IllegalStateException("StructrConnector not initialized! You must call StructrConnector.initialize() before using it.");
-		}
-		return userName;
+		return StructrClient.getDefault().getUserName();
 	}
 
 	public static String getPassword() {
-		if(password == null) {
-			throw new IllegalStateException("StructrConnector not initialized! You must call StructrConnector.initialize() before using it.");
+		return StructrClient.getDefault().getPassword();
+	}
+
+	/**
+	 * Binds this connector to the given client. Entities that are passed to
+	 * this connector will be bound to the client as well.
+	 *
+	 * @param client the client to use
+	 * @return this connector
+	 */
+	public StructrConnector<T> bindTo(final StructrClient client) {
+		this.client = client;
+		return this;
+	}
+
+	/**
+	 * Sets a time budget for all requests of this connector, measured from
+	 * the call to {@link #start(Object...)}. Requests that exceed it fail
+	 * with a {@link StructrTimeoutException}. The budget only applies to
+	 * connectors that are started with {@link #start(Object...)}.
+	 *
+	 * @param timeout the timeout
+	 * @param unit the unit of the timeout
+	 * @return this connector
+	 */
+	public StructrConnector<T> setTimeout(final long timeout, final TimeUnit unit) {
+		this.timeout = unit.toMillis(timeout);
+		return this;
+	}
+
+	/**
+	 * Executes this connector on the worker pool of its client. Unlike
+	 * {@link #execute(Object[])}, this allows several connectors to run
+	 * concurrently, and keeps connectors of different clients apart.
+	 *
+	 * @param parameters the parameters of this connector
+	 * @return this connector
+	 */
+	public StructrConnector<T> start(final Object... parameters) {
+
+		final Executor executor = getClient().getExecutor();
+
+		if (timeout > 0) {
+
+			final Deadline deadline = Deadline.after(timeout, TimeUnit.MILLISECONDS);
+
+			// run the background part of this connector with the deadline
+			executeOnExecutor(new Executor() {
+
+				@Override
+				public void execute(final Runnable runnable) {
+
+					executor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+
+							Deadline previous = deadline.enter();
+							try {
+								runnable.run();
+
+							} finally {
+								Deadline.restore(previous);
+							}
+						}
+					});
+				}
+			}, parameters);
+
+		} else {
+
+			executeOnExecutor(executor, parameters);
+		}
+
+		return this;
+	}
+
+	/**
+	 * @return the client this connector is bound to, or the default client
+	 */
+	public StructrClient getClient() {
+		return client != null ? client : StructrClient.getDefault();
+	}
+
+	/**
+	 * Binds the given entity to the client of this connector, if this
+	 * connector was explicitly bound to a client.
+	 *
+	 * @param entity the entity
+	 */
+	protected void bind(final StructrObject entity) {
+
+		if (client != null && entity != null) {
+			entity.setClient(client);
+		}
+	}
+
+	/**
+	 * Creates a listener that publishes chunks of results as progress updates,
+	 * if the given handler is a {@link StreamingCollectionHandler}.
+	 *
+	 * @param handler the handler
+	 * @return the listener, or null if the handler does not support streaming
+	 */
+	protected <E extends StructrObject> ChunkListener<E> createChunkListener(final CollectionHandler handler) {
+
+		if (handler instanceof StreamingCollectionHandler) {
+
+			return new ChunkListener<E>() {
+
+				@Override
+				public void onChunk(final List<E> chunk) {
+					publishProgress(new Progress(chunk));
+				}
+			};
+		}
+
+		return null;
+	}
+
+	/**
+	 * Passes chunks of results to the given handler if it is a
+	 * {@link StreamingCollectionHandler}, and all other progress updates
+	 * to its handleProgress method.
+	 *
+	 * @param handler the handler
+	 * @param progress the progress updates
+	 */
+	protected void dispatchProgress(final CollectionHandler handler, final Progress... progress) {
+
+		List<Progress> other = new ArrayList<Progress>(progress.length);
+
+		for (Progress p : progress) {
+
+			if (p.getChunk() != null) {
+
+				if (handler instanceof StreamingCollectionHandler) {
+					((StreamingCollectionHandler)handler).handleChunk(p.getChunk());
+				}
+
+			} else {
+
+				other.add(p);
+			}
+		}
+
+		if (!other.isEmpty()) {
+			handler.handleProgress(other.toArray(new Progress[other.size()]));
 		}
-		return password;
 	}
 }
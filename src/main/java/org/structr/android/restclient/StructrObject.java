@@ -22,17 +22,34 @@ package org.structr.android.restclient;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.Serializable;
-import java.lang.reflect.ParameterizedType;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An abstract base class for REST entities on a structr server. This class encapsulates everything
@@ -40,13 +57,23 @@ import java.util.List;
  * entities from this class, and you can easily create, load, update and delete them on a structr
  * server.
  *
+ * <p>All static methods exist in two variants, one that uses the default {@link StructrClient}
+ * and one that takes the client to use as its first parameter. Entities remember the client they
+ * were loaded from, so {@link #dbStore()} and {@link #dbDelete()} go to the same server.</p>
+ *
  * @author Christian Morgner
  */
 public abstract class StructrObject implements Serializable {
 
-	private static final Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").create();
+	private static final Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").registerTypeAdapterFactory(new StructrRef.AdapterFactory()).create();
+
+	private static final int POST_LOAD_GROUP_SIZE = 100;
 
-	private static HttpURLConnection conn = null;
+	private static final Map<Class, Field[]> exposedFields = new ConcurrentHashMap<Class, Field[]>();
+	private static final Map<Class, Field[]> nestedFields  = new ConcurrentHashMap<Class, Field[]>();
+
+	private transient StructrClient client = null;
+	private transient String view          = null;
 
 	@Expose
 	private String id = null;
@@ -56,6 +83,10 @@ public abstract class StructrObject implements Serializable {
 	 * the entity has been created from the JSON source. You can
 	 * for example use this method to load nested fields of an
 	 * entity synchronously.
+	 *
+	 * <p>For collections, these hooks run one after another unless
+	 * {@link StructrClient#setPostLoadParallelism(int)} is set. Implement
+	 * {@link BatchPostLoad} to handle many entities with one request.</p>
 	 */
 	public void onDbLoad() {
 	}
@@ -76,6 +107,40 @@ public abstract class StructrObject implements Serializable {
 		this.id = id;
 	}
 
+	/**
+	 * @return the client this entity was loaded from or bound to, or the
+	 * default client
+	 */
+	public StructrClient getClient() {
+		return client != null ? client : StructrClient.getDefault();
+	}
+
+	/**
+	 * Binds this entity to the given client. All subsequent create, store and
+	 * delete operations will use this client.
+	 *
+	 * @param client the client
+	 */
+	public void setClient(final StructrClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * @return the name of the view this entity was loaded with, or null if this
+	 * entity contains the default representation
+	 */
+	public String getView() {
+		return view;
+	}
+
+	/**
+	 * @return whether this entity was loaded with a {@link Projection} and
+	 * contains only a subset of its properties
+	 */
+	public boolean isPartial() {
+		return view != null;
+	}
+
 	/**
 	 * @return whether the REST server knows about the existance of this entity.
 	 */
@@ -90,7 +155,8 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public void dbCreate() throws Throwable {
-		create(buildPath("/", getEntityName()), this, getClass());
+		create(getClient(), buildPath("/", getEntityName()), this, getClass());
+		getClient().getCache().put(this);
 	}
 
 	/**
@@ -99,7 +165,13 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public void dbStore() throws Throwable {
-		store(buildPath("/", getEntityName(), "/", getId()), this, getClass());
+
+		if (isPartial()) {
+			throw new IllegalStateException("Entity " + getId() + " was loaded with view " + view + ", call dbUpgrade() before storing it.");
+		}
+
+		store(getClient(), buildPath("/", getEntityName(), "/", getId()), this, getClass());
+		getClient().getCache().put(this);
 	}
 
 	/**
@@ -109,7 +181,29 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public void dbDelete() throws Throwable {
-		delete(buildPath("/", getEntityName(), "/", getId()));
+		delete(getClient(), buildPath("/", getEntityName(), "/", getId()));
+		getClient().getCache().remove(getClass(), getId());
+	}
+
+	/**
+	 * Replaces the properties of this partial entity with the default representation
+	 * from the REST server. Nothing happens if this entity is not partial.
+	 *
+	 * @throws Throwable
+	 */
+	public void dbUpgrade() throws Throwable {
+
+		if (isPartial()) {
+
+			StructrObject full = load(getClient(), getClass(), buildPath("/", getEntityName(), "/", getId()), null, 0);
+			if (full != null) {
+
+				copyExposedFields(full, this);
+				this.view = null;
+
+				getClient().getCache().put(this);
+			}
+		}
 	}
 
 	/**
@@ -121,10 +215,56 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> T dbGet(final Class<T> type, final String id) throws Throwable {
+		return dbGet(StructrClient.getDefault(), type, id);
+	}
+
+	/**
+	 * Loads an entity with the given type and ID from the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entity to load
+	 * @param id the ID of the entity to load
+	 * @return the entity from the REST server, or null if the entity was not found
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> T dbGet(final StructrClient client, final Class<T> type, final String id) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return load(client, type, buildPath("/", newInstance.getEntityName(), "/", id), null, 0);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Loads the given projection of an entity with the given type and ID from the REST server.
+	 *
+	 * @param type the type of the entity to load
+	 * @param id the ID of the entity to load
+	 * @param projection the projection to load
+	 * @return the partial entity from the REST server, or null if the entity was not found
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> T dbGet(final Class<T> type, final String id, final Projection projection) throws Throwable {
+		return dbGet(StructrClient.getDefault(), type, id, projection);
+	}
+
+	/**
+	 * Loads the given projection of an entity with the given type and ID from the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entity to load
+	 * @param id the ID of the entity to load
+	 * @param projection the projection to load
+	 * @return the partial entity from the REST server, or null if the entity was not found
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> T dbGet(final StructrClient client, final Class<T> type, final String id, final Projection projection) throws Throwable {
 
 		StructrObject newInstance = newInstance(type);
 		if (newInstance != null) {
-			return load(type, buildPath("/", newInstance.getEntityName(), "/", id));
+			return load(client, type, Projection.apply(projection, buildPath("/", newInstance.getEntityName(), "/", id)), Projection.getView(projection), 0);
 		}
 
 		return null;
@@ -140,10 +280,24 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> T dbLoad(final Class<T> type, final String key, final Object value) throws Throwable {
+		return dbLoad(StructrClient.getDefault(), type, key, value);
+	}
+
+	/**
+	 * Loads an entity with the given property value from the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entity to load
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the entity from the REST server, or null if the entity was not found
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> T dbLoad(final StructrClient client, final Class<T> type, final String key, final Object value) throws Throwable {
 
 		StructrObject newInstance = newInstance(type);
 		if (newInstance != null) {
-			return load(type, buildPath("/", newInstance.getEntityName(), "?", key, "=", value));
+			return dbLoad(client, StructrQuery.of(type).eq(key, value));
 		}
 
 		return null;
@@ -159,48 +313,213 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> T dbLoad(final Class<T> type, final String path) throws Throwable {
+		return dbLoad(StructrClient.getDefault(), type, path);
+	}
+
+	/**
+	 * Loads an entity from the given path of the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entity to load
+	 * @param path the path of the entity to load
+	 * @return the entity from the REST server, or null if the entity was not found
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> T dbLoad(final StructrClient client, final Class<T> type, final String path) throws Throwable {
 
 		StructrObject newInstance = newInstance(type);
 		if (newInstance != null) {
-			return load(type, buildPath(path));
+			return load(client, type, buildPath(path), null, 0);
 		}
 
 		return null;
 	}
 
+	/**
+	 * Loads the first entity that matches the given query from the REST server.
+	 *
+	 * @param query the query
+	 * @return the first matching entity, or null if there is no such entity
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> T dbLoad(final StructrQuery<T> query) throws Throwable {
+		return dbLoad(StructrClient.getDefault(), query);
+	}
+
+	/**
+	 * Loads the first entity that matches the given query from the given client.
+	 *
+	 * @param client the client to use
+	 * @param query the query
+	 * @return the first matching entity, or null if there is no such entity
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> T dbLoad(final StructrClient client, final StructrQuery<T> query) throws Throwable {
+		return load(client, query.getType(), query.toPath(), Projection.getView(query.getProjection()), query.getDepth());
+	}
+
 	/**
 	 * Fetches a sorted list of entities with the given type from the REST server.
 	 *
 	 * @param type the type of the entities to load
 	 * @param sortKey the sort key
 	 * @param asc whether to sort ascending or descending
-	 * @param params additional parameters, may be empty
+	 * @param params additional parameters, may be empty, may contain a {@link Projection}
 	 * @return a sorted list of entities matching the given type and parameters
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> List<T> dbList(final Class<T> type, final String sortKey, final boolean asc, final Object... params) throws Throwable {
+		return dbList(StructrClient.getDefault(), type, sortKey, asc, params);
+	}
+
+	/**
+	 * Fetches a sorted list of entities with the given type from the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entities to load
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @param params additional parameters, may be empty, may contain a {@link Projection}
+	 * @return a sorted list of entities matching the given type and parameters
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbList(final StructrClient client, final Class<T> type, final String sortKey, final boolean asc, final Object... params) throws Throwable {
+		return dbList(client, toQuery(type, sortKey, asc, params));
+	}
+
+	/**
+	 * Fetches the entities that match the given query from the REST server.
+	 *
+	 * @param query the query
+	 * @return a list of entities matching the given query
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbList(final StructrQuery<T> query) throws Throwable {
+		return dbList(StructrClient.getDefault(), query);
+	}
+
+	/**
+	 * Fetches the entities that match the given query from the given client.
+	 *
+	 * @param client the client to use
+	 * @param query the query
+	 * @return a list of entities matching the given query
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbList(final StructrClient client, final StructrQuery<T> query) throws Throwable {
+		return dbList(client, query, 0, null);
+	}
+
+	/**
+	 * Fetches the entities that match the given query into a {@link CompactList}.
+	 * Use this method for very large collections, the entities are parsed one
+	 * by one and only their field values are retained.
+	 *
+	 * @param query the query
+	 * @return a compact list of entities matching the given query
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> CompactList<T> dbListCompact(final StructrQuery<T> query) throws Throwable {
+		return dbListCompact(StructrClient.getDefault(), query);
+	}
+
+	/**
+	 * Fetches the entities that match the given query from the given client
+	 * into a {@link CompactList}.
+	 *
+	 * @param client the client to use
+	 * @param query the query
+	 * @return a compact list of entities matching the given query
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> CompactList<T> dbListCompact(final StructrClient client, final StructrQuery<T> query) throws Throwable {
+
+		String view           = Projection.getView(query.getProjection());
+		CompactList<T> result = list(client, query.getType(), query.toPath(), view, query.getDepth(), new CompactList<T>(query.getType(), client, view), 0, null);
+
+		result.trimToSize();
+
+		return result;
+	}
+
+	/**
+	 * Fetches the entities that match the given query from the given client, handing
+	 * them to the given listener in chunks while the response is still being received.
+	 *
+	 * @param client the client to use
+	 * @param query the query
+	 * @param chunkSize the number of entities per chunk
+	 * @param listener the listener that receives the chunks, or null
+	 * @return a list of all entities matching the given query
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbList(final StructrClient client, final StructrQuery<T> query, final int chunkSize, final ChunkListener<T> listener) throws Throwable {
+		return list(client, query.getType(), query.toPath(), Projection.getView(query.getProjection()), query.getDepth(), chunkSize, listener);
+	}
+
+	/**
+	 * Fetches a list of entities from the given path. Use this method to fetch arbitrary collections.
+	 *
+	 * @param type the type of the entities to load
+	 * @param path the path of the entities to load
+	 * @return a list of entities from the given path
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbList(final Class<T> type, final String path) throws Throwable {
+		return dbList(StructrClient.getDefault(), type, path);
+	}
+
+	/**
+	 * Fetches a list of entities from the given path of the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entities to load
+	 * @param path the path of the entities to load
+	 * @return a list of entities from the given path
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbList(final StructrClient client, final Class<T> type, final String path) throws Throwable {
+		return dbList(client, type, path, (Projection)null);
+	}
+
+	/**
+	 * Fetches the given projection of a list of entities from the given path of the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entities to load
+	 * @param path the path of the entities to load, without the view
+	 * @param projection the projection to load, or null
+	 * @return a list of entities from the given path
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbList(final StructrClient client, final Class<T> type, final String path, final Projection projection) throws Throwable {
 
 		StructrObject newInstance = newInstance(type);
 		if (newInstance != null) {
-			return list(type, buildPath("/", newInstance.getEntityName(), "?sort=", sortKey, asc ? "" : "&order=desc", params));
+			return list(client, type, Projection.apply(projection, buildPath(path)), Projection.getView(projection), 0, 0, null);
 		}
 
 		return null;
 	}
 
 	/**
-	 * Fetches a list of entities from the given path. Use this method to fetch arbitrary collections.
+	 * Fetches a list of entities from the given path of the given client, handing them to
+	 * the given listener in chunks while the response is still being received.
 	 *
+	 * @param client the client to use
 	 * @param type the type of the entities to load
 	 * @param path the path of the entities to load
-	 * @return a list of entities from the given path
+	 * @param projection the projection to load, or null
+	 * @param chunkSize the number of entities per chunk
+	 * @param listener the listener that receives the chunks
+	 * @return a list of all entities from the given path
 	 * @throws Throwable
 	 */
-	public static <T extends StructrObject> List<T> dbList(final Class<T> type, final String path) throws Throwable {
+	public static <T extends StructrObject> List<T> dbList(final StructrClient client, final Class<T> type, final String path, final Projection projection, final int chunkSize, final ChunkListener<T> listener) throws Throwable {
 
 		StructrObject newInstance = newInstance(type);
 		if (newInstance != null) {
-			return list(type, buildPath(path));
+			return list(client, type, Projection.apply(projection, buildPath(path)), Projection.getView(projection), 0, chunkSize, listener);
 		}
 
 		return null;
@@ -218,10 +537,26 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> List<T> dbFind(final Class<T> type, final String key, final Object value, final String sortKey, final boolean asc) throws Throwable {
+		return dbFind(StructrClient.getDefault(), type, key, value, sortKey, asc);
+	}
+
+	/**
+	 * Fetches a sorted list of entities with the given type and property value from the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entities to load
+	 * @param key the property key to search for
+	 * @param value the property value to search for
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return a sorted list of entities matching the given type and property value
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbFind(final StructrClient client, final Class<T> type, final String key, final Object value, final String sortKey, final boolean asc) throws Throwable {
 
 		StructrObject newInstance = newInstance(type);
 		if (newInstance != null) {
-			return list(type, buildPath("/", newInstance.getEntityName(), "?", key, "=", value, "&sort=", sortKey, asc ? "" : "&order=desc"));
+			return dbList(client, StructrQuery.of(type).eq(key, value).sort(sortKey, asc));
 		}
 
 		return null;
@@ -239,14 +574,23 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> List<T> dbFind(final Class type, final String id, final Class<T> childType, final String sortKey, final boolean asc) throws Throwable {
+		return findChildren(StructrClient.getDefault(), type, id, childType, sortKey, asc);
+	}
 
-		StructrObject childInstance = newInstance(childType);
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return list(childType, buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName(), "?sort=", sortKey, asc ? "" : "&order=desc"));
-		}
-
-		return null;
+	/**
+	 * Fetches a sorted list of child entities for a given parent from the given client.
+	 *
+	 * @param client the client to use
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the children's type
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return a sorted list of entities that are children of a given parent entity with the given ID
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> List<T> dbFind(final StructrClient client, final Class type, final String id, final Class<T> childType, final String sortKey, final boolean asc) throws Throwable {
+		return findChildren(client, type, id, childType, sortKey, asc);
 	}
 
 	/**
@@ -264,274 +608,879 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> T dbFind(final Class type, final String id, final Class<T> childType, final String childId, final String sortKey, final boolean asc) throws Throwable {
+		return dbFind(StructrClient.getDefault(), type, id, childType, childId, sortKey, asc);
+	}
+
+	/**
+	 * Fetches a single child entitiy with a given ID from a parent with a given ID from the
+	 * given client.
+	 *
+	 * @param client the client to use
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the child's type
+	 * @param childId the child's ID
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return the child entity with the given ID, if there is a relationship with the parent
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> T dbFind(final StructrClient client, final Class type, final String id, final Class<T> childType, final String childId, final String sortKey, final boolean asc) throws Throwable {
 
 		StructrObject childInstance = newInstance(childType);
 		StructrObject newInstance = newInstance(type);
 		if (newInstance != null) {
-			return load(childType, buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName(), "/", childId));
+			return load(client, childType, buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName(), "/", childId), null, 0);
 		}
 
 		return null;
 	}
 
 
-
-	// ----- private methods -----
-	private String getEntityName() {
-		return getClass().getSimpleName().toLowerCase();
+	/**
+	 * Fetches the entities with the given type and IDs from the REST server.
+	 *
+	 * @param type the type of the entities
+	 * @param ids the IDs of the entities
+	 * @return the entities in the order of the given IDs, and the IDs that were not found
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> BulkResult<T> dbGetAll(final Class<T> type, final Collection<String> ids) throws Throwable {
+		return dbGetAll(StructrClient.getDefault(), type, ids);
 	}
 
+	/**
+	 * Fetches the entities with the given type and IDs from the given client.
+	 * Entities in the identity cache are not fetched again, the others are
+	 * fetched with one request per {@link StructrClient#getBatchSize()} IDs,
+	 * and the requests are issued concurrently. The deadline of the calling
+	 * thread applies to all requests.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entities
+	 * @param ids the IDs of the entities
+	 * @return the entities in the order of the given IDs, and the IDs that were not found
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> BulkResult<T> dbGetAll(final StructrClient client, final Class<T> type, final Collection<String> ids) throws Throwable {
 
-	// ----- private static methods -----
-	private static <T extends StructrObject> T load(final Class<T> type, final String path) throws Throwable {
+		Map<String, T> entities = new HashMap<String, T>();
+		List<String> misses     = new ArrayList<String>();
 
-        T result                           = null;
-        Throwable throwable                = null;
+		for (String id : new LinkedHashSet<String>(ids)) {
 
-        try {
-            conn = (HttpURLConnection) new URL(path).openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("X-User", StructrConnector.getUserName());
-            conn.setRequestProperty("X-Password", StructrConnector.getPassword());
+			T cached = client.getCache().get(type, id);
+			if (cached != null && !cached.isPartial()) {
+				entities.put(id, cached);
+			} else {
+				misses.add(id);
+			}
+		}
 
-            String response = "";
+		int batchSize = Math.max(client.getBatchSize(), 1);
+		List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+		final Deadline deadline = Deadline.current();
 
-			if (conn.getResponseCode() == 200) {
+		// the first batch runs on the calling thread, the others on the batch pool
+		for (int i=batchSize; i<misses.size(); i+=batchSize) {
 
-                InputStreamReader isr = new InputStreamReader(conn.getInputStream());
-                BufferedReader br = new BufferedReader(isr);
-                String line = "";
-                while((line = br.readLine()) != null){
-                    response+=line;
-                }
+			final StructrQuery<T> query = StructrQuery.of(type).in("id", misses.subList(i, Math.min(i + batchSize, misses.size())));
 
-				StructrEntityResult<T> entityResult = (StructrEntityResult<T>)gson.fromJson(response, getEntityTypeToken(type));
-				if (entityResult != null) {
+			futures.add(client.getBatchExecutor().submit(new Callable<List<T>>() {
 
-					result = entityResult.getResult();
-					result.onDbLoad();
-				}
+				@Override
+				public List<T> call() throws Exception {
 
-			} else {
-				throw new StructrException(conn.getResponseCode(), conn.getResponseMessage(), response);
-			}
+					Deadline previous = deadline != null ? deadline.enter() : null;
+					try {
+						return dbList(client, query);
 
-		} catch(Throwable t) {
+					} catch (Exception ex) {
+						throw ex;
 
-			throwable = t;
+					} catch (Throwable t) {
+						throw new ExecutionException(t);
 
-		} finally {
-            if(conn != null)
-                conn.disconnect();
+					} finally {
+						Deadline.restore(previous);
+					}
+				}
+			}));
 		}
 
-		if (throwable != null) {
-			throw throwable;
-		}
+		try {
+			if (!misses.isEmpty()) {
 
-		return result;
-	}
+				for (T entity : dbList(client, StructrQuery.of(type).in("id", misses.subList(0, Math.min(batchSize, misses.size()))))) {
+					entities.put(entity.getId(), entity);
+				}
+			}
 
-	private static int create(String path, StructrObject entity, Type type) throws Throwable {
+			for (Future<List<T>> future : futures) {
 
-		Throwable throwable                 = null;
-		String response                     = "";
-        int responseCode                    = 0;
+				for (T entity : future.get()) {
+					entities.put(entity.getId(), entity);
+				}
+			}
 
-		try {
-            //Cast the entity to Json
-			StringBuilder buf = new StringBuilder();
-			gson.toJson(entity, type, buf);
-
-            //Configure the Connection
-            conn = (HttpURLConnection) new URL(path).openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoInput(true);
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("X-User", StructrConnector.getUserName());
-            conn.setRequestProperty("X-Password", StructrConnector.getPassword());
-
-            //Write Json
-            OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
-            wr.write(buf.toString());
-            wr.flush();
-
-           	responseCode = conn.getResponseCode();
-			if (responseCode == 201) {
+		} catch (ExecutionException eex) {
 
-                //Read the response message
-                InputStreamReader isr = new InputStreamReader(conn.getInputStream());
-                BufferedReader br = new BufferedReader(isr);
-                String line = "";
-                while((line = br.readLine()) != null){
-                    response+=line;
-                }
+			Throwable cause = eex.getCause();
+			while (cause instanceof ExecutionException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
 
-				String location = conn.getHeaderField("Location");
-				String newId = getIdFromLocation(location);
+			throw cause;
 
-				// only set ID of it's not already set
-				if (entity.getId() == null) {
-					entity.setId(newId);
+		} finally {
+
+			for (Future<List<T>> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		return new BulkResult<T>(new ArrayList<String>(ids), entities);
+	}
+
+	/**
+	 * Counts the entities that match the given query on the REST server,
+	 * without fetching them.
+	 *
+	 * @param query the query
+	 * @return the number of matching entities
+	 * @throws Throwable
+	 */
+	public static long dbCount(final StructrQuery<?> query) throws Throwable {
+		return dbCount(StructrClient.getDefault(), query);
+	}
+
+	/**
+	 * Counts the entities that match the given query on the given client,
+	 * without fetching them. Only a single entity is transferred, the count is
+	 * taken from the result_count of the response.
+	 *
+	 * @param client the client to use
+	 * @param query the query
+	 * @return the number of matching entities
+	 * @throws Throwable
+	 */
+	public static long dbCount(final StructrClient client, final StructrQuery<?> query) throws Throwable {
+		return count(client, query.copy().page(1, 1).toPath());
+	}
+
+	/**
+	 * Checks whether an entity with the given type and ID exists on the REST server.
+	 *
+	 * @param type the type of the entity
+	 * @param id the ID of the entity
+	 * @return whether the entity exists
+	 * @throws Throwable
+	 */
+	public static boolean dbExists(final Class<? extends StructrObject> type, final String id) throws Throwable {
+		return dbExists(StructrClient.getDefault(), type, id);
+	}
+
+	/**
+	 * Checks whether an entity with the given type and ID exists on the given
+	 * client, using a HEAD request that transfers no entity data.
+	 *
+	 * @param client the client to use
+	 * @param type the type of the entity
+	 * @param id the ID of the entity
+	 * @return whether the entity exists
+	 * @throws Throwable
+	 */
+	public static boolean dbExists(final StructrClient client, final Class<? extends StructrObject> type, final String id) throws Throwable {
+		return exists(client, buildPath("/", getEntityName(type), "/", id));
+	}
+
+	/**
+	 * Checks whether the parent with the given ID has a child with the given ID.
+	 *
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the child's type
+	 * @param childId the child's ID
+	 * @return whether there is a relationship between parent and child
+	 * @throws Throwable
+	 */
+	public static boolean dbExists(final Class<? extends StructrObject> type, final String id, final Class<? extends StructrObject> childType, final String childId) throws Throwable {
+		return dbExists(StructrClient.getDefault(), type, id, childType, childId);
+	}
+
+	/**
+	 * Checks whether the parent with the given ID has a child with the given
+	 * ID on the given client, using a HEAD request that transfers no entity data.
+	 *
+	 * @param client the client to use
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the child's type
+	 * @param childId the child's ID
+	 * @return whether there is a relationship between parent and child
+	 * @throws Throwable
+	 */
+	public static boolean dbExists(final StructrClient client, final Class<? extends StructrObject> type, final String id, final Class<? extends StructrObject> childType, final String childId) throws Throwable {
+		return exists(client, buildPath("/", getEntityName(type), "/", id, "/", getEntityName(childType), "/", childId));
+	}
+
+	// ----- package-private static methods -----
+	static String getEntityName(final Class type) {
+		return type.getSimpleName().toLowerCase();
+	}
+
+	static Gson getGson() {
+		return gson;
+	}
+
+	/**
+	 * Returns the accessible, exposed instance fields of the given type and
+	 * its super classes, sorted by declaring class and name so the order is
+	 * stable across VMs.
+	 */
+	static Field[] getExposedFields(final Class type) {
+
+		Field[] fields = exposedFields.get(type);
+		if (fields == null) {
+
+			List<Field> list = new ArrayList<Field>();
+			Class current    = type;
+
+			while (current != null && StructrObject.class.isAssignableFrom(current)) {
+
+				for (Field field : current.getDeclaredFields()) {
+
+					if (field.isAnnotationPresent(Expose.class) && !Modifier.isStatic(field.getModifiers())) {
+
+						field.setAccessible(true);
+						list.add(field);
+					}
 				}
 
-			} else {
+				current = current.getSuperclass();
+			}
+
+			Collections.sort(list, new Comparator<Field>() {
+
+				@Override
+				public int compare(final Field f1, final Field f2) {
+
+					int result = f1.getDeclaringClass().getName().compareTo(f2.getDeclaringClass().getName());
+					if (result == 0) {
+						result = f1.getName().compareTo(f2.getName());
+					}
+
+					return result;
+				}
+			});
+
+			fields = list.toArray(new Field[list.size()]);
+			exposedFields.put(type, fields);
+		}
+
+		return fields;
+	}
+
+	// ----- package-private methods -----
+	void setView(final String view) {
+		this.view = view;
+	}
+
+	// ----- private methods -----
+	private String getEntityName() {
+		return getEntityName(getClass());
+	}
+
+
+	// ----- private static methods -----
+	private static <T extends StructrObject> List<T> findChildren(final StructrClient client, final Class type, final String id, final Class<T> childType, final String sortKey, final boolean asc) throws Throwable {
+
+		return dbList(client, StructrQuery.of(childType).under(type, id).sort(sortKey, asc));
+	}
+
+	private static <T extends StructrObject> T load(final StructrClient client, final Class<T> type, final String path, final String view, final int depth) throws Throwable {
+
+		StructrClient.Endpoint endpoint    = client.getReadEndpoint();
+		StructrResponse response           = null;
+		T result                           = null;
+		Throwable throwable                = null;
+		long start                         = System.nanoTime();
+		long latency                       = -1;
+
+		try {
+			response = execute(client, endpoint, path, "GET", null);
+			latency = System.nanoTime() - start;
+
+			if (response.getCode() == 200) {
+
+				JsonReader reader = new JsonReader(new InputStreamReader(response.getBody(), "UTF-8"));
+				try {
+					result = readEntity(type, reader);
+
+				} finally {
+					reader.close();
+				}
+
+				if (result != null) {
+
+					attach(client, result, view, depth);
+					PostLoader.run(client, Collections.singletonList(result));
+				}
 
-				throw new StructrException(conn.getResponseCode(),conn.getResponseMessage(), response);
+			} else {
+				throw new StructrException(response.getCode(), response.getMessage(), "");
 			}
 
 		} catch(Throwable t) {
+
 			throwable = t;
+
 		} finally {
-            if(conn != null)
-                conn.disconnect();
+			close(response);
 		}
 
-		if (throwable != null) {
-			throw throwable;
+		return finish(client, endpoint, latency, throwable, result);
+	}
+
+	private static int create(final StructrClient client, String path, StructrObject entity, Type type) throws Throwable {
+
+		StructrClient.Endpoint endpoint     = client.getPrimary();
+		StructrResponse response            = null;
+		Throwable throwable                 = null;
+		int responseCode                    = 0;
+		long start                          = System.nanoTime();
+		long latency                        = -1;
+
+		try {
+			response     = execute(client, endpoint, path, "POST", toJson(entity, type));
+			latency = System.nanoTime() - start;
+			responseCode = response.getCode();
+
+			if (responseCode == 201) {
+
+				String location = response.getHeader("Location");
+				String newId = getIdFromLocation(location);
+
+				// only set ID of it's not already set
+				if (entity.getId() == null) {
+					entity.setId(newId);
+				}
+
+			} else {
+
+				throw new StructrException(responseCode, response.getMessage(), read(response.getBody()));
+			}
+
+		} catch(Throwable t) {
+			throwable = t;
+		} finally {
+			close(response);
 		}
 
-		return responseCode;
+		return finish(client, endpoint, latency, throwable, responseCode);
 	}
 
-	private static int store(String path, StructrObject entity, Type type) throws Throwable {
+	private static int store(final StructrClient client, String path, StructrObject entity, Type type) throws Throwable {
 
+		StructrClient.Endpoint endpoint     = client.getPrimary();
+		StructrResponse response            = null;
 		Throwable throwable                 = null;
 		int responseCode                    = 0;
+		long start                          = System.nanoTime();
+		long latency                        = -1;
+
+		try {
+			response     = execute(client, endpoint, path, "POST", toJson(entity, type));
+			latency = System.nanoTime() - start;
+			responseCode = response.getCode();
+
+			if (responseCode < 200 || responseCode > 299) {
+
+				throw new StructrException(responseCode, response.getMessage(), read(response.getBody()));
+			}
+
+		} catch(Throwable t) {
+			throwable = t;
+
+		} finally {
+			close(response);
+		}
+
+		return finish(client, endpoint, latency, throwable, responseCode);
+	}
+
+	private static long count(final StructrClient client, final String path) throws Throwable {
+
+		StructrClient.Endpoint endpoint = client.getReadEndpoint();
+		StructrResponse response        = null;
+		Throwable throwable             = null;
+		long result                     = 0;
+		long start                      = System.nanoTime();
+		long latency                    = -1;
 
 		try {
-			StringBuilder buf = new StringBuilder();
-			gson.toJson(entity, type, buf);
+			response = execute(client, endpoint, path, "GET", null);
+			latency = System.nanoTime() - start;
 
-            //Configure the Connection
-            conn = (HttpURLConnection) new URL(path).openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoInput(true);
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("X-User", StructrConnector.getUserName());
-            conn.setRequestProperty("X-Password", StructrConnector.getPassword());
+			if (response.getCode() == 200) {
 
-            //Write Json
-            OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
-            wr.write(buf.toString());
-            wr.flush();
+				JsonReader reader = new JsonReader(new InputStreamReader(response.getBody(), "UTF-8"));
+				try {
+					result = readCount(reader);
+
+				} finally {
+					reader.close();
+				}
 
-			responseCode = conn.getResponseCode();
+			} else {
+
+				throw new StructrException(response.getCode(), response.getMessage(), read(response.getBody()));
+			}
 
 		} catch(Throwable t) {
+
 			throwable = t;
 
 		} finally {
-            if(conn != null)
-                conn.disconnect();
+			close(response);
 		}
 
-		if (throwable != null) {
-			throw throwable;
+		return finish(client, endpoint, latency, throwable, result);
+	}
+
+	private static boolean exists(final StructrClient client, final String path) throws Throwable {
+
+		StructrClient.Endpoint endpoint = client.getReadEndpoint();
+		StructrResponse response        = null;
+		Throwable throwable             = null;
+		boolean result                  = false;
+		long start                      = System.nanoTime();
+		long latency                    = -1;
+
+		try {
+			response = execute(client, endpoint, path, "HEAD", null);
+			latency = System.nanoTime() - start;
+
+			int responseCode = response.getCode();
+			if (responseCode == 200) {
+
+				result = true;
+
+			} else if (responseCode != 404) {
+
+				throw new StructrException(responseCode, response.getMessage(), "");
+			}
+
+		} catch(Throwable t) {
+
+			throwable = t;
+
+		} finally {
+			close(response);
 		}
 
-		return responseCode;
+		return finish(client, endpoint, latency, throwable, result);
 	}
 
-	private static int delete(String path) throws Throwable {
+	private static int delete(final StructrClient client, String path) throws Throwable {
 
+		StructrClient.Endpoint endpoint  = client.getPrimary();
+		StructrResponse response         = null;
 		Throwable throwable              = null;
 		int responseCode                 = 0;
+		long start                       = System.nanoTime();
+		long latency                     = -1;
 
 		try {
-            conn = (HttpURLConnection) new URL(path).openConnection();
-            conn.setRequestMethod("DELETE");
-            conn.setRequestProperty("X-User", StructrConnector.getUserName());
-            conn.setRequestProperty("X-Password", StructrConnector.getPassword());
-			responseCode = conn.getResponseCode();
+			response     = execute(client, endpoint, path, "DELETE", null);
+			latency = System.nanoTime() - start;
+			responseCode = response.getCode();
 
 		} catch(Throwable t) {
 
 			throwable = t;
 
 		} finally {
-            if(conn != null)
-                conn.disconnect();
+			close(response);
 		}
 
-		if (throwable != null) {
-			throw throwable;
-		}
+		return finish(client, endpoint, latency, throwable, responseCode);
+	}
+
+	private static <T extends StructrObject> List<T> list(final StructrClient client, final Class<T> type, final String path) throws Throwable {
+		return list(client, type, path, null, 0, 0, null);
+	}
 
-		return responseCode;
+	private static <T extends StructrObject> List<T> list(final StructrClient client, final Class<T> type, final String path, final String view, final int depth, final int chunkSize, final ChunkListener<T> listener) throws Throwable {
+		return list(client, type, path, view, depth, new ArrayList<T>(), chunkSize, listener);
 	}
 
-	private static <T extends StructrObject> List<T> list(final Class<T> type, final String path) throws Throwable {
+	private static <T extends StructrObject, L extends List<T>> L list(final StructrClient client, final Class<T> type, final String path, final String view, final int depth, final L target, final int chunkSize, final ChunkListener<T> listener) throws Throwable {
 
-        String response         = "";
-		List<T> result          = null;
-        Throwable throwable     = null;
+		StructrClient.Endpoint endpoint = client.getReadEndpoint();
+		StructrResponse response        = null;
+		L result                        = null;
+		Throwable throwable             = null;
+		long start                      = System.nanoTime();
+		long latency                    = -1;
 
 		try {
-            conn = (HttpURLConnection) new URL(path).openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("X-User", StructrConnector.getUserName());
-            conn.setRequestProperty("X-Password", StructrConnector.getPassword());
-            conn.setRequestProperty("Accept-Charset", "UTF-8");
+			response = execute(client, endpoint, path, "GET", null);
+			latency = System.nanoTime() - start;
+
+			if (response.getCode() == 200) {
+
+				JsonReader reader = new JsonReader(new InputStreamReader(response.getBody(), "UTF-8"));
+				try {
+					result = readCollection(client, type, view, depth, reader, target, chunkSize, listener);
+
+				} finally {
+					reader.close();
+				}
+
+				// hooks may issue requests of their own, so the connection is released first
+				close(response);
+				response = null;
+
+				if (listener == null) {
+					postLoad(client, result);
+				}
+
+			} else {
+
+				throw new StructrException(response.getCode(), response.getMessage(), read(response.getBody()));
+			}
+
+		} catch(Throwable t) {
+
+			throwable = t;
+
+		} finally {
+			close(response);
+		}
+
+		return finish(client, endpoint, latency, throwable, result);
+	}
 
-            //Read the response message
-            InputStreamReader isr = new InputStreamReader(conn.getInputStream());
-            BufferedReader br = new BufferedReader(isr);
-            String line = "";
-            while((line = br.readLine()) != null){
-                response+=line;
-            }
+	/**
+	 * Parses the result of an entity response. Search queries return a
+	 * collection, in which case the first element is returned.
+	 */
+	private static <T extends StructrObject> T readEntity(final Class<T> type, final JsonReader reader) throws IOException {
+
+		T result = null;
 
-			if (conn.getResponseCode() == 200) {
+		reader.beginObject();
+		while (reader.hasNext()) {
 
-				StructrCollectionResult<T> collectionResult = (StructrCollectionResult<T>) gson.fromJson(response, getCollectionTypeToken(type));
-				if (collectionResult != null) {
+			if ("result".equals(reader.nextName()) && result == null) {
 
-					result = collectionResult.getResult();
-					for(StructrObject obj : result) {
+				JsonToken token = reader.peek();
+				if (token == JsonToken.BEGIN_ARRAY) {
 
-						obj.onDbLoad();
+					reader.beginArray();
+					if (reader.hasNext()) {
+						result = gson.fromJson(reader, type);
 					}
+					while (reader.hasNext()) {
+						reader.skipValue();
+					}
+					reader.endArray();
+
+				} else if (token == JsonToken.BEGIN_OBJECT) {
+
+					result = gson.fromJson(reader, type);
 
 				} else {
 
-					result = Collections.emptyList();
+					reader.skipValue();
 				}
 
 			} else {
 
-				throw new StructrException(conn.getResponseCode(), conn.getResponseMessage(), response);
+				reader.skipValue();
 			}
+		}
+		reader.endObject();
 
-		} catch(Throwable t) {
+		return result;
+	}
 
-            throwable = t;
+	/**
+	 * Reads the result_count of a collection response. Falls back to the
+	 * number of results if the server does not send a count.
+	 */
+	private static long readCount(final JsonReader reader) throws IOException {
 
-		} finally {
-            if(conn != null)
-                conn.disconnect();
+		long count   = -1;
+		long results = 0;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+
+			String name = reader.nextName();
+
+			if ("result_count".equals(name) && reader.peek() == JsonToken.NUMBER) {
+
+				count = reader.nextLong();
+
+			} else if ("result".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+
+				reader.beginArray();
+				while (reader.hasNext()) {
+					reader.skipValue();
+					results++;
+				}
+				reader.endArray();
+
+			} else {
+
+				reader.skipValue();
+			}
 		}
+		reader.endObject();
+
+		return count >= 0 ? count : results;
+	}
+
+	/**
+	 * Parses the result array of a collection response element by element, so
+	 * that entities can be handed to the listener while the rest of the response
+	 * is still being received. Without a listener, the post-load hooks are left
+	 * to {@link #postLoad(StructrClient, List)}, after the response is closed.
+	 */
+	private static <T extends StructrObject, L extends List<T>> L readCollection(final StructrClient client, final Class<T> type, final String view, final int depth, final JsonReader reader, final L result, final int chunkSize, final ChunkListener<T> listener) throws Throwable {
+
+		// post-load hooks of streamed chunks run before the chunk is delivered
+		int groupSize = Math.max(chunkSize, 1);
+		List<T> group = new ArrayList<T>();
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+
+			if ("result".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+
+				reader.beginArray();
+				while (reader.hasNext()) {
+
+					T obj = gson.fromJson(reader, type);
+					if (obj != null) {
+
+						attach(client, obj, view, depth);
+
+						if (listener == null) {
+
+							result.add(obj);
+
+						} else {
+
+							group.add(obj);
+
+							if (group.size() >= groupSize) {
+
+								complete(client, group, result, listener);
+								group = new ArrayList<T>();
+							}
+						}
+					}
+				}
+				reader.endArray();
+
+			} else {
+
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (!group.isEmpty()) {
+			complete(client, group, result, listener);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Runs the post-load hooks of a loaded collection in groups. Elements of
+	 * a {@link CompactList} are copies, so the hooks' changes are written back.
+	 */
+	private static <T extends StructrObject> void postLoad(final StructrClient client, final List<T> result) throws Throwable {
+
+		int size = result.size();
+
+		for (int start=0; start<size; start+=POST_LOAD_GROUP_SIZE) {
+
+			int end       = Math.min(start + POST_LOAD_GROUP_SIZE, size);
+			List<T> group = new ArrayList<T>(result.subList(start, end));
+
+			PostLoader.run(client, group);
+
+			if (result instanceof CompactList) {
+
+				for (int i=start; i<end; i++) {
+					result.set(i, group.get(i - start));
+				}
+			}
+		}
+	}
+
+	private static <T extends StructrObject> void complete(final StructrClient client, final List<T> group, final List<T> result, final ChunkListener<T> listener) throws Throwable {
+
+		PostLoader.run(client, group);
+		result.addAll(group);
+
+		if (listener != null) {
+			listener.onChunk(group);
+		}
+	}
+
+	private static StructrResponse execute(final StructrClient client, final StructrClient.Endpoint endpoint, final String path, final String method, final StructrRequest.Body body) throws IOException {
+
+		StructrRequest request = new StructrRequest(method, buildUrl(endpoint.getServer(), path));
+		request.setHeader("X-User", client.getUserName());
+		request.setHeader("X-Password", client.getPassword());
+		request.setHeader("Accept-Charset", "UTF-8");
+		request.setBody(body);
+
+		Deadline deadline = client.getRequestDeadline();
+		if (deadline == null) {
+
+			request.setConnectTimeout(client.getConnectTimeout());
+			request.setReadTimeout(client.getReadTimeout());
+
+			return received(client.getTransport().execute(request));
+		}
+
+		int remaining = (int)Math.min(deadline.remaining(TimeUnit.MILLISECONDS), Integer.MAX_VALUE);
+		if (remaining <= 0) {
+			throw new SocketTimeoutException("Deadline exceeded before " + method + " " + path);
+		}
+
+		request.setConnectTimeout(limit(client.getConnectTimeout(), remaining));
+		request.setReadTimeout(limit(client.getReadTimeout(), remaining));
+
+		return received(new DeadlineResponse(client.getTransport().execute(request), deadline));
+	}
+
+	/**
+	 * Waits for the headers of the given response, so that the latency the
+	 * caller measures covers the round trip also with transports that return
+	 * before the server answered.
+	 */
+	private static StructrResponse received(final StructrResponse response) throws IOException {
+
+		try {
+			response.getCode();
+			return response;
+
+		} catch (IOException ioex) {
+
+			close(response);
+			throw ioex;
+		}
+	}
+
+	private static int limit(final int timeout, final int remaining) {
+		return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+	}
+
+	private static StructrRequest.Body toJson(final StructrObject entity, final Type type) throws IOException {
+
+		StringBuilder buf = new StringBuilder();
+		gson.toJson(entity, type, buf);
+
+		return new StructrRequest.ByteArrayBody("application/json; charset=UTF-8", buf.toString().getBytes("UTF-8"));
+	}
+
+	private static void close(final StructrResponse response) {
+
+		if (response != null) {
+
+			try {
+				response.close();
+
+			} catch (IOException ignore) {}
+		}
+	}
+
+	/**
+	 * Records the outcome of a request in the client's metrics and
+	 * rethrows the given throwable, if any. The latency is the time until
+	 * the response headers arrived, so that neither the size of the body
+	 * nor the post-load hooks count against the endpoint.
+	 */
+	private static <R> R finish(final StructrClient client, final StructrClient.Endpoint endpoint, final long latency, final Throwable throwable, final R result) throws Throwable {
 
 		if (throwable != null) {
+
+			if (throwable instanceof StructrTimeoutException) {
+
+				client.getMetrics().timeout(endpoint);
+				throw throwable;
+			}
+
+			// gson wraps I/O errors that occur while parsing
+			for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+
+				if (cause instanceof SocketTimeoutException) {
+
+					client.getMetrics().timeout(endpoint);
+					throw new StructrTimeoutException(cause.getMessage());
+				}
+			}
+
+			// only network failures count against the endpoint, not REST errors
+			if (throwable instanceof StructrException && latency >= 0) {
+				client.getMetrics().success(endpoint, latency);
+			} else {
+				client.getMetrics().failure(endpoint);
+			}
+
 			throw throwable;
 		}
 
+		client.getMetrics().success(endpoint, latency);
+
 		return result;
 	}
 
-	private static String buildPath(String url, Object... params) {
+	private static String read(final InputStream inputStream) throws IOException {
 
-		StringBuilder path = new StringBuilder();
-		String base = StructrConnector.getServer();
+		StringBuilder response = new StringBuilder();
 
-		path.append(base);
-		if (!base.endsWith("/")) {
-			path.append("/rest/");
+		if (inputStream != null) {
+
+			BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+			String line = "";
+			while((line = br.readLine()) != null){
+				response.append(line);
+			}
 		}
-		else
-        path.append("rest/");
+
+		return response.toString();
+	}
+
+	private static String buildUrl(final String base, final String path) {
+
+		StringBuilder url = new StringBuilder(base);
+
+		if (base.endsWith("/")) {
+			url.setLength(url.length() - 1);
+		}
+
+		url.append("/rest");
+		if (!path.startsWith("/")) {
+			url.append("/");
+		}
+
+		url.append(path);
+
+		return url.toString();
+	}
+
+	private static String buildPath(String url, Object... params) {
+
+		StringBuilder path = new StringBuilder();
 		path.append(url);
 
 		for(Object o : params) {
@@ -551,86 +1500,261 @@ public abstract class StructrObject implements Serializable {
 	}
 
 
-	private static String getIdFromLocation(String location) {
-		int pos = location.lastIndexOf("/");
-		return location.substring(pos+1);
+	/**
+	 * Converts the parameters of the legacy list methods into a query.
+	 * Strings of the form "&amp;key=value" are split into filters.
+	 */
+	private static <T extends StructrObject> StructrQuery<T> toQuery(final Class<T> type, final String sortKey, final boolean asc, final Object... params) {
+
+		StructrQuery<T> query = StructrQuery.of(type).sort(sortKey, asc);
+
+		for (Object o : params) {
+			addParameter(query, o);
+		}
+
+		return query;
 	}
 
-	private static <T extends StructrObject> T newInstance(final Class<T> type) {
-		try { return type.newInstance(); } catch(Throwable t) {}
-		return null;
+	private static void addParameter(final StructrQuery query, final Object o) {
+
+		if (o instanceof SortedCollectionLoader.Param) {
+
+			SortedCollectionLoader.Param param = (SortedCollectionLoader.Param)o;
+			query.eq(param.name, param.value);
+
+		} else if (o instanceof Projection) {
+
+			query.view((Projection)o);
+
+		} else if (o instanceof Object[]) {
+
+			for (Object a : (Object[])o) {
+				addParameter(query, a);
+			}
+
+		} else if (o != null) {
+
+			for (String part : o.toString().split("&")) {
+
+				int pos = part.indexOf('=');
+				if (pos > 0) {
+					query.eq(decode(part.substring(0, pos)), decode(part.substring(pos + 1)));
+				}
+			}
+		}
 	}
 
-	private static Type getCollectionTypeToken(Class type) {
-		return new ParameterizedTypeImpl(StructrCollectionResult.class, type);
+	/**
+	 * Legacy query strings used to be appended to the path as they were, so
+	 * callers pass them already encoded. They are decoded here because the
+	 * query encodes its parameters itself.
+	 */
+	private static String decode(final String value) {
+
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+
+		} catch (IllegalArgumentException iaex) {
+
+			// not a valid escape sequence, so the value was not encoded
+			return value;
+
+		} catch (UnsupportedEncodingException ueex) {
+
+			// UTF-8 is always supported
+			throw new IllegalStateException(ueex);
+		}
 	}
 
-	private static Type getEntityTypeToken(Class type) {
-		return new ParameterizedTypeImpl(StructrEntityResult.class, type);
+	/**
+	 * Binds a parsed entity to the given client and cache. Entities nested in
+	 * exposed fields are bound as well, down to the given nesting depth, so
+	 * that relations fetched with {@link StructrQuery#depth(int)} end up in
+	 * the identity cache.
+	 */
+	private static void attach(final StructrClient client, final StructrObject entity, final String view, final int depth) {
+
+		entity.setClient(client);
+		entity.view = view;
+		cache(client, entity);
+
+		try {
+			for (Field field : getNestedFields(entity.getClass())) {
+
+				Object value = field.get(entity);
+				if (value instanceof StructrRef) {
+
+					attach(client, (StructrRef)value, view, depth);
+
+				} else if (value instanceof StructrObject) {
+
+					if (depth > 0) {
+						attach(client, (StructrObject)value, view, depth - 1);
+					}
+
+				} else if (value instanceof Collection) {
+
+					for (Object element : (Collection)value) {
+
+						if (element instanceof StructrRef) {
+
+							attach(client, (StructrRef)element, view, depth);
+
+						} else if (element instanceof StructrObject && depth > 0) {
+
+							attach(client, (StructrObject)element, view, depth - 1);
+						}
+					}
+				}
+			}
+
+		} catch (IllegalAccessException iaex) {
+
+			// fields are made accessible in getNestedFields
+			throw new IllegalStateException(iaex);
+		}
 	}
 
-	// ----- private static nested classes -----
-	private static class ParameterizedTypeImpl implements ParameterizedType {
+	/**
+	 * Binds a reference to the client of its owning entity. If the server
+	 * included the referenced entity because the request had a nesting
+	 * depth, the reference is resolved to it and the entity is cached.
+	 */
+	private static void attach(final StructrClient client, final StructrRef ref, final String view, final int depth) {
+
+		StructrObject inlined = ref.bind(client);
+		if (inlined != null && depth > 0) {
 
-		private Class genericType = null;
-		private Class rawType = null;
+			attach(client, inlined, view, depth - 1);
 
-		public ParameterizedTypeImpl(Class rawType, Class genericType) {
-			this.rawType = rawType;
-			this.genericType = genericType;
+			if (!inlined.isPartial()) {
+				ref.resolve(inlined);
+			}
 		}
+	}
 
-		@Override
-		public Type[] getActualTypeArguments() {
-			return new Type[] { genericType };
+	/**
+	 * Returns the exposed fields of the given type that can contain nested
+	 * entities or references, i.e. entity, reference and collection fields.
+	 */
+	private static Field[] getNestedFields(final Class type) {
+
+		Field[] fields = nestedFields.get(type);
+		if (fields == null) {
+
+			List<Field> list = new ArrayList<Field>();
+			for (Field field : getExposedFields(type)) {
+
+				Class fieldType = field.getType();
+				if (StructrObject.class.isAssignableFrom(fieldType) || StructrRef.class.isAssignableFrom(fieldType) || Collection.class.isAssignableFrom(fieldType)) {
+					list.add(field);
+				}
+			}
+
+			fields = list.toArray(new Field[list.size()]);
+			nestedFields.put(type, fields);
 		}
 
-		@Override
-		public Type getOwnerType() {
-			return StructrObject.class;
+		return fields;
+	}
+
+	/**
+	 * Puts the given entity into the cache of the given client, unless the cache
+	 * already contains the full representation and the given entity is partial.
+	 */
+	private static void cache(final StructrClient client, final StructrObject entity) {
+
+		if (entity.isPartial()) {
+
+			StructrObject cached = client.getCache().get(entity.getClass(), entity.getId());
+			if (cached != null && !cached.isPartial()) {
+				return;
+			}
+		}
+
+		client.getCache().put(entity);
+	}
+
+	/**
+	 * Copies the values of all exposed fields from one entity to another
+	 * entity of the same type.
+	 */
+	private static void copyExposedFields(final StructrObject source, final StructrObject target) throws IllegalAccessException {
+
+		for (Field field : getExposedFields(source.getClass())) {
+			field.set(target, field.get(source));
+		}
+	}
+
+	private static String getIdFromLocation(String location) {
+		int pos = location.lastIndexOf("/");
+		return location.substring(pos+1);
+	}
+
+	private static <T extends StructrObject> T newInstance(final Class<T> type) {
+		try { return type.newInstance(); } catch(Throwable t) {}
+		return null;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Fails reads from the response body once the deadline of the request
+	 * has expired, so that a slowly trickling response cannot exceed it.
+	 */
+	private static class DeadlineResponse implements StructrResponse {
+
+		private StructrResponse response = null;
+		private Deadline deadline        = null;
+
+		DeadlineResponse(final StructrResponse response, final Deadline deadline) {
+			this.response = response;
+			this.deadline = deadline;
 		}
 
 		@Override
-		public Type getRawType() {
-			return rawType;
+		public int getCode() throws IOException {
+			return response.getCode();
 		}
 
 		@Override
-		public boolean equals(Object o) {
-			return o.hashCode() == this.hashCode();
+		public String getMessage() throws IOException {
+			return response.getMessage();
 		}
 
 		@Override
-		public int hashCode() {
-			return (genericType.hashCode() * 31) + rawType.hashCode();
+		public String getHeader(final String name) {
+			return response.getHeader(name);
 		}
-	}
 
-	private static class StructrEntityResult<T extends StructrObject> {
+		@Override
+		public InputStream getBody() throws IOException {
 
-		@Expose
-		T result = null;
+			return new FilterInputStream(response.getBody()) {
 
-		public void setResult(T result) {
-			this.result = result;
-		}
+				@Override
+				public int read() throws IOException {
+					check();
+					return super.read();
+				}
 
-		public T getResult() {
-			return result;
+				@Override
+				public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+					check();
+					return super.read(buffer, offset, length);
+				}
+			};
 		}
 
-	}
-
-	private class StructrCollectionResult<T extends StructrObject> {
-		@Expose
-		List<T> result = null;
-
-		public void setResult(List<T> result) {
-			this.result = result;
+		@Override
+		public void close() throws IOException {
+			response.close();
 		}
 
-		public List<T> getResult() {
-			return result;
+		private void check() throws SocketTimeoutException {
+
+			if (deadline.isExpired()) {
+				throw new SocketTimeoutException("Deadline exceeded while reading the response");
+			}
 		}
 	}
 }
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Parcelable container for one or more entities of the same type, encoded
+ * with {@link EntityCodec}. Use it instead of Java serialization when you pass
+ * entities in intents or bundles.
+ *
+ * <pre>
+ * intent.putExtra("example", StructrParcelable.wrap(example));
+ * ...
+ * Example example = StructrParcelable.unwrap(intent.getParcelableExtra("example"));
+ * </pre>
+ */
+public class StructrParcelable<T extends StructrObject> implements Parcelable {
+
+	private Class<T> type        = null;
+	private List<T> entities     = null;
+
+	private StructrParcelable(final Class<T> type, final List<T> entities) {
+		this.type     = type;
+		this.entities = entities;
+	}
+
+	/**
+	 * Wraps the given entity.
+	 *
+	 * @param entity the entity, must not be null
+	 * @return the parcelable
+	 */
+	public static <T extends StructrObject> StructrParcelable<T> wrap(final T entity) {
+		return new StructrParcelable<T>((Class<T>)entity.getClass(), Collections.singletonList(entity));
+	}
+
+	/**
+	 * Wraps the given entities, which must all be of the given type.
+	 *
+	 * @param type the type of the entities
+	 * @param entities the entities
+	 * @return the parcelable
+	 */
+	public static <T extends StructrObject> StructrParcelable<T> wrap(final Class<T> type, final List<T> entities) {
+		return new StructrParcelable<T>(type, entities);
+	}
+
+	/**
+	 * @return the single entity in the given parcelable, or null if the
+	 * parcelable is null or empty
+	 */
+	public static <T extends StructrObject> T unwrap(final Parcelable parcelable) {
+
+		if (parcelable instanceof StructrParcelable) {
+
+			List<T> entities = ((StructrParcelable<T>)parcelable).getEntities();
+			if (!entities.isEmpty()) {
+				return entities.get(0);
+			}
+		}
+
+		return null;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public List<T> getEntities() {
+		return entities;
+	}
+
+	// ----- interface Parcelable -----
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(final Parcel parcel, final int flags) {
+
+		try {
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out        = new DataOutputStream(bytes);
+
+			EntityCodec.forType(type).writeList(out, entities);
+			out.flush();
+
+			parcel.writeString(type.getName());
+			parcel.writeByteArray(bytes.toByteArray());
+
+		} catch (IOException ioex) {
+			throw new IllegalStateException("Unable to write " + type.getName() + " to parcel", ioex);
+		}
+	}
+
+	public static final Parcelable.Creator<StructrParcelable> CREATOR = new Parcelable.Creator<StructrParcelable>() {
+
+		@Override
+		public StructrParcelable createFromParcel(final Parcel parcel) {
+
+			String className = parcel.readString();
+			byte[] data      = parcel.createByteArray();
+
+			try {
+
+				Class type            = Class.forName(className, true, StructrParcelable.class.getClassLoader());
+				DataInputStream in    = new DataInputStream(new ByteArrayInputStream(data));
+
+				return new StructrParcelable(type, EntityCodec.forType(type).readList(in));
+
+			} catch (ClassNotFoundException cnfex) {
+				throw new IllegalStateException("Unknown entity type " + className, cnfex);
+
+			} catch (IOException ioex) {
+				throw new IllegalStateException("Unable to read " + className + " from parcel", ioex);
+			}
+		}
+
+		@Override
+		public StructrParcelable[] newArray(final int size) {
+			return new StructrParcelable[size];
+		}
+	};
+}
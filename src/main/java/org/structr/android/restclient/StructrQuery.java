@@ -0,0 +1,360 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A type-safe description of a REST query on a collection resource. All values
+ * are URL-encoded, and the resulting path is canonical: two queries with the
+ * same filters produce the same path, regardless of the order in which the
+ * filters were added. The path can therefore be used as a cache key.
+ *
+ * <p>The following example shows how you can use this class.</p>
+ * <pre>
+ * StructrQuery&lt;Example&gt; query = StructrQuery.of(Example.class)
+ *	.eq("category", "news")
+ *	.range("date", from, to)
+ *	.sort("date", false)
+ *	.page(1, 20);
+ *
+ * new PathCollectionLoader(handler).execute(query);
+ * </pre>
+ */
+public class StructrQuery<T extends StructrObject> {
+
+	private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+	private static final String DEPTH_PARAMETER = "outputNestingDepth";
+
+	private final Map<String, String> filters = new TreeMap<String, String>();
+	private final List<String> sortKeys       = new ArrayList<String>();
+	private final List<Boolean> sortOrders    = new ArrayList<Boolean>();
+	private Class<T> type                     = null;
+	private Class parentType                  = null;
+	private String parentId                   = null;
+	private Projection projection             = null;
+	private int page                          = 0;
+	private int pageSize                      = 0;
+	private int depth                         = 0;
+
+	private StructrQuery(final Class<T> type) {
+		this.type = type;
+	}
+
+	/**
+	 * Creates a query for all entities of the given type.
+	 *
+	 * @param type the type of the entities
+	 * @return the query
+	 */
+	public static <T extends StructrObject> StructrQuery<T> of(final Class<T> type) {
+		return new StructrQuery<T>(type);
+	}
+
+	/**
+	 * Restricts this query to the children of the given parent entity, i.e.
+	 * <code>/&lt;parentType&gt;/&lt;parentId&gt;/&lt;type&gt;</code>.
+	 *
+	 * @param parentType the type of the parent entity
+	 * @param parentId the ID of the parent entity
+	 * @return this query
+	 */
+	public StructrQuery<T> under(final Class<? extends StructrObject> parentType, final String parentId) {
+		this.parentType = parentType;
+		this.parentId   = parentId;
+		return this;
+	}
+
+	/**
+	 * Adds a filter for entities whose property has the given value.
+	 *
+	 * @param key the property key
+	 * @param value the property value
+	 * @return this query
+	 */
+	public StructrQuery<T> eq(final String key, final Object value) {
+		filters.put(key, format(value));
+		return this;
+	}
+
+	/**
+	 * Adds a filter for entities whose property lies in the given range,
+	 * inclusive. Use null for an open end.
+	 *
+	 * @param key the property key
+	 * @param from the lower bound, or null
+	 * @param to the upper bound, or null
+	 * @return this query
+	 */
+	public StructrQuery<T> range(final String key, final Object from, final Object to) {
+
+		StringBuilder buf = new StringBuilder("[");
+		buf.append(from != null ? format(from) : "");
+		buf.append(" TO ");
+		buf.append(to != null ? format(to) : "");
+		buf.append("]");
+
+		filters.put(key, buf.toString());
+		return this;
+	}
+
+	/**
+	 * Adds a filter for entities whose property has one of the given values.
+	 *
+	 * @param key the property key
+	 * @param values the property values
+	 * @return this query
+	 */
+	public StructrQuery<T> in(final String key, final Object... values) {
+
+		StringBuilder buf = new StringBuilder();
+		for (Object value : values) {
+
+			if (buf.length() > 0) {
+				buf.append(";");
+			}
+
+			buf.append(format(value));
+		}
+
+		filters.put(key, buf.toString());
+		return this;
+	}
+
+	/**
+	 * Adds a filter for entities whose property has one of the given values.
+	 *
+	 * @param key the property key
+	 * @param values the property values
+	 * @return this query
+	 */
+	public StructrQuery<T> in(final String key, final Collection<?> values) {
+		return in(key, values.toArray());
+	}
+
+	/**
+	 * Sorts the results ascending by the given key. Can be called more than
+	 * once, the first key has the highest priority.
+	 *
+	 * @param key the sort key
+	 * @return this query
+	 */
+	public StructrQuery<T> sort(final String key) {
+		return sort(key, true);
+	}
+
+	/**
+	 * Sorts the results by the given key. Can be called more than once, the
+	 * first key has the highest priority.
+	 *
+	 * @param key the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return this query
+	 */
+	public StructrQuery<T> sort(final String key, final boolean asc) {
+		sortKeys.add(key);
+		sortOrders.add(asc);
+		return this;
+	}
+
+	/**
+	 * Requests a single page of results.
+	 *
+	 * @param page the page, starting at 1
+	 * @param pageSize the number of results per page
+	 * @return this query
+	 */
+	public StructrQuery<T> page(final int page, final int pageSize) {
+		this.page     = page;
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	/**
+	 * Asks the server to inline related entities up to the given depth, so a
+	 * list and its relations arrive in a single response. Nested entities are
+	 * deserialized into the exposed entity and collection fields of the
+	 * results and put into the client's identity cache.
+	 *
+	 * @param depth the nesting depth, 0 for the server default
+	 * @return this query
+	 */
+	public StructrQuery<T> depth(final int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * Selects a structr view instead of the default representation.
+	 *
+	 * @param view the name of the view
+	 * @return this query
+	 */
+	public StructrQuery<T> view(final String view) {
+		return view(view != null ? Projection.view(view) : null);
+	}
+
+	/**
+	 * Selects the given projection instead of the default representation.
+	 *
+	 * @param projection the projection, or null
+	 * @return this query
+	 */
+	public StructrQuery<T> view(final Projection projection) {
+		this.projection = projection;
+		return this;
+	}
+
+	/**
+	 * @return a copy of this query that can be modified independently
+	 */
+	public StructrQuery<T> copy() {
+
+		StructrQuery<T> copy = new StructrQuery<T>(type);
+		copy.filters.putAll(filters);
+		copy.sortKeys.addAll(sortKeys);
+		copy.sortOrders.addAll(sortOrders);
+		copy.parentType = parentType;
+		copy.parentId   = parentId;
+		copy.projection = projection;
+		copy.page       = page;
+		copy.pageSize   = pageSize;
+		copy.depth      = depth;
+
+		return copy;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public Projection getProjection() {
+		return projection;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return the canonical, URL-encoded path of this query, relative to the
+	 * REST base URL of the server
+	 */
+	public String toPath() {
+
+		StringBuilder path = new StringBuilder();
+
+		if (parentType != null) {
+			path.append("/").append(StructrObject.getEntityName(parentType));
+			path.append("/").append(encode(parentId));
+		}
+
+		path.append("/").append(StructrObject.getEntityName(type));
+
+		if (projection != null) {
+			path.append("/").append(encode(projection.getView()));
+		}
+
+		char separator = '?';
+
+		for (Map.Entry<String, String> filter : filters.entrySet()) {
+			separator = append(path, separator, filter.getKey(), filter.getValue());
+		}
+
+		if (depth > 0) {
+			separator = append(path, separator, DEPTH_PARAMETER, Integer.toString(depth));
+		}
+
+		int sortCount = sortKeys.size();
+		for (int i=0; i<sortCount; i++) {
+
+			boolean asc = sortOrders.get(i);
+
+			separator = append(path, separator, "sort", sortKeys.get(i));
+
+			// structr sorts ascending by default, so a single ascending sort key needs no order
+			if (!asc || sortCount > 1) {
+				separator = append(path, separator, "order", asc ? "asc" : "desc");
+			}
+		}
+
+		if (pageSize > 0) {
+			separator = append(path, separator, "page", Integer.toString(Math.max(page, 1)));
+			separator = append(path, separator, "pageSize", Integer.toString(pageSize));
+		}
+
+		return path.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toPath();
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		return o instanceof StructrQuery && ((StructrQuery)o).toPath().equals(toPath());
+	}
+
+	@Override
+	public int hashCode() {
+		return toPath().hashCode();
+	}
+
+	// ----- private methods -----
+	private static char append(final StringBuilder path, final char separator, final String key, final String value) {
+
+		path.append(separator);
+		path.append(encode(key));
+		path.append("=");
+		path.append(encode(value));
+
+		return '&';
+	}
+
+	private static String format(final Object value) {
+
+		if (value instanceof Date) {
+			return new SimpleDateFormat(DATE_FORMAT, Locale.US).format((Date)value);
+		}
+
+		return String.valueOf(value);
+	}
+
+	private static String encode(final String value) {
+
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+
+		} catch (UnsupportedEncodingException ueex) {
+
+			// UTF-8 is always supported
+			throw new IllegalStateException(ueex);
+		}
+	}
+}
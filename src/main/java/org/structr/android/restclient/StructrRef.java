@@ -0,0 +1,345 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A lazy reference to a related entity. Declare an exposed field of this type
+ * instead of the entity type itself, and only the ID of the related entity is
+ * kept after deserialization. The entity is loaded on first access, from the
+ * identity cache of the client the owning entity was loaded from if possible.
+ * If the server includes the related entity because the request had a
+ * nesting depth, the reference is resolved to it right away.
+ *
+ * <pre>
+ * public class Comment extends StructrObject {
+ *
+ *	&#64;Expose
+ *	private StructrRef&lt;User&gt; author = null;
+ *
+ *	public User getAuthor() throws Throwable {
+ *		return author != null ? author.get() : null;
+ *	}
+ * }
+ * </pre>
+ *
+ * <p>Use {@link #resolveAll(StructrClient, Collection)} to resolve the same
+ * relation for a whole list of entities with batched requests.</p>
+ */
+public class StructrRef<T extends StructrObject> implements Serializable {
+
+	private transient StructrClient client = null;
+	private transient StructrObject inlined = null;
+	private transient T entity             = null;
+	private Class<T> type                  = null;
+	private String id                      = null;
+
+	public StructrRef(final Class<T> type, final String id) {
+		this.type = type;
+		this.id   = id;
+	}
+
+	/**
+	 * Creates a reference that is already resolved to the given entity.
+	 *
+	 * @param entity the entity, must not be null
+	 * @return the reference
+	 */
+	public static <T extends StructrObject> StructrRef<T> to(final T entity) {
+
+		StructrRef<T> ref = new StructrRef<T>((Class<T>)entity.getClass(), entity.getId());
+		ref.client = entity.getClient();
+		ref.entity = entity;
+
+		return ref;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the client the owning entity was loaded from, or the default
+	 * client
+	 */
+	public StructrClient getClient() {
+		return client != null ? client : StructrClient.getDefault();
+	}
+
+	/**
+	 * @return whether the referenced entity has already been loaded
+	 */
+	public boolean isLoaded() {
+		return entity != null;
+	}
+
+	/**
+	 * Returns the referenced entity without accessing the network.
+	 *
+	 * @param client the client whose cache should be used
+	 * @return the referenced entity, or null if it is neither loaded nor cached
+	 */
+	public T peek(final StructrClient client) {
+
+		if (entity == null) {
+
+			T cached = client.getCache().get(type, id);
+			if (cached != null && !cached.isPartial()) {
+				entity = cached;
+			}
+		}
+
+		return entity;
+	}
+
+	/**
+	 * Returns the referenced entity, loading it from the client the owning
+	 * entity was loaded from if necessary. Do not call this method from the
+	 * UI thread unless the reference is already loaded.
+	 *
+	 * @return the referenced entity
+	 * @throws Throwable
+	 */
+	public T get() throws Throwable {
+		return get(getClient());
+	}
+
+	/**
+	 * Returns the referenced entity, loading it from the given client if
+	 * necessary.
+	 *
+	 * @param client the client
+	 * @return the referenced entity
+	 * @throws Throwable
+	 */
+	public T get(final StructrClient client) throws Throwable {
+
+		T result = peek(client);
+		if (result == null) {
+
+			result = StructrObject.dbGet(client, type, id);
+			entity = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Resolves the given references, each with the client its owning entity
+	 * was loaded from.
+	 *
+	 * @see #resolveAll(StructrClient, Collection)
+	 */
+	public static <T extends StructrObject> void resolveAll(final Collection<StructrRef<T>> refs) throws Throwable {
+
+		Map<StructrClient, List<StructrRef<T>>> byClient = new LinkedHashMap<StructrClient, List<StructrRef<T>>>();
+
+		for (StructrRef<T> ref : refs) {
+
+			if (ref != null) {
+
+				List<StructrRef<T>> list = byClient.get(ref.getClient());
+				if (list == null) {
+
+					list = new ArrayList<StructrRef<T>>();
+					byClient.put(ref.getClient(), list);
+				}
+
+				list.add(ref);
+			}
+		}
+
+		for (Map.Entry<StructrClient, List<StructrRef<T>>> entry : byClient.entrySet()) {
+			resolveAll(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Resolves the given references, which must all point to entities of the
+	 * same type. References that can be resolved from the identity cache are
+	 * resolved first, the remaining entities are loaded with
+	 * {@link StructrObject#dbGetAll(StructrClient, Class, Collection)}. Null
+	 * elements are ignored.
+	 *
+	 * @param client the client
+	 * @param refs the references to resolve
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> void resolveAll(final StructrClient client, final Collection<StructrRef<T>> refs) throws Throwable {
+
+		Set<String> missing = new LinkedHashSet<String>();
+		Class<T> type       = null;
+
+		for (StructrRef<T> ref : refs) {
+
+			if (ref != null && ref.peek(client) == null) {
+
+				missing.add(ref.id);
+				type = ref.type;
+			}
+		}
+
+		if (missing.isEmpty()) {
+			return;
+		}
+
+		BulkResult<T> loaded = StructrObject.dbGetAll(client, type, missing);
+
+		for (StructrRef<T> ref : refs) {
+
+			if (ref != null && ref.entity == null) {
+				ref.entity = loaded.get(ref.id);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return type.getSimpleName() + "(" + id + ")";
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+
+		if (o instanceof StructrRef) {
+
+			StructrRef other = (StructrRef)o;
+			return type.equals(other.type) && (id != null ? id.equals(other.id) : other.id == null);
+		}
+
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return type.hashCode() * 31 + (id != null ? id.hashCode() : 0);
+	}
+
+	// ----- package-private methods -----
+	/**
+	 * Binds this reference to the client of its owning entity and returns the
+	 * entity the server included in the response, if any.
+	 *
+	 * @param client the client
+	 * @return the included entity, or null
+	 */
+	StructrObject bind(final StructrClient client) {
+
+		StructrObject result = inlined;
+
+		this.client  = client;
+		this.inlined = null;
+
+		return result;
+	}
+
+	/**
+	 * Resolves this reference to an entity that the server included in the
+	 * response.
+	 */
+	void resolve(final StructrObject entity) {
+		this.entity = (T)entity;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Reads references from either an ID string or a nested object, and
+	 * writes them as an ID string. A nested object is kept until the owning
+	 * entity is bound to its client.
+	 */
+	static class AdapterFactory implements TypeAdapterFactory {
+
+		@Override
+		public <R> TypeAdapter<R> create(final Gson gson, final TypeToken<R> typeToken) {
+
+			if (typeToken.getRawType() != StructrRef.class) {
+				return null;
+			}
+
+			Type refType = typeToken.getType();
+			if (!(refType instanceof ParameterizedType)) {
+				throw new IllegalArgumentException("StructrRef fields must declare the type of the referenced entity");
+			}
+
+			final Class type                = TypeToken.get(((ParameterizedType)refType).getActualTypeArguments()[0]).getRawType();
+			final TypeAdapter entityAdapter = gson.getAdapter(type);
+
+			return (TypeAdapter<R>)new TypeAdapter<StructrRef>() {
+
+				@Override
+				public void write(final JsonWriter writer, final StructrRef ref) throws IOException {
+
+					if (ref != null) {
+						writer.value(ref.getId());
+
+					} else {
+						writer.nullValue();
+					}
+				}
+
+				@Override
+				public StructrRef read(final JsonReader reader) throws IOException {
+
+					switch (reader.peek()) {
+
+						case NULL:
+							reader.nextNull();
+							return null;
+
+						case STRING:
+							return new StructrRef(type, reader.nextString());
+
+						default:
+							StructrObject entity = (StructrObject)entityAdapter.read(reader);
+							if (entity == null || entity.getId() == null) {
+								return null;
+							}
+
+							StructrRef ref = new StructrRef(type, entity.getId());
+							ref.inlined    = entity;
+
+							return ref;
+					}
+				}
+			};
+		}
+	}
+}
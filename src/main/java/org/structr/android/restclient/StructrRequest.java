@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single HTTP request that is executed by a {@link StructrTransport}.
+ */
+public class StructrRequest {
+
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+	private String method                     = null;
+	private String url                        = null;
+	private Body body                         = null;
+	private int connectTimeout                = 0;
+	private int readTimeout                   = 0;
+	private int chunkLength                   = 0;
+
+	public StructrRequest(final String method, final String url) {
+		this.method = method;
+		this.url    = url;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public StructrRequest setHeader(final String name, final String value) {
+		headers.put(name, value);
+		return this;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public StructrRequest setBody(final Body body) {
+		this.body = body;
+		return this;
+	}
+
+	public Body getBody() {
+		return body;
+	}
+
+	/**
+	 * @param connectTimeout the connect timeout in milliseconds, or 0 for
+	 * the default of the transport
+	 */
+	public StructrRequest setConnectTimeout(final int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+		return this;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @param readTimeout the read timeout in milliseconds, or 0 for the
+	 * default of the transport
+	 */
+	public StructrRequest setReadTimeout(final int readTimeout) {
+		this.readTimeout = readTimeout;
+		return this;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Sets the size of the chunks when the body is sent with chunked transfer
+	 * encoding, i.e. when its length is unknown. Larger chunks have less
+	 * overhead, the transport holds one chunk in memory.
+	 *
+	 * @param chunkLength the chunk length in bytes, or 0 for the default of
+	 * the transport
+	 */
+	public StructrRequest setChunkLength(final int chunkLength) {
+		this.chunkLength = chunkLength;
+		return this;
+	}
+
+	public int getChunkLength() {
+		return chunkLength;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The body of a request. The body is written directly to the network, so
+	 * large bodies like file uploads never need to be held in memory.
+	 */
+	public interface Body {
+
+		public String getContentType();
+
+		/**
+		 * @return the number of bytes {@link #writeTo(OutputStream)} will write,
+		 * or -1 if unknown
+		 */
+		public long getContentLength();
+
+		public void writeTo(final OutputStream out) throws IOException;
+	}
+
+	/**
+	 * A body whose content is already in memory.
+	 */
+	public static class ByteArrayBody implements Body {
+
+		private String contentType = null;
+		private byte[] data        = null;
+
+		public ByteArrayBody(final String contentType, final byte[] data) {
+			this.contentType = contentType;
+			this.data        = data;
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public long getContentLength() {
+			return data.length;
+		}
+
+		@Override
+		public void writeTo(final OutputStream out) throws IOException {
+			out.write(data);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The response to a {@link StructrRequest}. Closing the response releases the
+ * underlying connection.
+ */
+public interface StructrResponse extends Closeable {
+
+	public int getCode() throws IOException;
+
+	public String getMessage() throws IOException;
+
+	/**
+	 * @return the value of the given header, or null
+	 */
+	public String getHeader(final String name);
+
+	/**
+	 * @return the response body, or the error body if the status code indicates
+	 * an error; never null
+	 */
+	public InputStream getBody() throws IOException;
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live query subscriptions of a {@link StructrClient}. A subscription runs
+ * its query once and then again whenever the server reports a change to an
+ * entity of the query's type, so screens stay up to date without polling.
+ * All subscriptions of a client share a single {@link PushChannel}, which is
+ * opened with the first subscription and closed after the last one was
+ * cancelled. Change events also remove the affected entities from the
+ * client's identity cache.
+ *
+ * <p>The following example shows how you can use this class in your activity.</p>
+ * <pre>
+ * subscription = StructrClient.getDefault().getSubscriptions().subscribe(query, handler);
+ * ...
+ * subscription.cancel();
+ * </pre>
+ *
+ * <p>Results are delivered to the handler on the main thread. Changes that
+ * arrive in quick succession are coalesced into a single reload.</p>
+ */
+public class StructrSubscriptions {
+
+	private static final long RELOAD_DELAY        = 250;
+	private static final long MIN_RECONNECT_DELAY = 1000;
+	private static final long MAX_RECONNECT_DELAY = 60000;
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final Handler mainHandler              = new Handler(Looper.getMainLooper());
+	private PushChannel.Factory factory            = null;
+	private volatile PushChannel channel           = null;
+	private StructrClient client                   = null;
+	private long reconnectDelay                    = MIN_RECONNECT_DELAY;
+	private boolean missedEvents                   = false;
+
+	private final Runnable reconnect = new Runnable() {
+
+		@Override
+		public void run() {
+			openChannel();
+		}
+	};
+
+	StructrSubscriptions(final StructrClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Replaces the factory for the push channel, e.g. with a stand-in for
+	 * tests. Takes effect the next time the channel is opened.
+	 *
+	 * @param factory the factory
+	 */
+	public synchronized void setChannelFactory(final PushChannel.Factory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Subscribes the given handler to the results of the given query. The
+	 * handler receives the current results immediately and updated results
+	 * after every relevant change, until the subscription is cancelled.
+	 *
+	 * @param query the query, later changes to it have no effect
+	 * @param handler the handler
+	 * @return the subscription
+	 */
+	public <T extends StructrObject> Subscription<T> subscribe(final StructrQuery<T> query, final CollectionHandler<T> handler) {
+
+		Subscription<T> subscription = new Subscription<T>(query.copy(), handler);
+		subscriptions.add(subscription);
+
+		try {
+			openChannel();
+
+		} catch (IllegalStateException isex) {
+
+			subscriptions.remove(subscription);
+			throw isex;
+		}
+
+		subscription.reload(0);
+
+		return subscription;
+	}
+
+	/**
+	 * @return the number of active subscriptions
+	 */
+	public int size() {
+		return subscriptions.size();
+	}
+
+	// ----- private methods -----
+	private synchronized void openChannel() {
+
+		if (channel != null || subscriptions.isEmpty()) {
+			return;
+		}
+
+		if (factory == null) {
+			factory = new OkHttpPushChannel.Factory();
+		}
+
+		try {
+			channel = factory.create(client);
+
+		} catch (LinkageError err) {
+			throw new IllegalStateException("No push channel available, add OkHttp to your application or call setChannelFactory().");
+		}
+
+		channel.open(new ChannelListener(channel));
+	}
+
+	private void cancel(final Subscription subscription) {
+
+		subscriptions.remove(subscription);
+
+		synchronized (this) {
+
+			if (subscriptions.isEmpty()) {
+
+				mainHandler.removeCallbacks(reconnect);
+
+				if (channel != null) {
+
+					PushChannel old = channel;
+					channel = null;
+					old.close();
+				}
+			}
+		}
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Receives the events of one channel, and ignores them once the channel
+	 * has been replaced or closed.
+	 */
+	private class ChannelListener implements PushChannel.Listener {
+
+		private PushChannel source = null;
+		private boolean opened     = false;
+
+		ChannelListener(final PushChannel source) {
+			this.source = source;
+		}
+
+		@Override
+		public void onOpen() {
+
+			boolean reconnected;
+
+			synchronized (StructrSubscriptions.this) {
+
+				if (channel != source) {
+					return;
+				}
+
+				opened         = true;
+				reconnectDelay = MIN_RECONNECT_DELAY;
+				reconnected    = missedEvents;
+				missedEvents   = false;
+			}
+
+			// changes may have been missed while the channel was closed
+			if (reconnected) {
+				client.getCache().clear();
+			}
+
+			for (Subscription subscription : subscriptions) {
+				subscription.reload(RELOAD_DELAY);
+			}
+		}
+
+		@Override
+		public void onEvent(final ChangeEvent event) {
+
+			if (channel != source) {
+				return;
+			}
+
+			if (event.getKind() != ChangeEvent.Kind.CREATED) {
+				client.getCache().removeAll(event.getId());
+			}
+
+			for (Subscription subscription : subscriptions) {
+
+				if (event.concerns(subscription.query.getType())) {
+					subscription.reload(RELOAD_DELAY);
+				}
+			}
+		}
+
+		@Override
+		public void onClosed(final Throwable cause) {
+
+			synchronized (StructrSubscriptions.this) {
+
+				if (channel != source) {
+					return;
+				}
+
+				channel = null;
+
+				// only a channel that was open can have missed events
+				if (opened) {
+					missedEvents = true;
+				}
+
+				if (!subscriptions.isEmpty()) {
+
+					mainHandler.postDelayed(reconnect, reconnectDelay);
+					reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+				}
+			}
+		}
+	}
+
+	/**
+	 * An active subscription, see {@link StructrSubscriptions#subscribe}.
+	 */
+	public class Subscription<T extends StructrObject> {
+
+		private final AtomicInteger generation = new AtomicInteger();
+		private CollectionHandler<T> handler   = null;
+		private StructrQuery<T> query          = null;
+		private volatile boolean scheduled     = false;
+		private volatile boolean cancelled     = false;
+		private int delivered                  = 0;
+
+		private final Runnable load = new Runnable() {
+
+			@Override
+			public void run() {
+
+				scheduled = false;
+
+				if (!cancelled) {
+					client.getExecutor().execute(new Loader(generation.incrementAndGet()));
+				}
+			}
+		};
+
+		Subscription(final StructrQuery<T> query, final CollectionHandler<T> handler) {
+			this.query   = query;
+			this.handler = handler;
+		}
+
+		/**
+		 * Cancels this subscription. The handler will not be called again.
+		 */
+		public void cancel() {
+
+			cancelled = true;
+			mainHandler.removeCallbacks(load);
+			StructrSubscriptions.this.cancel(this);
+		}
+
+		public StructrQuery<T> getQuery() {
+			return query;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		void reload(final long delay) {
+
+			if (!scheduled && !cancelled) {
+
+				scheduled = true;
+				mainHandler.postDelayed(load, delay);
+			}
+		}
+
+		/**
+		 * Runs the query on the client's worker pool and hands the results to
+		 * the handler, unless the results of a later reload were already
+		 * delivered.
+		 */
+		private class Loader implements Runnable {
+
+			private int number = 0;
+
+			Loader(final int number) {
+				this.number = number;
+			}
+
+			@Override
+			public void run() {
+
+				List<T> results     = null;
+				Throwable throwable = null;
+
+				try {
+					results = StructrObject.dbList(client, query);
+
+				} catch (Throwable t) {
+					throwable = t;
+				}
+
+				final List<T> finalResults     = results;
+				final Throwable finalThrowable = throwable;
+
+				mainHandler.post(new Runnable() {
+
+					@Override
+					public void run() {
+
+						if (cancelled || number < delivered) {
+							return;
+						}
+
+						delivered = number;
+
+						if (finalThrowable != null) {
+							handler.handleProgress(new Progress(finalThrowable));
+						} else {
+							handler.handleResults(finalResults);
+						}
+					}
+				});
+			}
+		}
+	}
+}
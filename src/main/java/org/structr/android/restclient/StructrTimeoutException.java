@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+/**
+ * A {@link StructrException} that indicates that a REST operation did not
+ * finish in time, either because a connect or read timeout elapsed or because
+ * its {@link Deadline} expired.
+ */
+public class StructrTimeoutException extends StructrException {
+
+	public StructrTimeoutException(final String message) {
+		super(0, "Timeout", message);
+	}
+
+	@Override
+	public String getMessage() {
+		return "Timeout: " + getResponseBody();
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.IOException;
+
+/**
+ * The network layer of a {@link StructrClient}. All REST requests and file
+ * uploads go through the transport of their client, so you can replace the
+ * default {@link UrlConnectionTransport} with an implementation that uses a
+ * different HTTP stack, e.g. {@link OkHttpTransport}, or with a stand-in for
+ * a local test server.
+ *
+ * <p>Implementations must be thread-safe.</p>
+ */
+public interface StructrTransport {
+
+	/**
+	 * Executes the given request and returns when the status line and the
+	 * headers of the response have been received. The caller must close the
+	 * returned response.
+	 *
+	 * @param request the request
+	 * @return the response, regardless of its status code
+	 * @throws IOException if the request could not be executed
+	 */
+	public StructrResponse execute(final StructrRequest request) throws IOException;
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+/**
+ * A cache that can give up memory when the system runs low on memory. Caches
+ * register with the {@link StructrCacheManager}, which calls
+ * {@link #trimMemory(int)} for every memory pressure event.
+ */
+public interface TrimmableCache {
+
+	/**
+	 * @return a short, human-readable name of this cache
+	 */
+	public String getName();
+
+	/**
+	 * Releases memory according to the given level.
+	 *
+	 * @param level one of the TRIM_MEMORY constants of {@link android.content.ComponentCallbacks2}
+	 */
+	public void trimMemory(final int level);
+
+	/**
+	 * @return the current size of this cache, in the unit of {@link #maxSize()}
+	 */
+	public int size();
+
+	public int maxSize();
+
+	/**
+	 * @return the number of entries that were evicted from this cache so far
+	 */
+	public int evictionCount();
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.os.Build;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The default {@link StructrTransport}, based on {@link HttpURLConnection}.
+ * Every request uses its own connection from the platform's keep-alive pool.
+ */
+public class UrlConnectionTransport implements StructrTransport {
+
+	@Override
+	public StructrResponse execute(final StructrRequest request) throws IOException {
+
+		HttpURLConnection conn = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+
+		try {
+			conn.setRequestMethod(request.getMethod());
+			conn.setUseCaches(false);
+
+			if (request.getConnectTimeout() > 0) {
+				conn.setConnectTimeout(request.getConnectTimeout());
+			}
+
+			if (request.getReadTimeout() > 0) {
+				conn.setReadTimeout(request.getReadTimeout());
+			}
+
+			for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+				conn.setRequestProperty(header.getKey(), header.getValue());
+			}
+
+			StructrRequest.Body body = request.getBody();
+			if (body != null) {
+
+				long length = body.getContentLength();
+
+				conn.setDoOutput(true);
+				conn.setRequestProperty("Content-Type", body.getContentType());
+
+				if (length >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+					conn.setFixedLengthStreamingMode(length);
+
+				} else if (length >= 0 && length <= Integer.MAX_VALUE) {
+					conn.setFixedLengthStreamingMode((int)length);
+
+				} else {
+					conn.setChunkedStreamingMode(request.getChunkLength());
+				}
+
+				OutputStream out = conn.getOutputStream();
+				try {
+					body.writeTo(out);
+					out.flush();
+
+				} finally {
+					out.close();
+				}
+			}
+
+			// wait for the status line and headers, like other transports do
+			conn.getResponseCode();
+
+			return new Response(conn);
+
+		} catch (IOException ioex) {
+
+			conn.disconnect();
+			throw ioex;
+		}
+	}
+
+	// ----- nested classes -----
+	private static class Response implements StructrResponse {
+
+		private HttpURLConnection conn = null;
+
+		Response(final HttpURLConnection conn) {
+			this.conn = conn;
+		}
+
+		@Override
+		public int getCode() throws IOException {
+			return conn.getResponseCode();
+		}
+
+		@Override
+		public String getMessage() throws IOException {
+			return conn.getResponseMessage();
+		}
+
+		@Override
+		public String getHeader(final String name) {
+			return conn.getHeaderField(name);
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+
+			if (conn.getResponseCode() < 400) {
+				return conn.getInputStream();
+			}
+
+			InputStream error = conn.getErrorStream();
+			return error != null ? error : new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public void close() {
+			conn.disconnect();
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package org.structr.android.uploadservice;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.structr.android.restclient.StructrClient;
+import org.structr.android.restclient.StructrException;
+import org.structr.android.restclient.StructrObject;
+import org.structr.android.restclient.StructrQuery;
+import org.structr.android.restclient.StructrTimeoutException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the content of uploaded files, so that a file that is shared again is not uploaded again.
+ * Content is identified by its size and SHA-1, and the index records the CRC32 that structr stores in
+ * the checksum property of its File entities together with the name the file was uploaded with. Before
+ * the next upload from the same source, the server is asked for a File with that checksum, size and
+ * name, and the existing File is used when there is one.
+ * <br><br>
+ * The hash is computed by a {@link Hasher} from the bytes that are sent, so the content is never read
+ * just to hash it. It is remembered under the {@link UploadSource#getKey()} of its source, which changes
+ * when the content changes.
+ */
+class ChecksumIndex {
+
+    private static final String PREFERENCES_NAME = "org.structr.upload.checksums";
+    private static final String SOURCE_PREFIX = "source:";
+    private static final String CONTENT_PREFIX = "content:";
+
+    private SharedPreferences preferences = null;
+
+    ChecksumIndex(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * The hash of some content, and what the index knows about it.
+     */
+    static class Content {
+
+        private String key = null;
+        private long checksum = -1;
+        private String fileName = null;
+
+        Content(String key, long checksum) {
+            this.key = key;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return the size and SHA-1 of the content
+         */
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the CRC32 of the content, or -1 when it was not computed
+         */
+        long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * @return the name the content was uploaded with, or null when it was not uploaded before
+         */
+        String getFileName() {
+            return fileName;
+        }
+    }
+
+    /**
+     * Gives you the hash of the given content and the name it was uploaded with, if it was uploaded
+     * from this source before.
+     *
+     * @param source the content
+     * @return the content hash, or null when the source is new or its upload was forgotten
+     */
+    Content getContent(UploadSource source) {
+        String contentKey = preferences.getString(SOURCE_PREFIX + source.getKey(), null);
+        return contentKey != null ? lookup(contentKey) : null;
+    }
+
+    /**
+     * Records that the given content was uploaded from the given source with the given name.
+     */
+    void put(UploadSource source, Content content, String fileName) {
+        //the server is asked for the name, a file without one cannot be found again
+        if (fileName == null)
+            return;
+
+        preferences.edit()
+                .putString(SOURCE_PREFIX + source.getKey(), content.key)
+                .putString(CONTENT_PREFIX + content.key, content.checksum + ":" + fileName)
+                .commit();
+    }
+
+    /**
+     * Forgets the upload of the given content, e.g. because the File was deleted on the server.
+     */
+    void remove(Content content) {
+        preferences.edit().remove(CONTENT_PREFIX + content.key).commit();
+        content.fileName = null;
+    }
+
+    private Content lookup(String contentKey) {
+        String value = preferences.getString(CONTENT_PREFIX + contentKey, null);
+        int separator = value != null ? value.indexOf(':') : -1;
+        if (separator < 0)
+            return null;
+
+        try {
+            Content content = new Content(contentKey, Long.parseLong(value.substring(0, separator)));
+            content.fileName = value.substring(separator + 1);
+            return content;
+
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Asks the server for a File with the given checksum, size and name.
+     *
+     * @param client the client whose server is asked
+     * @param checksum the CRC32 of the content
+     * @param size the size of the content
+     * @param name the name the content was uploaded with
+     * @return the id of the File, or null when the server has no such file
+     */
+    static String findFile(StructrClient client, long checksum, long size, String name) throws Throwable {
+        StructrQuery<File> query = StructrQuery.of(File.class)
+                .eq("checksum", checksum)
+                .eq("size", size)
+                .eq("name", name)
+                .page(1, 1);
+
+        List<File> files;
+        try {
+            files = StructrObject.dbList(client, query);
+        } catch (StructrTimeoutException e) {
+            throw e;
+        } catch (StructrException e) {
+            //the server does not answer the search, upload the file again
+            return null;
+        }
+
+        return !files.isEmpty() ? files.get(0).getId() : null;
+    }
+
+    /**
+     * Hashes the content of an upload from the bytes that are sent. The bytes can be handed over more
+     * than once, e.g. when a part of a chunk has to be sent again, but they have to start at offset 0
+     * and must not leave a gap, otherwise the hash is unusable. This is the case when an upload is
+     * resumed, the part that was sent before is not hashed again.
+     */
+    static class Hasher {
+
+        private MessageDigest digest = null;
+        private CRC32 checksum = new CRC32();
+        private long length = 0;
+        private long size = 0;
+        private boolean valid = true;
+
+        /**
+         * @param length the length of the content
+         */
+        Hasher(long length) {
+            this.length = length;
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                //every Android version has SHA-1
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Adds bytes of the content to the hash.
+         *
+         * @param offset the offset of the bytes in the content
+         * @param buffer the bytes
+         * @param count the number of bytes
+         */
+        void update(long offset, byte[] buffer, int count) {
+            if (!valid)
+                return;
+
+            if (offset > size) {
+                valid = false;
+                return;
+            }
+
+            //skip the bytes that were hashed before
+            int start = (int) Math.min(size - offset, count);
+            digest.update(buffer, start, count - start);
+            checksum.update(buffer, start, count - start);
+            size += count - start;
+        }
+
+        /**
+         * @return the hash of the content, or null when not all of it was handed to the hasher
+         */
+        Content finish() {
+            if (!valid || size != length)
+                return null;
+
+            StringBuilder key = new StringBuilder().append(size).append(':');
+            for (byte b : digest.digest())
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+
+            return new Content(key.toString(), checksum.getValue());
+        }
+    }
+
+    //The File entities of structr, the lookup only needs their id
+    static class File extends StructrObject {
+    }
+}
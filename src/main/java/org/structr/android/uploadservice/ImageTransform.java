@@ -0,0 +1,197 @@
+package org.structr.android.uploadservice;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Scales images down and compresses them again before they are uploaded, which cuts the size of
+ * photos from a camera by an order of magnitude. Set a transform with
+ * {@link StructrUploadService#setImageTransform(ImageTransform)}; it is applied to all files with an
+ * image/* mime type except GIFs.
+ * <br><br>
+ * The transformed image is written to a temporary file in the cache directory, which is deleted after
+ * the upload. When the source is a file on the storage and the output format is JPEG, the EXIF data of
+ * the original, including its orientation, is copied to the result. The original is uploaded unchanged
+ * when the transform would not make it smaller.
+ */
+public class ImageTransform {
+
+    private static final String[] EXIF_TAGS = {
+            ExifInterface.TAG_ORIENTATION,
+            ExifInterface.TAG_DATETIME,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_EXPOSURE_TIME,
+            ExifInterface.TAG_APERTURE,
+            ExifInterface.TAG_ISO,
+            ExifInterface.TAG_WHITE_BALANCE,
+            ExifInterface.TAG_FOCAL_LENGTH,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_GPS_ALTITUDE,
+            ExifInterface.TAG_GPS_ALTITUDE_REF,
+            ExifInterface.TAG_GPS_TIMESTAMP,
+            ExifInterface.TAG_GPS_DATESTAMP,
+            ExifInterface.TAG_GPS_PROCESSING_METHOD
+    };
+
+    private int maxDimension = 2048;
+    private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+    private int quality = 85;
+    private boolean preserveExif = true;
+
+    /**
+     * @param maxDimension the maximum width and height of the uploaded image in pixels
+     * @return this transform
+     */
+    public ImageTransform setMaxDimension(int maxDimension) {
+        this.maxDimension = maxDimension;
+        return this;
+    }
+
+    /**
+     * @param format the format of the uploaded image, JPEG or WEBP
+     * @param quality the compression quality from 0 to 100
+     * @return this transform
+     */
+    public ImageTransform setFormat(Bitmap.CompressFormat format, int quality) {
+        this.format = format;
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * @param preserveExif whether the EXIF data of the original is copied to JPEG results
+     * @return this transform
+     */
+    public ImageTransform setPreserveExif(boolean preserveExif) {
+        this.preserveExif = preserveExif;
+        return this;
+    }
+
+    /**
+     * @return true when files of the given mime type are transformed
+     */
+    public boolean accepts(String mimeType) {
+        return mimeType != null && mimeType.startsWith("image/") && !mimeType.equals("image/gif");
+    }
+
+    /**
+     * @return the mime type of the transformed images
+     */
+    public String getMimeType() {
+        return format == Bitmap.CompressFormat.WEBP ? "image/webp" : "image/jpeg";
+    }
+
+    /**
+     * @return the given file name with the extension of the output format
+     */
+    public String getFileName(String fileName) {
+        String extension = format == Bitmap.CompressFormat.WEBP ? ".webp" : ".jpg";
+        if (fileName == null)
+            return null;
+
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0 ? fileName.substring(0, dot) : fileName) + extension;
+    }
+
+    /**
+     * Transforms the given image into a temporary file.
+     *
+     * @param context the context whose cache directory holds the temporary file
+     * @param source the original image
+     * @return the source of the temporary file, or null when the original should be uploaded unchanged
+     */
+    public UploadSource apply(Context context, UploadSource source) throws IOException {
+        //Read the size of the image without decoding its pixels
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(source, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        //Decode a power of two smaller, which is fast and saves memory, then scale to the exact size
+        int largest = Math.max(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (largest / (options.inSampleSize * 2) >= maxDimension)
+            options.inSampleSize *= 2;
+
+        Bitmap bitmap = decode(source, options);
+        if (bitmap == null)
+            return null;
+
+        File output = File.createTempFile("structr-upload", null, context.getCacheDir());
+        try {
+            float scale = Math.min(1.0f, (float) maxDimension / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+            if (scale < 1.0f) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+
+            OutputStream out = new FileOutputStream(output);
+            try {
+                bitmap.compress(format, quality, out);
+            } finally {
+                out.close();
+                bitmap.recycle();
+            }
+
+            if (preserveExif && format == Bitmap.CompressFormat.JPEG && source.getFile() != null)
+                copyExif(source.getFile(), output);
+
+        } catch (IOException e) {
+            output.delete();
+            throw e;
+        }
+
+        //Keep the original when it is already smaller
+        if (source.getLength() >= 0 && output.length() >= source.getLength()) {
+            output.delete();
+            return null;
+        }
+
+        //the result of the same original is always the same, so a resumable upload can continue with it
+        return UploadSource.of(output, source.getKey() + ":" + maxDimension + ":" + format + ":" + quality);
+    }
+
+    private static Bitmap decode(UploadSource source, BitmapFactory.Options options) throws IOException {
+        InputStream input = source.open(0);
+        try {
+            return BitmapFactory.decodeStream(input, null, options);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void copyExif(File original, File output) {
+        try {
+            ExifInterface from = new ExifInterface(original.getAbsolutePath());
+            ExifInterface to = new ExifInterface(output.getAbsolutePath());
+
+            for (String tag : EXIF_TAGS) {
+                String value = from.getAttribute(tag);
+                if (value != null)
+                    to.setAttribute(tag, value);
+            }
+
+            to.saveAttributes();
+
+        } catch (IOException e) {
+            //the original has no readable EXIF data, upload the image without it
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.structr.android.uploadservice;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+
+/**
+ * A stand-in for the server side of a {@link ResumableUploadProtocol} that stores the uploaded files
+ * in a local directory. Use it in tests and during development to exercise chunked uploads without
+ * a server. {@link #interruptAt(long)} and {@link #loseNextAcknowledgement()} simulate a lost connection
+ * in the middle of an upload.
+ * <br><br>
+ * The lengths of the uploads are kept in the same persistent store as the locations of the client, so
+ * a new instance on the same directory, e.g. after a restart of the process, continues the uploads of
+ * the previous one.
+ */
+public class LocalUploadProtocol implements ResumableUploadProtocol {
+
+    private ResumableUploadStore store = null;
+    private File directory = null;
+    private long interruptAt = -1;
+    private boolean loseAcknowledgement = false;
+
+    /**
+     * @param context the context whose preferences keep the uploads
+     * @param directory the directory in which the uploaded files are stored
+     */
+    public LocalUploadProtocol(Context context, File directory) {
+        this(new ResumableUploadStore(context), directory);
+    }
+
+    LocalUploadProtocol(ResumableUploadStore store, File directory) {
+        this.store = store;
+        this.directory = directory;
+    }
+
+    /**
+     * Makes the next chunk that reaches the given offset fail with an IOException, after the bytes
+     * before the offset have been stored.
+     *
+     * @param offset the offset at which the connection is "lost", or -1 to disable
+     */
+    public synchronized void interruptAt(long offset) {
+        this.interruptAt = offset;
+    }
+
+    /**
+     * Makes the next chunk fail with an IOException after it has been stored completely, as if the
+     * connection was lost before the answer of the server arrived.
+     */
+    public synchronized void loseNextAcknowledgement() {
+        this.loseAcknowledgement = true;
+    }
+
+    /**
+     * Forgets all uploads, as a server would do when it expires incomplete uploads.
+     */
+    public synchronized void reset() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            store.removeLength(file.getName());
+            file.delete();
+        }
+    }
+
+    /**
+     * @return the file in which the given upload is stored
+     */
+    public File getFile(String location) {
+        return new File(directory, location);
+    }
+
+    @Override
+    public synchronized String create(StructrUploadFile file, long length) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+
+        String location = UUID.randomUUID().toString();
+        if (!new File(directory, location).createNewFile())
+            throw new IOException("Could not create upload " + location);
+
+        store.putLength(location, length);
+        return location;
+    }
+
+    @Override
+    public synchronized long getOffset(String location) {
+        File file = new File(directory, location);
+        return store.getLength(location) >= 0 && file.isFile() ? file.length() : -1;
+    }
+
+    @Override
+    public synchronized Result writeChunk(String location, long offset, byte[] buffer, int length) throws IOException {
+        long total = store.getLength(location);
+        if (total < 0 || !new File(directory, location).isFile())
+            throw new IOException("Unknown upload " + location);
+
+        long stored = getOffset(location);
+        if (offset != stored)
+            throw new IOException("Offset " + offset + " does not match the stored offset " + stored);
+
+        if (offset + length > total)
+            throw new IOException("Chunk at offset " + offset + " exceeds the length " + total);
+
+        boolean interrupt = interruptAt >= 0 && offset + length > interruptAt;
+        int count = interrupt ? (int) Math.max(interruptAt - offset, 0) : length;
+
+        RandomAccessFile out = new RandomAccessFile(new File(directory, location), "rw");
+        try {
+            out.seek(offset);
+            out.write(buffer, 0, count);
+        } finally {
+            out.close();
+        }
+
+        if (interrupt) {
+            interruptAt = -1;
+            throw new IOException("Connection interrupted at offset " + (offset + count));
+        }
+
+        if (loseAcknowledgement) {
+            loseAcknowledgement = false;
+            throw new IOException("Connection interrupted after offset " + (offset + count));
+        }
+
+        long newOffset = offset + count;
+        return new Result(newOffset, newOffset == total ? 201 : 204, location);
+    }
+}
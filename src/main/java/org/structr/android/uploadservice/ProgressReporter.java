@@ -0,0 +1,114 @@
+package org.structr.android.uploadservice;
+
+import android.os.SystemClock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the progress of all running uploads, so that the notification, the journal and the
+ * receivers are updated at most once per interval instead of on every percent of every file. Only the
+ * latest progress of each file is kept, and all files are delivered together in one batch.
+ */
+class ProgressReporter {
+
+    static final long DEFAULT_INTERVAL = 250;
+
+    private final Map<Integer, long[]> pending = new LinkedHashMap<>();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "StructrUpload progress");
+        }
+    });
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private StructrUploadService uploadService = null;
+    private long lastFlush = 0;
+    private boolean scheduled = false;
+
+    ProgressReporter(StructrUploadService uploadService) {
+        this.uploadService = uploadService;
+    }
+
+    /**
+     * Records the progress of a file. The first report after a quiet interval is delivered at once,
+     * later ones are delivered together at the end of the interval.
+     *
+     * @param fileId the id of the file
+     * @param progress the progress in percent
+     * @param bytesSent the number of bytes sent, or -1 when unknown
+     */
+    void report(int fileId, int progress, long bytesSent) {
+        boolean flushNow = false;
+
+        synchronized (this) {
+            pending.put(fileId, new long[] { progress, bytesSent });
+
+            if (!scheduled) {
+                long delay = lastFlush + StructrUploadService.getProgressInterval() - SystemClock.elapsedRealtime();
+                if (delay <= 0) {
+                    flushNow = true;
+                } else {
+                    scheduled = true;
+                    scheduler.schedule(flushTask, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        if (flushNow)
+            flush();
+    }
+
+    /**
+     * Delivers all pending progress at once, e.g. before the end of an upload is broadcast, so that
+     * receivers never get a progress after the result.
+     */
+    void flush() {
+        //batches are delivered one after the other, so an older batch never overtakes a newer one
+        synchronized (flushLock) {
+            int[] fileIds;
+            int[] progresses;
+            long[] bytesSent;
+
+            synchronized (this) {
+                scheduled = false;
+                lastFlush = SystemClock.elapsedRealtime();
+
+                if (pending.isEmpty())
+                    return;
+
+                fileIds = new int[pending.size()];
+                progresses = new int[fileIds.length];
+                bytesSent = new long[fileIds.length];
+
+                int i = 0;
+                for (Map.Entry<Integer, long[]> entry : pending.entrySet()) {
+                    fileIds[i] = entry.getKey();
+                    progresses[i] = (int) entry.getValue()[0];
+                    bytesSent[i] = entry.getValue()[1];
+                    i++;
+                }
+
+                pending.clear();
+            }
+
+            uploadService.deliverProgress(fileIds, progresses, bytesSent);
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,203 @@
+package org.structr.android.uploadservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads the content of an upload on a thread of its own, a few chunks ahead of the thread that sends
+ * them, so that reading from the storage and writing to the network overlap. The chunks are pooled
+ * buffers of the {@link UploadBufferPool}, and their size follows the measured throughput of the
+ * upload: a fast connection is written with few large chunks, a slow one with smaller chunks, which
+ * keeps less data in memory and reports progress and cancellation sooner.
+ */
+class ReadAheadReader {
+
+    private static final int READ_AHEAD_CHUNKS = 2;
+    private static final long TARGET_CHUNK_NANOS = 250 * 1000 * 1000;
+    private static final int INITIAL_CHUNK_SIZE = 256 * 1024;
+
+    private static final ExecutorService readers = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "StructrUpload read-ahead");
+        }
+    });
+
+    //marks the end of the content in the queue
+    private static final Chunk END = new Chunk(null, -1, null);
+
+    private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(READ_AHEAD_CHUNKS);
+    private final UploadBufferPool bufferPool = UploadBufferPool.getInstance();
+    private final InputStream input;
+    private final Future<?> task;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private volatile int chunkSize = INITIAL_CHUNK_SIZE;
+    private volatile boolean closed = false;
+    private double bytesPerNano = 0;
+
+    /**
+     * A part of the content, to be handed back with {@link #release(Chunk, long)} once it is written.
+     */
+    static class Chunk {
+
+        final byte[] buffer;
+        final int length;
+        final IOException error;
+
+        Chunk(byte[] buffer, int length, IOException error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Starts to read the given stream. The reader closes the stream when it is done with it.
+     */
+    ReadAheadReader(InputStream input) {
+        this.input = input;
+        this.task = readers.submit(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        });
+    }
+
+    /**
+     * Waits for the next chunk of the content.
+     *
+     * @return the next chunk, or null at the end of the content
+     * @throws IOException when the content could not be read
+     */
+    Chunk take() throws IOException {
+        Chunk chunk;
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the upload");
+        }
+
+        if (chunk.error != null)
+            throw chunk.error;
+
+        return chunk != END ? chunk : null;
+    }
+
+    /**
+     * Returns the buffer of a written chunk to the pool, and adapts the size of the following chunks
+     * to the time it took to write this one.
+     *
+     * @param chunk the chunk
+     * @param writeNanos the time it took to write the chunk
+     */
+    void release(Chunk chunk, long writeNanos) {
+        if (writeNanos > 0 && chunk.length > 0) {
+            //a moving average, so a single stall does not shrink the chunks at once
+            double sample = (double) chunk.length / writeNanos;
+            bytesPerNano = bytesPerNano > 0 ? (bytesPerNano * 3 + sample) / 4 : sample;
+
+            long target = (long) (bytesPerNano * TARGET_CHUNK_NANOS);
+            chunkSize = UploadBufferPool.getBufferSize((int) Math.min(target, UploadBufferPool.BUFFER_SIZE));
+        }
+
+        bufferPool.release(chunk.buffer);
+    }
+
+    /**
+     * Stops reading, e.g. because the upload was canceled or failed, and returns all buffers that were
+     * read ahead to the pool.
+     */
+    void close() {
+        closed = true;
+
+        //the stream belongs to the reading thread once it has started
+        if (started.compareAndSet(false, true))
+            closeInput();
+        else
+            task.cancel(true);
+
+        drain();
+    }
+
+    private void readAhead() {
+        if (!started.compareAndSet(false, true))
+            return;
+
+        try {
+            while (!closed) {
+                byte[] buffer = bufferPool.acquire(chunkSize);
+                int length = read(buffer, chunkSize);
+
+                if (length <= 0) {
+                    bufferPool.release(buffer);
+                    break;
+                }
+
+                chunks.put(new Chunk(buffer, length, null));
+            }
+
+            if (!closed)
+                chunks.put(END);
+
+        } catch (IOException e) {
+            if (!closed)
+                putError(e);
+
+        } catch (InterruptedException e) {
+            //the upload stopped
+
+        } finally {
+            closeInput();
+
+            //a chunk put after close() would never be taken
+            if (closed)
+                drain();
+        }
+    }
+
+    private void putError(IOException error) {
+        try {
+            chunks.put(new Chunk(null, -1, error));
+        } catch (InterruptedException e) {
+            //the upload stopped
+        }
+    }
+
+    private void closeInput() {
+        try {
+            input.close();
+        } catch (IOException e) {
+            //nothing left to read
+        }
+    }
+
+    //Fill the buffer up to the given length, so that slow streams do not produce tiny chunks
+    private int read(byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = input.read(buffer, total, length - total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    private void drain() {
+        Chunk chunk;
+        while ((chunk = chunks.poll()) != null) {
+            bufferPool.release(chunk.buffer);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.structr.android.uploadservice;
+
+import java.io.IOException;
+
+/**
+ * The server side of a resumable upload. A file is sent in chunks, and the server acknowledges the
+ * offset up to which it has stored the file. When a chunk fails, the upload continues from the last
+ * acknowledged offset instead of starting again from the first byte.
+ * <br><br>
+ * Set an implementation with {@link StructrUploadService#setResumableUploadProtocol(ResumableUploadProtocol)}
+ * to upload all files in chunks. {@link TusUploadProtocol} talks to a tus 1.0 endpoint, {@link LocalUploadProtocol}
+ * stores the files locally and can be used instead of a server in tests.
+ */
+public interface ResumableUploadProtocol {
+
+    /**
+     * Creates a new upload on the server.
+     *
+     * @param file the file that will be uploaded
+     * @param length the length of the file in bytes
+     * @return the location of the upload, used to identify it in all further calls
+     */
+    String create(StructrUploadFile file, long length) throws IOException;
+
+    /**
+     * Asks the server for the number of bytes it has stored for the given upload.
+     *
+     * @param location the location of the upload
+     * @return the acknowledged offset, or -1 when the server does not know the upload (anymore)
+     */
+    long getOffset(String location) throws IOException;
+
+    /**
+     * Sends a chunk of the file.
+     *
+     * @param location the location of the upload
+     * @param offset the offset of the chunk in the file, which must be the acknowledged offset
+     * @param buffer the buffer that holds the chunk
+     * @param length the number of bytes in the buffer
+     * @return the answer of the server, including the new acknowledged offset
+     */
+    Result writeChunk(String location, long offset, byte[] buffer, int length) throws IOException;
+
+    /**
+     * The answer of the server to a chunk.
+     */
+    class Result {
+
+        private long offset;
+        private int serverCode;
+        private String serverResponse;
+
+        public Result(long offset, int serverCode, String serverResponse){
+            this.offset = offset;
+            this.serverCode = serverCode;
+            this.serverResponse = serverResponse;
+        }
+
+        public long getOffset(){
+            return offset;
+        }
+
+        public int getServerCode(){
+            return serverCode;
+        }
+
+        public String getServerResponse(){
+            return serverResponse;
+        }
+    }
+}
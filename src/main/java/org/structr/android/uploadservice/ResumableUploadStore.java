@@ -0,0 +1,55 @@
+package org.structr.android.uploadservice;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers the locations of unfinished resumable uploads across process restarts, so that an upload
+ * of the same file continues where it stopped. A file is identified by {@link UploadSource#getKey()},
+ * so a changed file is uploaded again from the start.
+ * <br><br>
+ * The {@link LocalUploadProtocol} keeps the lengths of its uploads in the same store, so that it knows
+ * them after a restart like a server would.
+ */
+class ResumableUploadStore {
+
+    private static final String PREFERENCES_NAME = "org.structr.upload.resumable";
+    private static final String LENGTH_PREFIX = "length:";
+
+    private SharedPreferences preferences = null;
+
+    ResumableUploadStore(Context context) {
+        this(context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+    }
+
+    ResumableUploadStore(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    String getLocation(String key) {
+        return preferences.getString(key, null);
+    }
+
+    void putLocation(String key, String location) {
+        preferences.edit().putString(key, location).commit();
+    }
+
+    void remove(String key) {
+        preferences.edit().remove(key).commit();
+    }
+
+    /**
+     * @return the length of the upload at the given location, or -1 when the upload is not known
+     */
+    long getLength(String location) {
+        return preferences.getLong(LENGTH_PREFIX + location, -1);
+    }
+
+    void putLength(String location, long length) {
+        preferences.edit().putLong(LENGTH_PREFIX + location, length).commit();
+    }
+
+    void removeLength(String location) {
+        preferences.edit().remove(LENGTH_PREFIX + location).commit();
+    }
+}
@@ -1,17 +1,17 @@
 package org.structr.android.uploadservice;
 
-import android.os.Build;
-
-import org.structr.android.restclient.StructrConnector;
+import org.structr.android.restclient.StructrClient;
+import org.structr.android.restclient.StructrRequest;
+import org.structr.android.restclient.StructrResponse;
+import org.structr.android.restclient.StructrTimeoutException;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.SocketTimeoutException;
 
 /**
  *
@@ -20,16 +20,21 @@ import java.net.URL;
 public class StructrFileUploader {
 
     private StructrUploadService uploadService = null;
+    private ResumableUploadStore resumableUploadStore = null;
+    private ChecksumIndex checksumIndex = null;
+
+    //the chunk size for uploads with chunked transfer encoding
+    private static final int CHUNK_LENGTH = 64 * 1024;
 
     private String CRLF = "\r\n";
     private String twoHyphens = "--";
     private String boundary = null;
 
-    private StructrUploadFile fileToUpload = null;
-
     public StructrFileUploader(StructrUploadService uploadService) {
         this.uploadService = uploadService;
         boundary = ""+System.currentTimeMillis();
+        resumableUploadStore = new ResumableUploadStore(uploadService);
+        checksumIndex = new ChecksumIndex(uploadService);
     }
 
     /**
@@ -40,37 +45,89 @@ public class StructrFileUploader {
      *          <li>false when an error occured during the upload</li>
      */
     public void doUpload(StructrUploadFile fileToUpload) throws Throwable {
-        this.fileToUpload = fileToUpload;
-        HttpURLConnection connection = null;
-        Throwable throwable = null;
+        //Read the file from its path or stream it from its Uri
+        UploadSource source = UploadSource.of(uploadService, fileToUpload);
+        String fileName = fileToUpload.getFileName();
+        String fileMimeType = fileToUpload.getMimeType();
+
+        //Scale images down and upload the result from a temporary file
+        ImageTransform transform = StructrUploadService.getImageTransform();
+        UploadSource transformed = transform != null && transform.accepts(fileMimeType) ? transform.apply(uploadService, source) : null;
 
         try {
-            String fileMimeType = fileToUpload.getMimeType();
+            if(transformed != null)
+                doUpload(fileToUpload, transformed, transform.getFileName(fileName), transform.getMimeType());
+            else
+                doUpload(fileToUpload, source, fileName, fileMimeType);
+
+        } catch (SocketTimeoutException e) {
+            //report a timeout like the requests of the REST client do
+            throw new StructrTimeoutException(e.getMessage());
+
+        } finally {
+            if(transformed != null)
+                transformed.getFile().delete();
+        }
+    }
 
-            //Get the real Path on the storage and create an fileobject with it
-            File file = new File(fileToUpload.getRealPath());
+    //Upload the given content in a single request or in chunks
+    private void doUpload(StructrUploadFile fileToUpload, UploadSource source, String fileName, String fileMimeType) throws Throwable {
+        long fileSize = source.getLength();
+
+        //Use the File on the server when this content was uploaded before, and hash it while it is sent otherwise
+        ChecksumIndex.Hasher hasher = null;
+        if(StructrUploadService.isDeduplicationEnabled() && fileSize >= 0){
+            ChecksumIndex.Content content = checksumIndex.getContent(source);
+            if(content != null && reuseExistingFile(fileToUpload, content, fileSize))
+                return;
+            hasher = new ChecksumIndex.Hasher(fileSize);
+        }
 
-            //open the communication to the server
-            URL url = new URL(buildUploadUrl());
-            connection = (HttpURLConnection) url.openConnection();
+        //Chunks need a known length, content of unknown length is sent in a single request
+        ResumableUploadProtocol protocol = StructrUploadService.getResumableUploadProtocol();
+        if(protocol != null && fileSize >= 0){
+            doResumableUpload(fileToUpload, source, protocol, hasher);
+            if(!fileToUpload.isCanceled())
+                remember(source, hasher, fileName);
+            return;
+        }
 
+        StructrResponse response = null;
+        Throwable throwable = null;
+
+        try {
             //prepare the requestheaders, requestbody and the requestend
-            byte[] uploadRequestBody = prepareUploadRequestBody(boundary, file, fileMimeType);
+            byte[] uploadRequestBody = prepareUploadRequestBody(boundary, fileName, fileMimeType);
             byte[] uploadRequestFooter = prepareRequestFooter(boundary);
-            long requestLength = (long) uploadRequestBody.length + (long) uploadRequestFooter.length + file.length();
-            prepareRequestHeader(connection, boundary, requestLength);
+            long requestLength = fileSize >= 0 ? (long) uploadRequestBody.length + (long) uploadRequestFooter.length + fileSize : -1;
+
+            //Send requests bigger than 2GB with chunked transfer encoding, many servers cannot handle such a Content-Length
+            if(requestLength > Integer.MAX_VALUE)
+                requestLength = -1;
 
-            //write the file to the server
-            writeFile(connection, uploadRequestBody, uploadRequestFooter, file);
+            //send the request through the transport of the default client
+            StructrClient client = StructrClient.getDefault();
+            StructrRequest request = prepareRequest(client, new UploadBody(fileToUpload, source, hasher, uploadRequestBody, uploadRequestFooter, requestLength));
+            response = client.getTransport().execute(request);
 
             //Get the result data from the server and broadcast that the upload is finished
-            int responseCode = connection.getResponseCode();
-            String response = getResponseBody(connection);
-            connection.disconnect();
-            uploadService.broadcastFinished(fileToUpload.getFileId(), responseCode, response);
+            int responseCode = response.getCode();
+            String responseBody = getResponseBody(response);
+
+            //Remember the content, so that it is not uploaded again
+            if(responseCode < 300 && !fileToUpload.isCanceled())
+                remember(source, hasher, fileName);
+
+            //a canceled upload was already reported as canceled
+            if(!fileToUpload.isCanceled())
+                uploadService.broadcastFinished(fileToUpload.getFileId(), responseCode, responseBody);
 
         } catch (Throwable t) {
               throwable = t;
+
+        } finally {
+            if(response != null)
+                response.close();
         }
 
         if(throwable != null)
@@ -78,11 +135,117 @@ public class StructrFileUploader {
 
     }
 
+    //Ask the server for the File this content was uploaded as and finish the upload with it
+    private boolean reuseExistingFile(StructrUploadFile fileToUpload, ChecksumIndex.Content content, long fileSize) throws Throwable {
+        String fileId = ChecksumIndex.findFile(StructrClient.getDefault(), content.getChecksum(), fileSize, content.getFileName());
+        if(fileId == null){
+            //the file was deleted or renamed on the server
+            checksumIndex.remove(content);
+            return false;
+        }
+
+        uploadService.broadcastProgress(fileToUpload.getFileId(), 100);
+        uploadService.broadcastFinished(fileToUpload.getFileId(), 200, fileId);
+        return true;
+    }
+
+    //Remember the hash of content that was sent completely
+    private void remember(UploadSource source, ChecksumIndex.Hasher hasher, String fileName) {
+        ChecksumIndex.Content content = hasher != null ? hasher.finish() : null;
+        if(content != null)
+            checksumIndex.put(source, content, fileName);
+    }
+
+    /**
+     * Uploads the file in chunks with the given protocol. The upload continues at the offset the server
+     * has acknowledged last, also when it was started before the process was restarted.
+     *
+     * @param fileToUpload the file to upload
+     * @param source the content of the file, with a known length
+     * @param protocol the protocol used to send the chunks
+     */
+    public void doResumableUpload(StructrUploadFile fileToUpload, UploadSource source, ResumableUploadProtocol protocol) throws IOException {
+        doResumableUpload(fileToUpload, source, protocol, null);
+    }
+
+    //Upload in chunks and hand the acknowledged bytes to the hasher, if there is one
+    private void doResumableUpload(StructrUploadFile fileToUpload, UploadSource source, ResumableUploadProtocol protocol, ChecksumIndex.Hasher hasher) throws IOException {
+        long fileSize = source.getLength();
+        String key = source.getKey();
+
+        //Continue an upload of this file that was started before, or create a new one
+        String location = resumableUploadStore.getLocation(key);
+        long offset = location != null ? protocol.getOffset(location) : -1;
+        if(offset < 0){
+            location = protocol.create(fileToUpload, fileSize);
+            offset = 0;
+            resumableUploadStore.putLocation(key, location);
+        }
+
+        UploadBufferPool bufferPool = UploadBufferPool.getInstance();
+        byte[] buffer = bufferPool.acquire();
+        InputStream input = source.open(offset);
+        ResumableUploadProtocol.Result result = null;
+
+        try {
+            uploadService.broadcastProgress(fileToUpload.getFileId(), getProgress(offset, fileSize));
+
+            //Send one chunk after the other, an empty file is sent as one empty chunk
+            do {
+                int length = (int) Math.min(buffer.length, fileSize - offset);
+                readFully(input, buffer, length);
+
+                long previousOffset = offset;
+                result = protocol.writeChunk(location, offset, buffer, length);
+                offset = result.getOffset();
+
+                if(offset <= previousOffset && length > 0)
+                    throw new IOException("Server did not acknowledge the chunk at offset " + previousOffset);
+
+                if(hasher != null)
+                    hasher.update(previousOffset, buffer, (int) Math.min(offset - previousOffset, length));
+
+                //the server stored only a part of the chunk, continue at its offset
+                if(offset < previousOffset + length){
+                    input.close();
+                    input = source.open(offset);
+                }
+
+                uploadService.getUploadEngine().addUploadedBytes(offset - previousOffset);
+                uploadService.broadcastProgress(fileToUpload.getFileId(), getProgress(offset, fileSize), offset);
+
+            } while(offset < fileSize && !fileToUpload.isCanceled());
+
+        } finally {
+            input.close();
+            bufferPool.release(buffer);
+        }
+
+        if(!fileToUpload.isCanceled()){
+            resumableUploadStore.remove(key);
+            uploadService.broadcastFinished(fileToUpload.getFileId(), result.getServerCode(), result.getServerResponse());
+        }
+    }
+
+    private static int getProgress(long offset, long fileSize) {
+        return fileSize > 0 ? (int) (offset * 100 / fileSize) : 100;
+    }
+
+    private static void readFully(InputStream input, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while(read < length){
+            int count = input.read(buffer, read, length - read);
+            if(count < 0)
+                throw new EOFException("File is shorter than expected");
+            read += count;
+        }
+    }
+
     //Build the URL
-    private static String buildUploadUrl() {
+    private static String buildUploadUrl(StructrClient client) {
         StringBuilder path = new StringBuilder();
 
-        String base = StructrConnector.getServer();
+        String base = client.getServer();
         path.append(base);
         if (base.endsWith("/"))
             path.append("upload");
@@ -92,25 +255,15 @@ public class StructrFileUploader {
     }
 
     //Set the Headerfields of the uploadrequest
-    private void prepareRequestHeader(HttpURLConnection connection, String boundary, long requestLength) throws IOException {
-        connection.setDoInput(true);
-        connection.setDoOutput(true);
-        connection.setUseCaches(false);
-        connection.setConnectTimeout(3000);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("X-User", StructrConnector.getUserName());
-        connection.setRequestProperty("X-Password", StructrConnector.getPassword());
-        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-
-        //Check if the file exceeds the max. file size the structr upload servlet can handle..
-        if(requestLength > Integer.MAX_VALUE)
-            //TODO: chunked encoding if Build.VERSION.SDK_INT < 19
-            throw new IOException("File is bigger than 2GB! Structr doesn't support files bigger than 2GB at the Moment");
-        else if(Build.VERSION.SDK_INT >= 19)
-            connection.setFixedLengthStreamingMode(requestLength);
-        else
-            connection.setFixedLengthStreamingMode((int) requestLength);
-
+    private StructrRequest prepareRequest(StructrClient client, UploadBody body) {
+        StructrRequest request = new StructrRequest("POST", buildUploadUrl(client));
+        request.setConnectTimeout(client.getConnectTimeout());
+        request.setReadTimeout(client.getReadTimeout());
+        request.setChunkLength(CHUNK_LENGTH);
+        request.setHeader("X-User", client.getUserName());
+        request.setHeader("X-Password", client.getPassword());
+        request.setBody(body);
+        return request;
     }
 
     private String getContentType(String mimeType) {
@@ -125,14 +278,14 @@ public class StructrFileUploader {
     }
 
     //Write the requestbody and get the bytes of it
-    private byte[] prepareUploadRequestBody(String boundary, File fileToUpload, String mimeType) throws IOException{
+    private byte[] prepareUploadRequestBody(String boundary, String fileName, String mimeType) throws IOException{
         StringBuilder sb = new StringBuilder();
 
         sb.append(twoHyphens).append(boundary).append(CRLF);
         sb.append("Content-Disposition: form-data; name=\"type\"").append(CRLF);
         sb.append(CRLF).append(getContentType(mimeType)).append(CRLF);
         sb.append(twoHyphens).append(boundary).append(CRLF);
-        sb.append("Content-Disposition: form-data; name=\"file\"; filename=\"").append(fileToUpload.getName()).append("\"").append(CRLF);
+        sb.append("Content-Disposition: form-data; name=\"file\"; filename=\"").append(fileName).append("\"").append(CRLF);
 
         if (mimeType != null)
             sb.append("Content-Type: \"").append(mimeType).append("\"").append(CRLF);
@@ -154,36 +307,43 @@ public class StructrFileUploader {
     }
 
     //Write the prepared requeststrings and upload the actual data
-    private void writeFile(HttpURLConnection connection, byte[] uploadRequestBody, byte[] uploadRequestFooter, File file) throws IOException {
+    private void writeFile(OutputStream output, StructrUploadFile fileToUpload, UploadSource source, ChecksumIndex.Hasher hasher, byte[] uploadRequestBody, byte[] uploadRequestFooter) throws IOException {
         uploadService.broadcastProgress(fileToUpload.getFileId(), 0);
-        connection.connect();
 
         long uploadedBytes, fileSize;
-        int readBytes;
-        byte[] buffer;
-
-        int maxBufferSize = 1 * 1024 * 1024;
+        ReadAheadReader.Chunk chunk;
 
-        OutputStream output = connection.getOutputStream();
-        FileInputStream fileInputStream = new FileInputStream(file);
+        //The file is read on another thread while the chunks before are sent
+        ReadAheadReader reader = new ReadAheadReader(source.open(0));
 
-        //Write Requestbody
-        output.write(uploadRequestBody);
-
-        fileSize = file.length();
+        fileSize = source.getLength();
         uploadedBytes = 0;
-        buffer = new byte[maxBufferSize];
         int progress = 0;
         int checkProgress;
 
-        //Write File
-        while ((readBytes = fileInputStream.read(buffer, 0, maxBufferSize)) > 0 && (!fileToUpload.isCanceled())) {
-            checkProgress = progress;
-            output.write(buffer, 0, readBytes);
-            uploadedBytes += readBytes;
-            progress = (int) (uploadedBytes * 100 / fileSize);
-            if(checkProgress < progress)
-                uploadService.broadcastProgress(fileToUpload.getFileId(), progress);
+        try {
+            //Write Requestbody
+            output.write(uploadRequestBody);
+
+            //Write File
+            while (!fileToUpload.isCanceled() && (chunk = reader.take()) != null) {
+                checkProgress = progress;
+                long start = System.nanoTime();
+                output.write(chunk.buffer, 0, chunk.length);
+                long writeNanos = System.nanoTime() - start;
+                if(hasher != null)
+                    hasher.update(uploadedBytes, chunk.buffer, chunk.length);
+                reader.release(chunk, writeNanos);
+
+                uploadedBytes += chunk.length;
+                uploadService.getUploadEngine().addUploadedBytes(chunk.length);
+                progress = fileSize > 0 ? (int) (uploadedBytes * 100 / fileSize) : 0;
+                if(checkProgress < progress) {
+                    uploadService.broadcastProgress(fileToUpload.getFileId(), progress, uploadedBytes);
+                }
+            }
+        } finally {
+            reader.close();
         }
 
         if(!fileToUpload.isCanceled()){
@@ -191,23 +351,55 @@ public class StructrFileUploader {
             output.write(uploadRequestFooter);
             output.flush();
         }
-
-        fileInputStream.close();
-        output.close();
     }
 
-    public String getResponseBody(HttpURLConnection connection) throws IOException{
-        String response = "";
+    public String getResponseBody(StructrResponse response) throws IOException{
+        String responseBody = "";
 
         //Read the response message
-        InputStreamReader isr = new InputStreamReader(connection.getInputStream());
+        InputStreamReader isr = new InputStreamReader(response.getBody());
         BufferedReader br = new BufferedReader(isr);
         String line = "";
         while((line = br.readLine()) != null){
-            response+=line;
+            responseBody+=line;
+        }
+
+        return responseBody;
+    }
+
+    //The multipart body of the upload request, streamed from the file
+    private class UploadBody implements StructrRequest.Body {
+
+        private StructrUploadFile fileToUpload = null;
+        private UploadSource source = null;
+        private ChecksumIndex.Hasher hasher = null;
+        private byte[] uploadRequestBody = null;
+        private byte[] uploadRequestFooter = null;
+        private long requestLength = 0;
+
+        UploadBody(StructrUploadFile fileToUpload, UploadSource source, ChecksumIndex.Hasher hasher, byte[] uploadRequestBody, byte[] uploadRequestFooter, long requestLength) {
+            this.fileToUpload = fileToUpload;
+            this.source = source;
+            this.hasher = hasher;
+            this.uploadRequestBody = uploadRequestBody;
+            this.uploadRequestFooter = uploadRequestFooter;
+            this.requestLength = requestLength;
+        }
+
+        @Override
+        public String getContentType() {
+            return "multipart/form-data; boundary=" + boundary;
+        }
+
+        @Override
+        public long getContentLength() {
+            return requestLength;
         }
 
-        return response;
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            writeFile(output, fileToUpload, source, hasher, uploadRequestBody, uploadRequestFooter);
+        }
     }
 
 }
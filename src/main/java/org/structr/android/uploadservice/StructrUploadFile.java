@@ -13,7 +13,8 @@ import android.os.Parcelable;
 
 public class StructrUploadFile implements Parcelable {
 
-    private boolean     canceled;
+    //set by the service, read by the upload workers
+    private volatile boolean canceled;
     private boolean     finished;
     private Uri         uri;
     private String      mimeType;
@@ -6,6 +6,8 @@ import android.widget.BaseAdapter;
 import android.widget.ListView;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * <p>Use this adapter for when you want to use the {@link StructrUploadService} and its upload queue.
@@ -15,11 +17,15 @@ import java.util.ArrayList;
  *
  * <p>Make shure you're calling the matching methods in your {@link StructrUploadStatusReceiver} methods </p>
  *
+ * <p>Files are looked up by their id through an index, and a change of a single file only rebinds its row
+ * when the row is visible, so progress updates stay cheap with hundreds of queued uploads.</p>
+ *
  * @author Lukas Reich
  */
 public abstract class StructrUploadFileListAdapter extends BaseAdapter {
     private ListView listView = null;
     private ArrayList<StructrUploadFile> uploadFileList = null;
+    private final Map<Integer, Integer> positions = new HashMap<>();
     protected StructrUploadServiceConnection uploadServiceConnection;
 
     /**
@@ -51,8 +57,8 @@ public abstract class StructrUploadFileListAdapter extends BaseAdapter {
     public void handleResults(ArrayList<StructrUploadFile> list) {
         if(list != null) {
             this.uploadFileList = list;
+            rebuildIndex();
             notifyDataSetChanged();
-            listView.invalidateViews();
         }
     }
 
@@ -66,16 +72,23 @@ public abstract class StructrUploadFileListAdapter extends BaseAdapter {
         if(uploadFileList == null) {
             fetchCurrentUploads();
         }
-        if(uploadFileList != null) {
-            for (StructrUploadFile file : uploadFileList) {
-                if (file.getFileId() == fileId) {
-                    file.setUploadProgress(progress);
-                    break;
-                }
-            }
+        int position = getPosition(fileId);
+        if(position >= 0) {
+            uploadFileList.get(position).setUploadProgress(progress);
+            updateRow(position);
+        }
+    }
+
+    /**
+     * Updates the progress of several files at once. Call this method in the onProgress(int[], int[])
+     * method of your StructrUploadStatusReceiver.
+     * @param fileIds the ids of the files that made progress.
+     * @param progresses the progress of each file in percent.
+     */
+    public void onProgress(int[] fileIds, int[] progresses){
+        for (int i = 0; i < fileIds.length; i++) {
+            onProgress(fileIds[i], progresses[i]);
         }
-        this.notifyDataSetChanged();
-        listView.invalidateViews();
     }
 
     /**
@@ -84,15 +97,10 @@ public abstract class StructrUploadFileListAdapter extends BaseAdapter {
      * @param fileId the id of the file whose upload was canceled.
      */
     public void onCancel(int fileId){
-        if(uploadFileList != null) {
-            for (StructrUploadFile file : uploadFileList) {
-                if (file.getFileId() == fileId) {
-                    file.setCanceled(true);
-                    this.notifyDataSetChanged();
-                    listView.invalidateViews();
-                    break;
-                }
-            }
+        int position = getPosition(fileId);
+        if(position >= 0) {
+            uploadFileList.get(position).setCanceled(true);
+            updateRow(position);
         }
     }
 
@@ -106,17 +114,13 @@ public abstract class StructrUploadFileListAdapter extends BaseAdapter {
      * @param serverResponse the http response message of the upload.
      */
     public void onFinished(int fileId, int serverCode, String serverResponse){
-        if(uploadFileList != null) {
-            for (StructrUploadFile file : uploadFileList) {
-                if (file.getFileId() == fileId) {
-                    file.setFinished(true);
-                    file.setServerCode(serverCode);
-                    file.setServerResponse(serverResponse);
-                    this.notifyDataSetChanged();
-                    listView.invalidateViews();
-                    break;
-                }
-            }
+        int position = getPosition(fileId);
+        if(position >= 0) {
+            StructrUploadFile file = uploadFileList.get(position);
+            file.setFinished(true);
+            file.setServerCode(serverCode);
+            file.setServerResponse(serverResponse);
+            updateRow(position);
         }
     }
 
@@ -128,20 +132,53 @@ public abstract class StructrUploadFileListAdapter extends BaseAdapter {
      * @param t the throwable that caused the error.
      */
     public void onError(int fileId, Throwable t){
-        if(uploadFileList != null) {
-            for (StructrUploadFile file : uploadFileList) {
-                if (file.getFileId() == fileId) {
-                    file.setThrowable(t);
-                    this.notifyDataSetChanged();
-                    listView.invalidateViews();
-                    break;
-                }
-            }
+        int position = getPosition(fileId);
+        if(position >= 0) {
+            uploadFileList.get(position).setThrowable(t);
+            updateRow(position);
         }
     }
 
     protected void fetchCurrentUploads(){
             uploadFileList = uploadServiceConnection.getCurrentUploadList();
+            rebuildIndex();
+    }
+
+    /**
+     * Rebinds the row of the item at the given position, if it is visible. When {@link #getViewForItem(StructrUploadFile, View, ViewGroup)}
+     * does not reuse the view of the row, the whole list is refreshed instead.
+     * @param position the position of the item in the uploadFileList.
+     */
+    protected void updateRow(int position){
+        int index = position + listView.getHeaderViewsCount() - listView.getFirstVisiblePosition();
+        if(index < 0 || index >= listView.getChildCount())
+            return;
+
+        View row = listView.getChildAt(index);
+        if(getView(position, row, listView) != row)
+            notifyDataSetChanged();
+    }
+
+    //Find the position of a file through the index, and rebuild the index when the list was changed
+    private int getPosition(int fileId){
+        if(uploadFileList == null)
+            return -1;
+
+        Integer position = positions.get(fileId);
+        if(position == null || position >= uploadFileList.size() || uploadFileList.get(position).getFileId() != fileId) {
+            rebuildIndex();
+            position = positions.get(fileId);
+        }
+        return position != null ? position : -1;
+    }
+
+    private void rebuildIndex(){
+        positions.clear();
+        if(uploadFileList != null) {
+            for (int i = 0; i < uploadFileList.size(); i++) {
+                positions.put(uploadFileList.get(i).getFileId(), i);
+            }
+        }
     }
 
     /**
@@ -150,14 +187,8 @@ public abstract class StructrUploadFileListAdapter extends BaseAdapter {
      * @return the file you wanted (if it exists)
      */
     public StructrUploadFile getListItem(int fileId){
-        if(uploadFileList != null) {
-            for (StructrUploadFile file : uploadFileList) {
-                if (file.getFileId() == fileId) {
-                    return file;
-                }
-            }
-        }
-        return null;
+        int position = getPosition(fileId);
+        return position >= 0 ? uploadFileList.get(position) : null;
     }
 
     /**
@@ -165,16 +196,11 @@ public abstract class StructrUploadFileListAdapter extends BaseAdapter {
      * @param fileId the id of the file you want to remove.
      */
     public void removeListItem(int fileId){
-        if(uploadFileList != null) {
-            for (StructrUploadFile file : uploadFileList) {
-                if (file.getFileId() == fileId) {
-                    uploadServiceConnection.dismissUpload(fileId);
-                    uploadFileList = uploadServiceConnection.getCurrentUploadList();
-                    notifyDataSetChanged();
-                    listView.invalidateViews();
-                    break;
-                }
-            }
+        if(getPosition(fileId) >= 0) {
+            uploadServiceConnection.dismissUpload(fileId);
+            uploadFileList = uploadServiceConnection.getCurrentUploadList();
+            rebuildIndex();
+            notifyDataSetChanged();
         }
     }
 
@@ -248,5 +274,6 @@ public abstract class StructrUploadFileListAdapter extends BaseAdapter {
         if (uploadFileList != null) {
             uploadFileList.clear();
         }
+        positions.clear();
     }
 }
@@ -1,18 +1,22 @@
 package org.structr.android.uploadservice;
 
-import android.app.IntentService;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
 import android.os.IBinder;
-import android.os.SystemClock;
+import android.os.Looper;
 import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.LocalBroadcastManager;
+
+import org.structr.android.restclient.StructrCacheManager;
 
 import java.io.FileNotFoundException;
-import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 
@@ -21,16 +25,19 @@ import java.util.UUID;
  * To communicate with the service take a look at the {@link StructrUploadServiceConnection} and {@link StructrUploadStatusReceiver}.
  * <br><br>
  * To start the service, simply create an intent and put the all the STARTINTENT_EXTRAs in it. Then start the service with {@link #startService(Intent)}.
+ * <br><br>
+ * Several files are uploaded at the same time by the {@link UploadEngine} of the service. The number of concurrent uploads can be
+ * set with the {@link #STARTINTENT_EXTRA_CONCURRENT_UPLOADS} intentextra or with {@link #setConcurrentUploads(int)}.
  *
  * @author Lukas Reich
  */
-public class StructrUploadService extends IntentService{
+public class StructrUploadService extends Service{
 
 
     /**
      * One of the intent extras, that must be set in the intent that ist used to start this the service.
-     * The intentextra value should be a valid URI. Please note that the service' build in path resolving is limited. When possible, resolve the
-     * absolute path to your file fr yourself and use the {@link #STARTINTENT_EXTRA_ABSOLUTE_FILEPATH} instead.
+     * The intentextra value should be a valid URI. The file is streamed through the ContentResolver, so any content provider
+     * that can open the URI is supported.
      */
     public static final String STARTINTENT_EXTRA_URI = "org.structr.upload.fileuri";
 
@@ -79,6 +86,12 @@ public class StructrUploadService extends IntentService{
      */
     public static final String STRUCTRUPLOAD_NOTOFICATION_TEXT_USEPROGRESS = "org.structr.upload.notification.text.useprogress";
 
+    /**
+     * An optional intentextra. The value of the intentextra sets the number of files that are uploaded at the same time,
+     * the default is {@link UploadEngine#DEFAULT_CONCURRENT_UPLOADS}.
+     */
+    public static final String STARTINTENT_EXTRA_CONCURRENT_UPLOADS = "org.structr.upload.concurrentuploads";
+
     public static final String BROADCAST_ACTION_STRUCTRUPLOAD_PROGRESS          = "org.structr.android.broadcast.uploadprogress";
     public static final String BROADCAST_ACTION_STRUCTRUPLOAD_FINISHED          = "org.structr.android.broadcast.uploadfinished";
     public static final String BROADCAST_ACTION_STRUCTRUPLOAD_CANCELED          = "org.structr.android.broadcast.uploadcanceled";
@@ -88,12 +101,26 @@ public class StructrUploadService extends IntentService{
     public static final String BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID            = "org.structr.android.broadcast.fileid";
     public static final String BROADCAST_EXTRAS_STRUCTRUPLOAD_LIST              = "org.structr.android.broadcast.uploadlist";
     public static final String BROADCAST_EXTRAS_STRUCTRUPLOAD_PROGRESS          = "org.structr.android.broadcastextra.uploadprogress";
+    public static final String BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEIDS           = "org.structr.android.broadcast.fileids";
+    public static final String BROADCAST_EXTRAS_STRUCTRUPLOAD_PROGRESSES        = "org.structr.android.broadcastextra.uploadprogresses";
     public static final String BROADCAST_EXTRAS_STRUCTRUPLOAD_SERVERCODE        = "org.structr.android.broadcastextra.uploadservercode";
     public static final String BROADCAST_EXTRAS_STRUCTRUPLOAD_SERVERRESPONSE    = "org.structr.android.broadcastextra.uploadserverresponse";
     public static final String BROADCAST_EXTRAS_STRUCTRUPLOAD_ERRORTHROWABLE    = "org.structr.android.broadcastextra.uploaderrorthrowable";
 
+    private static final int NOTIFICATION_ID = 0x5747;
+
     private static StructrFileUploader structrFileUploader = null;
+    private static ResumableUploadProtocol resumableUploadProtocol = null;
+    private static ImageTransform imageTransform = null;
+    private static boolean deduplicationEnabled = false;
+    private static long progressInterval = ProgressReporter.DEFAULT_INTERVAL;
     private final IBinder binder = new StructrUploadServiceBinder(this);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private UploadEngine uploadEngine = null;
+    private UploadJournal uploadJournal = null;
+    private ProgressReporter progressReporter = null;
+    private int lastStartId = 0;
 
     private ArrayList<StructrUploadFile> uploadFileList = null;
     private static boolean isActive = false;
@@ -101,22 +128,31 @@ public class StructrUploadService extends IntentService{
     private NotificationCompat.Builder builder = null;
     private boolean useProgressAsNotificationText = false;
 
-    public StructrUploadService(){
-        super(StructrUploadService.class.getName());
-    }
-
     @Override
     public void onCreate() {
         structrFileUploader = new StructrFileUploader(this);
+        uploadEngine = new UploadEngine(this, structrFileUploader, UploadEngine.DEFAULT_CONCURRENT_UPLOADS);
+        uploadJournal = new UploadJournal(this);
+        progressReporter = new ProgressReporter(this);
         uploadFileList = new ArrayList<>();
+        StructrCacheManager.getInstance().install(this);
         super.onCreate();
+        restoreUploads();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
 
+        //a sticky restart has no intent, the pending uploads were restored from the journal in onCreate
+        if(intent == null || (!intent.hasExtra(STARTINTENT_EXTRA_URI) && !intent.hasExtra(STARTINTENT_EXTRA_ABSOLUTE_FILEPATH))){
+            if(uploadEngine.isIdle())
+                stopSelf(startId);
+            return START_STICKY;
+        }
 
-        String[] pathAndName = new String[2];
+        if(intent.hasExtra(STARTINTENT_EXTRA_CONCURRENT_UPLOADS))
+            setConcurrentUploads(intent.getIntExtra(STARTINTENT_EXTRA_CONCURRENT_UPLOADS, UploadEngine.DEFAULT_CONCURRENT_UPLOADS));
 
         //create unique id for the StructrUploadFile
         int fileId = UUID.randomUUID().hashCode();
@@ -126,44 +162,76 @@ public class StructrUploadService extends IntentService{
         StructrUploadFile uploadFile = null;
         Uri fileToUploadUri = intent.getParcelableExtra(STARTINTENT_EXTRA_URI);
 
+        String fileName;
+
         if(absolutePath == null){
-            //Get the real Path and the name of the file
+            //The file is streamed from its Uri, so only its name is needed here
             uploadFile = new StructrUploadFile(fileToUploadUri, fileId);
-            pathAndName = FilePathResolver.getPathAndName(this, fileToUploadUri);
+            fileName = fileToUploadUri != null ? UploadSource.getDisplayName(this, fileToUploadUri) : null;
         }
         else{
-            pathAndName[0] = absolutePath;
-            pathAndName[1] = FilePathResolver.getName(absolutePath);
+            fileName = FilePathResolver.getName(absolutePath);
             fileToUploadUri = FilePathResolver.getUri(absolutePath);
             uploadFile = new StructrUploadFile(absolutePath, fileId);
             uploadFile.setUri(fileToUploadUri);
         }
 
-        //Check if the absolute path could be found
-        if(pathAndName[0] != null && pathAndName[1] != null){
-            uploadFile.setRealPath(pathAndName[0]);
-            uploadFile.setFileName(pathAndName[1]);
+        //Check if the file could be found
+        if(fileName != null){
+            uploadFile.setRealPath(absolutePath);
+            uploadFile.setFileName(fileName);
             uploadFile.setMimeType(getContentResolver().getType(fileToUploadUri));
             uploadFileList.add(uploadFile);
+            uploadJournal.add(uploadFile, intent);
             broadcastList();
+            startUpload(intent, uploadFile);
         }
         //If the file could not be found was not found broadcast an error
         else{
             broadcastError(-1, new FileNotFoundException("File could not be opened with the given Uri / Path"));
+            if(uploadEngine.isIdle())
+                stopSelf(startId);
         }
-        super.onStartCommand(intent, flags, startId);
         return START_STICKY;
     }
 
     @Override
-    protected void onHandleIntent(Intent intent) {
+    public void onDestroy() {
+        uploadEngine.shutdown();
+        progressReporter.shutdown();
+        uploadJournal.close();
+        isActive = false;
+        super.onDestroy();
+    }
+
+    //Put the uploads that were pending when the process died back into the queue
+    private void restoreUploads() {
+        List<UploadJournal.Entry> entries = uploadJournal.getPendingUploads();
+        if(entries.isEmpty())
+            return;
+
+        for (UploadJournal.Entry entry : entries) {
+            uploadFileList.add(entry.file);
+        }
+        broadcastList();
+
+        for (UploadJournal.Entry entry : entries) {
+            startUpload(entry.intent, entry.file);
+        }
+
+        //keep the service running when it was only bound
+        startService(new Intent(this, StructrUploadService.class));
+    }
+
+    //Prepare the notification of the service and add the file to the queue of the upload engine
+    private void startUpload(Intent intent, StructrUploadFile file) {
 
         //Get all information from the intent with what the service was started
         int notificationDrawable    = intent.getIntExtra(STARTINTENT_EXTRA_NOTIFICATION_DRAWABLE, 0);
         String notificationTitle    = intent.getStringExtra(STARTINTENT_EXTRA_NOTIFICATION_TITLE);
         String notificationText     = intent.getStringExtra(STARTINTENT_EXTRA_NOTIFICATION_TEXT);
         String callingActivityName  = intent.getStringExtra(STARTINTENT_EXTRA_CALLING_ACTIVITY_NAME);
-        int fileId                  = intent.getIntExtra("fileId", 0);
+        int fileId                  = file.getFileId();
 
         //Try to get an object of the activity that should be opened when the user clicks on the service' notification
         Class callbackActivity;
@@ -178,64 +246,49 @@ public class StructrUploadService extends IntentService{
             Intent intentForNotification = new Intent(this, callbackActivity);
             PendingIntent pendingIntentFotNotification = PendingIntent.getActivity(this, 0, intentForNotification, PendingIntent.FLAG_UPDATE_CURRENT);
 
-            if (uploadFileList != null) {
-                //look for the StructrUploadFile that was added to the uploadFilelist in the onStartCommand method
-                for (StructrUploadFile file : uploadFileList) {
-                    if (file.getFileId() == fileId && !file.isCanceled()) {
-
-                        if(notificationText.equals(STRUCTRUPLOAD_NOTIFICATION_TEXT_USEFILENAME)) {
-                            notificationText = file.getFileName();
-                            useProgressAsNotificationText = false;
-                        }
-                        else if(notificationText.equals(STRUCTRUPLOAD_NOTOFICATION_TEXT_USEPROGRESS)){
-                            notificationText = file.getUploadProgress() + "%";
-                            useProgressAsNotificationText = true;
-                        }
-
-                        //build the notification for the service so it can run in the foreground
-                        builder = new NotificationCompat.Builder(this)
-                                .setSmallIcon(notificationDrawable)
-                                .setContentTitle(notificationTitle)
-                                .setContentText(notificationText)
-                                .setProgress(100, 0, false)
-                                .setContentIntent(pendingIntentFotNotification);
-
-                        startForeground(fileId, builder.build());
-
-                        int tries = 0;
-                        int delay = 1000;
-                        isActive = true;
-
-                        while(tries < 3 && !file.isCanceled()){
-                            tries++;
-                            try{
-                                structrFileUploader.doUpload(file);
-                                break;
-                            }catch(Throwable t){
-                                if((tries >= 3 || !(t instanceof SocketTimeoutException)) && !file.isCanceled()){
-                                    broadcastError(file.getFileId(), t);
-                                    isActive = false;
-                                    break;
-                                }
-                                else if(file.isCanceled()){
-                                    isActive = false;
-                                    broadcastCanceled(file.getFileId());
-                                }
-                                else{
-                                    SystemClock.sleep(delay);
-                                    delay += tries * 2000;
-                                }
-                            }
-                        }
-
-                        stopForeground(true);
-                        break;
-                    }
+            synchronized (this) {
+                if(notificationText.equals(STRUCTRUPLOAD_NOTIFICATION_TEXT_USEFILENAME)) {
+                    notificationText = file.getFileName();
+                    useProgressAsNotificationText = false;
                 }
+                else if(notificationText.equals(STRUCTRUPLOAD_NOTOFICATION_TEXT_USEPROGRESS)){
+                    notificationText = getTotalProgress() + "%";
+                    useProgressAsNotificationText = true;
+                }
+
+                //build the notification for the service so it can run in the foreground, the latest upload sets its texts
+                builder = new NotificationCompat.Builder(this)
+                        .setSmallIcon(notificationDrawable)
+                        .setContentTitle(notificationTitle)
+                        .setContentText(notificationText)
+                        .setProgress(100, getTotalProgress(), false)
+                        .setContentIntent(pendingIntentFotNotification);
+
+                startForeground(NOTIFICATION_ID, builder.build());
             }
+
+            isActive = true;
+            uploadEngine.submit(file);
+        }
+        else if(uploadEngine.isIdle()){
+            stopSelf(lastStartId);
         }
     }
 
+    //Called by the upload engine when the last upload in its queue is done
+    void onUploadsIdle() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(uploadEngine.isIdle()){
+                    isActive = false;
+                    stopForeground(true);
+                    stopSelf(lastStartId);
+                }
+            }
+        });
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return binder;
@@ -250,8 +303,11 @@ public class StructrUploadService extends IntentService{
         if(uploadFileList != null) {
             for (StructrUploadFile file : uploadFileList) {
                 if (file.getFileId() == fileId) {
-                    file.setCanceled(true);
-                    broadcastCanceled(fileId);
+                    //broadcast the cancellation once, the engine does not broadcast it again
+                    if (!file.isCanceled()) {
+                        uploadEngine.cancel(file);
+                        broadcastCanceled(fileId);
+                    }
                     break;
                 }
             }
@@ -278,8 +334,9 @@ public class StructrUploadService extends IntentService{
         if(uploadFileList != null){
             for (StructrUploadFile file : uploadFileList) {
                 if (file.getFileId() == fileId) {
-                    file.setCanceled(true);
+                    uploadEngine.cancel(file);
                     uploadFileList.remove(file);
+                    uploadJournal.remove(fileId);
                     break;
                 }
             }
@@ -290,49 +347,193 @@ public class StructrUploadService extends IntentService{
         return isActive;
     }
 
+    /**
+     * Makes the service upload all files in chunks with the given protocol, so that an interrupted upload
+     * continues from the last offset acknowledged by the server instead of starting again. Unfinished
+     * uploads are resumed after a restart of the process when the same file is uploaded again.
+     *
+     * @param protocol the protocol, or null to upload each file in a single request (the default)
+     */
+    public static void setResumableUploadProtocol(ResumableUploadProtocol protocol){
+        resumableUploadProtocol = protocol;
+    }
+
+    public static ResumableUploadProtocol getResumableUploadProtocol(){
+        return resumableUploadProtocol;
+    }
+
+    /**
+     * Makes the service scale images down and compress them again before they are uploaded.
+     *
+     * @param transform the transform, or null to upload images unchanged (the default)
+     */
+    public static void setImageTransform(ImageTransform transform){
+        imageTransform = transform;
+    }
+
+    public static ImageTransform getImageTransform(){
+        return imageTransform;
+    }
+
+    /**
+     * Makes the service skip files that were uploaded before. The SHA-1 and CRC32 of each file are computed
+     * while it is sent and remembered locally, together with its name. When the same unchanged file is uploaded
+     * again from its path or Uri, and the server still has a File with that checksum, size and name, the upload
+     * finishes at once, and the id of the existing File is broadcast as the server response.
+     *
+     * @param enabled whether duplicates are skipped, false by default
+     */
+    public static void setDeduplicationEnabled(boolean enabled){
+        deduplicationEnabled = enabled;
+    }
+
+    public static boolean isDeduplicationEnabled(){
+        return deduplicationEnabled;
+    }
+
+    /**
+     * Sets how often progress is reported. The progress of all uploads within an interval is coalesced into one
+     * notification update and one broadcast, which carries the ids and progress of all files that made progress.
+     *
+     * @param millis the minimum time between two progress updates in milliseconds, 250 by default
+     */
+    public static void setProgressInterval(long millis){
+        progressInterval = Math.max(millis, 0);
+    }
+
+    public static long getProgressInterval(){
+        return progressInterval;
+    }
+
+    /**
+     * Sets the number of files that are uploaded at the same time.
+     *
+     * @param concurrentUploads the number of concurrent uploads, at least 1
+     */
+    public void setConcurrentUploads(int concurrentUploads){
+        uploadEngine.setConcurrentUploads(concurrentUploads);
+    }
+
+    public int getConcurrentUploads(){
+        return uploadEngine.getConcurrentUploads();
+    }
+
+    /**
+     * Gives you the upload engine of the service, e.g. to read its throughput with {@link UploadEngine#getThroughput()}.
+     *
+     * @return the upload engine of the service
+     */
+    public UploadEngine getUploadEngine(){
+        return uploadEngine;
+    }
+
+    UploadJournal getUploadJournal(){
+        return uploadJournal;
+    }
+
+    //The average progress of all running uploads
+    private int getTotalProgress(){
+        List<StructrUploadFile> running = uploadEngine.getRunningUploads();
+        if(running.isEmpty())
+            return 0;
+
+        int progress = 0;
+        for (StructrUploadFile file : running)
+            progress += file.getUploadProgress();
+        return progress / running.size();
+    }
+
+    /**
+     * Reports the progress of an upload. Progress is coalesced and delivered to the notification and the
+     * receivers at most once per interval, see {@link #setProgressInterval(long)}.
+     *
+     * @param fileId the id of the file
+     * @param progress the progress in percent
+     */
     public void broadcastProgress(int fileId, int progress) {
-        builder.setProgress(100, progress, false);
-        if(useProgressAsNotificationText)
-            builder.setContentText(progress + "%");
+        broadcastProgress(fileId, progress, -1);
+    }
 
-        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        manager.notify(fileId, builder.build());
+    /**
+     * Reports the progress of an upload, including the number of bytes sent.
+     *
+     * @param fileId the id of the file
+     * @param progress the progress in percent
+     * @param bytesSent the number of bytes sent, or -1 when unknown
+     */
+    public void broadcastProgress(int fileId, int progress, long bytesSent) {
+        progressReporter.report(fileId, progress, bytesSent);
+    }
+
+    //Deliver a batch of coalesced progress updates with a single notification update and a single broadcast
+    void deliverProgress(int[] fileIds, int[] progresses, long[] bytesSent) {
+        for (StructrUploadFile file : uploadEngine.getRunningUploads()) {
+            for (int i = 0; i < fileIds.length; i++) {
+                if (file.getFileId() == fileIds[i])
+                    file.setUploadProgress(progresses[i]);
+            }
+        }
+
+        uploadJournal.setProgress(fileIds, progresses, bytesSent);
+
+        synchronized (this) {
+            if(builder != null) {
+                int totalProgress = getTotalProgress();
+                builder.setProgress(100, totalProgress, false);
+                if(useProgressAsNotificationText)
+                    builder.setContentText(totalProgress + "%");
+
+                NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+                manager.notify(NOTIFICATION_ID, builder.build());
+            }
+        }
 
         Intent broadcastIntent = new Intent();
         broadcastIntent.setAction(BROADCAST_ACTION_STRUCTRUPLOAD_PROGRESS);
-        broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID, fileId);
-        broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_PROGRESS, progress);
-        sendBroadcast(broadcastIntent);
+        broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEIDS, fileIds);
+        broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_PROGRESSES, progresses);
+        sendLocalBroadcast(broadcastIntent);
     }
 
     public void broadcastCanceled(int fileId){
+        progressReporter.flush();
+        uploadJournal.remove(fileId);
         Intent broadcastIntent = new Intent();
         broadcastIntent.setAction(BROADCAST_ACTION_STRUCTRUPLOAD_CANCELED);
         broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID, fileId);
-        sendBroadcast(broadcastIntent);
+        sendLocalBroadcast(broadcastIntent);
     }
 
     public void broadcastFinished(int fileId, int serverCode, String serverResponse){
+        progressReporter.flush();
+        uploadJournal.remove(fileId);
         Intent broadcastIntent = new Intent();
         broadcastIntent.setAction(BROADCAST_ACTION_STRUCTRUPLOAD_FINISHED);
         broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID, fileId);
         broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_SERVERCODE, serverCode);
         broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_SERVERRESPONSE, serverResponse);
-        sendBroadcast(broadcastIntent);
+        sendLocalBroadcast(broadcastIntent);
     }
 
     public void broadcastError(int fileId, Throwable e){
+        progressReporter.flush();
+        uploadJournal.remove(fileId);
         Intent broadcastIntent = new Intent();
         broadcastIntent.setAction(BROADCAST_ACTION_STRUCTRUPLOAD_ERROR);
         broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID, fileId);
         broadcastIntent.putExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_ERRORTHROWABLE, e);
-        sendBroadcast(broadcastIntent);
+        sendLocalBroadcast(broadcastIntent);
     }
 
     public void broadcastList(){
         Intent broadcastIntent = new Intent();
         broadcastIntent.setAction(BROADCAST_ACTION_STRUCTRUPLOAD_LISTUPDATE);
-        broadcastIntent.putParcelableArrayListExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_LIST, uploadFileList);
-        sendBroadcast(broadcastIntent);
+        broadcastIntent.putParcelableArrayListExtra(BROADCAST_EXTRAS_STRUCTRUPLOAD_LIST, new ArrayList<>(uploadFileList));
+        sendLocalBroadcast(broadcastIntent);
+    }
+
+    //All events are delivered within the app only, which is cheaper than a system-wide broadcast
+    private void sendLocalBroadcast(Intent intent){
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 }
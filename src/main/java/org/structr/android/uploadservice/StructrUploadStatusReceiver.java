@@ -4,6 +4,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.support.v4.content.LocalBroadcastManager;
 
 import java.util.ArrayList;
 
@@ -18,13 +19,20 @@ public abstract class StructrUploadStatusReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         switch (intent.getAction()){
             case StructrUploadService.BROADCAST_ACTION_STRUCTRUPLOAD_PROGRESS:
-                int progress = intent.getIntExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_PROGRESS, 0);
-                int fileId = intent.getIntExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID, 0);
-                onProgress(fileId, progress);
+                int[] fileIds = intent.getIntArrayExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEIDS);
+                int[] progresses = intent.getIntArrayExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_PROGRESSES);
+                if(fileIds != null && progresses != null) {
+                    onProgress(fileIds, progresses);
+                }
+                else {
+                    int progress = intent.getIntExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_PROGRESS, 0);
+                    int fileId = intent.getIntExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID, 0);
+                    onProgress(fileId, progress);
+                }
                 break;
 
             case StructrUploadService.BROADCAST_ACTION_STRUCTRUPLOAD_FINISHED:
-                fileId = intent.getIntExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID, 0);
+                int fileId = intent.getIntExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_FILEID, 0);
                 int serverCode = intent.getIntExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_SERVERCODE, 400);
                 String serverResponse = intent.getStringExtra(StructrUploadService.BROADCAST_EXTRAS_STRUCTRUPLOAD_SERVERRESPONSE);
                 onFinished(fileId, serverCode, serverResponse);
@@ -49,7 +57,8 @@ public abstract class StructrUploadStatusReceiver extends BroadcastReceiver {
     }
 
     /**
-     * Register the activity as a StructrUploadStatusReceiver
+     * Register the activity as a StructrUploadStatusReceiver. The service delivers its events within the app only,
+     * through the {@link LocalBroadcastManager}.
      *
      * @param context Should be the Activity, that does implement the StructrUploadStatusReceiver
      */
@@ -60,7 +69,7 @@ public abstract class StructrUploadStatusReceiver extends BroadcastReceiver {
         filter.addAction(StructrUploadService.BROADCAST_ACTION_STRUCTRUPLOAD_CANCELED);
         filter.addAction(StructrUploadService.BROADCAST_ACTION_STRUCTRUPLOAD_ERROR);
         filter.addAction(StructrUploadService.BROADCAST_ACTION_STRUCTRUPLOAD_LISTUPDATE);
-        context.registerReceiver(this, filter);
+        LocalBroadcastManager.getInstance(context).registerReceiver(this, filter);
     }
 
     /**
@@ -69,7 +78,7 @@ public abstract class StructrUploadStatusReceiver extends BroadcastReceiver {
      * @param context Should be the Activity, that does implement the StructrUploadStatusReceiver
      */
     public void unregister(final Context context){
-        context.unregisterReceiver(this);
+        LocalBroadcastManager.getInstance(context).unregisterReceiver(this);
     };
 
     /**
@@ -80,6 +89,20 @@ public abstract class StructrUploadStatusReceiver extends BroadcastReceiver {
      */
     public abstract void onProgress(int fileId, int progress);
 
+    /**
+     * This method will be called with the coalesced progress of all files that made progress since the last call,
+     * see {@link StructrUploadService#setProgressInterval(long)}. The default implementation calls
+     * {@link #onProgress(int, int)} for each file; override it to update your UI once per batch.
+     *
+     * @param fileIds the ids of the files
+     * @param progresses the progress of each file in percent
+     */
+    public void onProgress(int[] fileIds, int[] progresses) {
+        for (int i = 0; i < fileIds.length; i++) {
+            onProgress(fileIds[i], progresses[i]);
+        }
+    }
+
     /**
      * This method will be called, when the upload of the file is finished.
      * Check the Response Code and Message to determine wether the upload was successful or not
@@ -0,0 +1,143 @@
+package org.structr.android.uploadservice;
+
+import android.util.Base64;
+
+import org.structr.android.restclient.StructrClient;
+import org.structr.android.restclient.StructrRequest;
+import org.structr.android.restclient.StructrResponse;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * A {@link ResumableUploadProtocol} for an endpoint that implements the core protocol and the creation
+ * extension of tus 1.0 (see tus.io). The structr upload servlet itself cannot resume uploads, so the
+ * endpoint has to be provided by the server setup, e.g. a tus server in front of structr.
+ * <br><br>
+ * All requests go through the transport of the given client and carry its credentials. Since
+ * HttpURLConnection cannot send PATCH requests, chunks are sent as POST with the
+ * X-HTTP-Method-Override header defined by tus.
+ */
+public class TusUploadProtocol implements ResumableUploadProtocol {
+
+    private static final String TUS_VERSION = "1.0.0";
+
+    private StructrClient client = null;
+    private String endpoint = null;
+
+    /**
+     * @param client the client whose transport and credentials are used
+     * @param endpoint the URL of the tus endpoint, or a path relative to the server of the client
+     */
+    public TusUploadProtocol(StructrClient client, String endpoint) {
+        this.client = client;
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public String create(StructrUploadFile file, long length) throws IOException {
+        String url = getEndpointUrl();
+
+        StringBuilder metadata = new StringBuilder();
+        metadata.append("filename ").append(encode(file.getFileName()));
+        if (file.getMimeType() != null)
+            metadata.append(",filetype ").append(encode(file.getMimeType()));
+
+        StructrRequest request = prepareRequest("POST", url);
+        request.setHeader("Upload-Length", Long.toString(length));
+        request.setHeader("Upload-Metadata", metadata.toString());
+        request.setBody(new StructrRequest.ByteArrayBody("application/offset+octet-stream", new byte[0]));
+
+        StructrResponse response = client.getTransport().execute(request);
+        try {
+            String location = response.getHeader("Location");
+            if (response.getCode() != 201 || location == null)
+                throw new IOException("Upload could not be created: " + response.getCode() + " " + response.getMessage());
+
+            //the location may be relative to the endpoint
+            return new URL(new URL(url), location).toString();
+
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public long getOffset(String location) throws IOException {
+        StructrResponse response = client.getTransport().execute(prepareRequest("HEAD", location));
+        try {
+            int code = response.getCode();
+            if (code == 404 || code == 410)
+                return -1;
+
+            return parseOffset(response);
+
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public Result writeChunk(String location, long offset, byte[] buffer, int length) throws IOException {
+        byte[] chunk = buffer;
+        if (length < buffer.length) {
+            chunk = new byte[length];
+            System.arraycopy(buffer, 0, chunk, 0, length);
+        }
+
+        StructrRequest request = prepareRequest("POST", location);
+        request.setHeader("X-HTTP-Method-Override", "PATCH");
+        request.setHeader("Upload-Offset", Long.toString(offset));
+        request.setBody(new StructrRequest.ByteArrayBody("application/offset+octet-stream", chunk));
+
+        StructrResponse response = client.getTransport().execute(request);
+        try {
+            int code = response.getCode();
+            if (code >= 400)
+                throw new IOException("Chunk at offset " + offset + " was rejected: " + code + " " + response.getMessage());
+
+            return new Result(parseOffset(response), code, location);
+
+        } finally {
+            response.close();
+        }
+    }
+
+    private StructrRequest prepareRequest(String method, String url) {
+        StructrRequest request = new StructrRequest(method, url);
+        request.setConnectTimeout(client.getConnectTimeout());
+        request.setReadTimeout(client.getReadTimeout());
+        request.setHeader("Tus-Resumable", TUS_VERSION);
+        request.setHeader("X-User", client.getUserName());
+        request.setHeader("X-Password", client.getPassword());
+        return request;
+    }
+
+    private String getEndpointUrl() {
+        if (endpoint.startsWith("http://") || endpoint.startsWith("https://"))
+            return endpoint;
+
+        String base = client.getServer();
+        if (base.endsWith("/") && endpoint.startsWith("/"))
+            return base + endpoint.substring(1);
+        if (!base.endsWith("/") && !endpoint.startsWith("/"))
+            return base + "/" + endpoint;
+        return base + endpoint;
+    }
+
+    private static long parseOffset(StructrResponse response) throws IOException {
+        String offset = response.getHeader("Upload-Offset");
+        if (offset == null)
+            throw new IOException("Server did not send an Upload-Offset");
+
+        try {
+            return Long.parseLong(offset.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Upload-Offset: " + offset);
+        }
+    }
+
+    private static String encode(String value) throws IOException {
+        return Base64.encodeToString(value.getBytes("UTF-8"), Base64.NO_WRAP);
+    }
+}
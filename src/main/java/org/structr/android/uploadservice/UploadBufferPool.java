@@ -0,0 +1,122 @@
+package org.structr.android.uploadservice;
+
+import org.structr.android.restclient.StructrCacheManager;
+import org.structr.android.restclient.TrimmableCache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of the buffers used to read files for uploading, so that consecutive uploads do not
+ * allocate new buffers each. Buffers come in power of two sizes from {@link #MIN_BUFFER_SIZE} to
+ * {@link #BUFFER_SIZE}, so that slow uploads can read in smaller chunks. The pool releases its
+ * buffers when the system runs low on memory, see {@link StructrCacheManager}.
+ */
+public class UploadBufferPool implements TrimmableCache {
+
+    public static final int BUFFER_SIZE = 1 * 1024 * 1024;
+    public static final int MIN_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BYTES = 4 * BUFFER_SIZE;
+
+    private static final UploadBufferPool instance = new UploadBufferPool();
+
+    //one list of buffers per size, from the smallest to the largest
+    private final List<ArrayDeque<byte[]>> buffers = new ArrayList<>();
+    private int pooledBytes = 0;
+    private int evictionCount = 0;
+
+    private UploadBufferPool(){
+        for(int size = MIN_BUFFER_SIZE; size <= BUFFER_SIZE; size *= 2)
+            buffers.add(new ArrayDeque<byte[]>());
+
+        StructrCacheManager.getInstance().register(this);
+    }
+
+    public static UploadBufferPool getInstance(){
+        return instance;
+    }
+
+    /**
+     * Returns a pooled buffer of {@link #BUFFER_SIZE} bytes, or a new one if the pool is empty.
+     * Return the buffer with {@link #release(byte[])} when you are done with it.
+     */
+    public byte[] acquire(){
+        return acquire(BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a pooled buffer of at least the given size, rounded up to a power of two between
+     * {@link #MIN_BUFFER_SIZE} and {@link #BUFFER_SIZE}, or a new one if the pool has none of that size.
+     * Return the buffer with {@link #release(byte[])} when you are done with it.
+     */
+    public synchronized byte[] acquire(int size){
+        int bufferSize = getBufferSize(size);
+        byte[] buffer = buffers.get(getSizeClass(bufferSize)).pollFirst();
+        if(buffer == null)
+            return new byte[bufferSize];
+
+        pooledBytes -= buffer.length;
+        return buffer;
+    }
+
+    public synchronized void release(byte[] buffer){
+        if(buffer == null || buffer.length != getBufferSize(buffer.length) || pooledBytes + buffer.length > MAX_POOLED_BYTES)
+            return;
+
+        buffers.get(getSizeClass(buffer.length)).addFirst(buffer);
+        pooledBytes += buffer.length;
+    }
+
+    /**
+     * @return the size of the buffer that {@link #acquire(int)} returns for the given size
+     */
+    public static int getBufferSize(int size){
+        if(size <= MIN_BUFFER_SIZE)
+            return MIN_BUFFER_SIZE;
+        if(size >= BUFFER_SIZE)
+            return BUFFER_SIZE;
+        return Integer.highestOneBit(size - 1) * 2;
+    }
+
+    private static int getSizeClass(int bufferSize){
+        return Integer.numberOfTrailingZeros(bufferSize) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    @Override
+    public String getName(){
+        return "Upload buffers";
+    }
+
+    @Override
+    public synchronized void trimMemory(int level){
+        int keep = (int) (pooledBytes * StructrCacheManager.getRetainedFraction(level));
+
+        //release the largest buffers first
+        for(int i = buffers.size() - 1; i >= 0 && pooledBytes > keep; i--){
+            ArrayDeque<byte[]> sizeClass = buffers.get(i);
+            while(pooledBytes > keep && !sizeClass.isEmpty()){
+                pooledBytes -= sizeClass.pollLast().length;
+                evictionCount++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes held by this pool
+     */
+    @Override
+    public synchronized int size(){
+        return pooledBytes;
+    }
+
+    @Override
+    public int maxSize(){
+        return MAX_POOLED_BYTES;
+    }
+
+    @Override
+    public synchronized int evictionCount(){
+        return evictionCount;
+    }
+}
@@ -0,0 +1,272 @@
+package org.structr.android.uploadservice;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import org.structr.android.restclient.StructrTimeoutException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the uploads of the {@link StructrUploadService} on a pool of worker threads, so that a
+ * configurable number of files is uploaded at the same time.
+ * <br><br>
+ * Uploads start in the order in which they were submitted. An upload that fails with a timeout is
+ * put back at the end of the queue and does not occupy a worker while it waits for its retry, so a
+ * single slow file cannot hold up the rest of the queue. In resumable mode, see
+ * {@link StructrUploadService#setResumableUploadProtocol(ResumableUploadProtocol)}, uploads are also retried
+ * after other network errors and continue from the last acknowledged offset.
+ */
+public class UploadEngine {
+
+    public static final int DEFAULT_CONCURRENT_UPLOADS = 3;
+
+    private static final int MAX_TRIES = 3;
+
+    private final Map<Integer, Future<?>> tasks = new HashMap<>();
+    private final List<StructrUploadFile> runningFiles = new ArrayList<>();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+
+    private StructrUploadService uploadService = null;
+    private StructrFileUploader uploader = null;
+    private ScheduledThreadPoolExecutor executor = null;
+
+    private long activeSince = 0;
+    private long activeMillis = 0;
+
+    public UploadEngine(StructrUploadService uploadService, StructrFileUploader uploader, int concurrentUploads) {
+        this.uploadService = uploadService;
+        this.uploader = uploader;
+        this.executor = new ScheduledThreadPoolExecutor(Math.max(concurrentUploads, 1), new UploadThreadFactory());
+    }
+
+    /**
+     * Adds a file to the end of the upload queue.
+     *
+     * @param file the file to upload
+     */
+    public synchronized void submit(StructrUploadFile file) {
+        UploadTask task = new UploadTask(file);
+        tasks.put(file.getFileId(), executor.submit(task));
+    }
+
+    /**
+     * Cancels the upload of the given file. A queued upload is removed from the queue, a running
+     * upload stops after the next buffer was written and leaves the queue when its worker is done.
+     * The engine does not broadcast the cancellation.
+     *
+     * @param file the file whose upload should be canceled
+     */
+    public void cancel(StructrUploadFile file) {
+        file.setCanceled(true);
+
+        boolean idle = false;
+        synchronized (this) {
+            //a running task also counts as cancelable, but its worker is still writing
+            Future<?> future = tasks.get(file.getFileId());
+            if (future != null && !runningFiles.contains(file) && future.cancel(false)) {
+                tasks.remove(file.getFileId());
+                executor.purge();
+                idle = isIdle();
+            }
+        }
+
+        if (idle)
+            uploadService.onUploadsIdle();
+    }
+
+    /**
+     * Sets the number of files that are uploaded at the same time.
+     *
+     * @param concurrentUploads the number of concurrent uploads, at least 1
+     */
+    public void setConcurrentUploads(int concurrentUploads) {
+        executor.setCorePoolSize(Math.max(concurrentUploads, 1));
+    }
+
+    public int getConcurrentUploads() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * @return true when no upload is running or waiting in the queue
+     */
+    public synchronized boolean isIdle() {
+        return tasks.isEmpty();
+    }
+
+    /**
+     * @return the files that are currently being uploaded
+     */
+    public synchronized List<StructrUploadFile> getRunningUploads() {
+        return new ArrayList<>(runningFiles);
+    }
+
+    /**
+     * @return the number of files that are waiting in the queue, including those waiting for a retry
+     */
+    public synchronized int getQueuedUploads() {
+        return tasks.size() - runningFiles.size();
+    }
+
+    /**
+     * @return the number of bytes written by all uploads since the engine was created
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    /**
+     * Gives you the aggregate throughput of all uploads, i.e. the bytes written by all uploads
+     * divided by the time in which at least one upload was running.
+     *
+     * @return the throughput in bytes per second, or 0 before the first upload
+     */
+    public synchronized long getThroughput() {
+        long millis = activeMillis;
+        if (!runningFiles.isEmpty())
+            millis += SystemClock.elapsedRealtime() - activeSince;
+
+        return millis > 0 ? uploadedBytes.get() * 1000 / millis : 0;
+    }
+
+    /**
+     * Stops all uploads. The engine cannot be used afterwards.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            for (StructrUploadFile file : runningFiles)
+                file.setCanceled(true);
+        }
+
+        executor.shutdownNow();
+    }
+
+    void addUploadedBytes(long bytes) {
+        uploadedBytes.addAndGet(bytes);
+    }
+
+    private synchronized void started(StructrUploadFile file) {
+        if (runningFiles.isEmpty())
+            activeSince = SystemClock.elapsedRealtime();
+
+        runningFiles.add(file);
+    }
+
+    private synchronized void stopped(StructrUploadFile file) {
+        runningFiles.remove(file);
+
+        if (runningFiles.isEmpty())
+            activeMillis += SystemClock.elapsedRealtime() - activeSince;
+    }
+
+    private void finished(StructrUploadFile file) {
+        boolean idle;
+        synchronized (this) {
+            tasks.remove(file.getFileId());
+            idle = isIdle();
+        }
+
+        if (idle)
+            uploadService.onUploadsIdle();
+    }
+
+    //A single upload with its retries
+    private class UploadTask implements Runnable {
+
+        private StructrUploadFile file = null;
+        private int tries = 0;
+        private int delay = 1000;
+
+        UploadTask(StructrUploadFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            //checked together with the running files, see cancel()
+            boolean canceled;
+            synchronized (UploadEngine.this) {
+                canceled = file.isCanceled();
+                if (!canceled)
+                    started(file);
+            }
+
+            if (canceled) {
+                finished(file);
+                return;
+            }
+
+            tries++;
+            uploadService.getUploadJournal().setState(file.getFileId(), UploadJournal.STATE_RUNNING);
+
+            try {
+                uploader.doUpload(file);
+                stopped(file);
+                finished(file);
+
+            } catch (Throwable t) {
+                stopped(file);
+
+                //the cancellation was already broadcast by the service
+                if (file.isCanceled()) {
+                    finished(file);
+                }
+                else if (tries >= MAX_TRIES || !isRetryable(t)) {
+                    uploadService.broadcastError(file.getFileId(), t);
+                    finished(file);
+                }
+                else {
+                    retry();
+                }
+            }
+        }
+
+        //Timeouts are always retried, resumable uploads also continue after other network errors
+        private boolean isRetryable(Throwable t) {
+            if (t instanceof StructrTimeoutException || t instanceof SocketTimeoutException)
+                return true;
+
+            return StructrUploadService.getResumableUploadProtocol() != null
+                    && t instanceof IOException && !(t instanceof FileNotFoundException);
+        }
+
+        private void retry() {
+            synchronized (UploadEngine.this) {
+                if (!executor.isShutdown())
+                    tasks.put(file.getFileId(), executor.schedule(this, delay, TimeUnit.MILLISECONDS));
+            }
+
+            delay += tries * 2000;
+        }
+    }
+
+    //Names the worker threads and runs them with background priority
+    private static class UploadThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "StructrUpload #" + count.getAndIncrement());
+        }
+    }
+}
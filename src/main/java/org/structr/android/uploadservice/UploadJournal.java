@@ -0,0 +1,246 @@
+package org.structr.android.uploadservice;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A local database that holds the upload queue of the {@link StructrUploadService}, so that queued and
+ * interrupted uploads survive the death of the process. Each entry stores the file, the settings of the
+ * notification it was started with, its state and the number of bytes sent so far. Entries are removed
+ * when their upload has finished, failed or was canceled.
+ * <br><br>
+ * Changes are written in the order in which they were made on a background thread, so that the main
+ * thread of the service never waits for the database. Reads happen on the calling thread.
+ */
+class UploadJournal extends SQLiteOpenHelper {
+
+    static final int STATE_QUEUED = 0;
+    static final int STATE_RUNNING = 1;
+
+    private static final String DATABASE_NAME = "structr_uploads.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "uploads";
+    private static final String COLUMN_FILE_ID = "file_id";
+    private static final String COLUMN_URI = "uri";
+    private static final String COLUMN_REAL_PATH = "real_path";
+    private static final String COLUMN_FILE_NAME = "file_name";
+    private static final String COLUMN_MIME_TYPE = "mime_type";
+    private static final String COLUMN_STATE = "state";
+    private static final String COLUMN_PROGRESS = "progress";
+    private static final String COLUMN_BYTES_SENT = "bytes_sent";
+    private static final String COLUMN_ACTIVITY_NAME = "activity_name";
+    private static final String COLUMN_NOTIFICATION_TITLE = "notification_title";
+    private static final String COLUMN_NOTIFICATION_TEXT = "notification_text";
+    private static final String COLUMN_NOTIFICATION_DRAWABLE = "notification_drawable";
+    private static final String COLUMN_CREATED = "created";
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new JournalThreadFactory());
+
+    UploadJournal(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_FILE_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_URI + " TEXT, "
+                + COLUMN_REAL_PATH + " TEXT, "
+                + COLUMN_FILE_NAME + " TEXT, "
+                + COLUMN_MIME_TYPE + " TEXT, "
+                + COLUMN_STATE + " INTEGER NOT NULL, "
+                + COLUMN_PROGRESS + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_BYTES_SENT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_ACTIVITY_NAME + " TEXT, "
+                + COLUMN_NOTIFICATION_TITLE + " TEXT, "
+                + COLUMN_NOTIFICATION_TEXT + " TEXT, "
+                + COLUMN_NOTIFICATION_DRAWABLE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_CREATED + " INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        //the journal only holds the queue of this device, a new schema starts with an empty queue
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Closes the database after all changes that were made before have been written.
+     */
+    @Override
+    public void close() {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                UploadJournal.super.close();
+            }
+        });
+        writer.shutdown();
+    }
+
+    /**
+     * Adds a file to the end of the journal, together with the notification settings from the intent that
+     * started its upload.
+     */
+    void add(StructrUploadFile file, Intent intent) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_FILE_ID, file.getFileId());
+        values.put(COLUMN_URI, file.getUri() != null ? file.getUri().toString() : null);
+        values.put(COLUMN_REAL_PATH, file.getRealPath());
+        values.put(COLUMN_FILE_NAME, file.getFileName());
+        values.put(COLUMN_MIME_TYPE, file.getMimeType());
+        values.put(COLUMN_STATE, STATE_QUEUED);
+        values.put(COLUMN_ACTIVITY_NAME, intent.getStringExtra(StructrUploadService.STARTINTENT_EXTRA_CALLING_ACTIVITY_NAME));
+        values.put(COLUMN_NOTIFICATION_TITLE, intent.getStringExtra(StructrUploadService.STARTINTENT_EXTRA_NOTIFICATION_TITLE));
+        values.put(COLUMN_NOTIFICATION_TEXT, intent.getStringExtra(StructrUploadService.STARTINTENT_EXTRA_NOTIFICATION_TEXT));
+        values.put(COLUMN_NOTIFICATION_DRAWABLE, intent.getIntExtra(StructrUploadService.STARTINTENT_EXTRA_NOTIFICATION_DRAWABLE, 0));
+        values.put(COLUMN_CREATED, System.currentTimeMillis());
+
+        final ContentValues row = values;
+        write(new Runnable() {
+            @Override
+            public void run() {
+                getWritableDatabase().insertWithOnConflict(TABLE, null, row, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+        });
+    }
+
+    void setState(int fileId, int state) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATE, state);
+        update(fileId, values);
+    }
+
+    /**
+     * Stores the progress of several files in one transaction.
+     */
+    void setProgress(int[] fileIds, int[] progresses, long[] bytesSent) {
+        final ContentValues[] rows = new ContentValues[fileIds.length];
+        for (int i = 0; i < fileIds.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(COLUMN_PROGRESS, progresses[i]);
+            if (bytesSent[i] >= 0)
+                rows[i].put(COLUMN_BYTES_SENT, bytesSent[i]);
+        }
+
+        final int[] ids = fileIds.clone();
+        write(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < ids.length; i++)
+                        db.update(TABLE, rows[i], COLUMN_FILE_ID + " = ?", new String[] { Integer.toString(ids[i]) });
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+    }
+
+    void remove(final int fileId) {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                getWritableDatabase().delete(TABLE, COLUMN_FILE_ID + " = ?", new String[] { Integer.toString(fileId) });
+            }
+        });
+    }
+
+    /**
+     * Reads all uploads that have not finished yet, in the order in which they were added.
+     *
+     * @return the pending uploads
+     */
+    List<Entry> getPendingUploads() {
+        List<Entry> entries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE, null, null, null, null, null, COLUMN_CREATED + " ASC");
+
+        try {
+            while (cursor.moveToNext()) {
+                String uri = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URI));
+
+                StructrUploadFile file = new StructrUploadFile(uri != null ? Uri.parse(uri) : null, cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_FILE_ID)));
+                file.setRealPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_REAL_PATH)));
+                file.setFileName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_FILE_NAME)));
+                file.setMimeType(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MIME_TYPE)));
+                file.setUploadProgress(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_PROGRESS)));
+
+                Intent intent = new Intent();
+                intent.putExtra(StructrUploadService.STARTINTENT_EXTRA_CALLING_ACTIVITY_NAME, cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ACTIVITY_NAME)));
+                intent.putExtra(StructrUploadService.STARTINTENT_EXTRA_NOTIFICATION_TITLE, cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NOTIFICATION_TITLE)));
+                intent.putExtra(StructrUploadService.STARTINTENT_EXTRA_NOTIFICATION_TEXT, cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NOTIFICATION_TEXT)));
+                intent.putExtra(StructrUploadService.STARTINTENT_EXTRA_NOTIFICATION_DRAWABLE, cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_NOTIFICATION_DRAWABLE)));
+
+                entries.add(new Entry(file, intent));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return entries;
+    }
+
+    private void update(final int fileId, final ContentValues values) {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                getWritableDatabase().update(TABLE, values, COLUMN_FILE_ID + " = ?", new String[] { Integer.toString(fileId) });
+            }
+        });
+    }
+
+    private void write(Runnable change) {
+        try {
+            writer.execute(change);
+        } catch (RejectedExecutionException e) {
+            //a worker that stops after the service was destroyed, the entry is restored with its last state
+        }
+    }
+
+    /**
+     * A pending upload, with an intent that holds the notification settings it was started with.
+     */
+    static class Entry {
+
+        final StructrUploadFile file;
+        final Intent intent;
+
+        Entry(StructrUploadFile file, Intent intent) {
+            this.file = file;
+            this.intent = intent;
+        }
+    }
+
+    //Runs the writes with background priority
+    private static class JournalThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "StructrUploadJournal");
+        }
+    }
+}
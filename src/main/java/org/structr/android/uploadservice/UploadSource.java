@@ -0,0 +1,311 @@
+package org.structr.android.uploadservice;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * The content of a {@link StructrUploadFile}. A file with a real path is read from the file system, any other
+ * file is streamed from its content:// or file:// URI through the ContentResolver, so uploads work for every
+ * content provider, not only for those that expose a path on the storage.
+ */
+public abstract class UploadSource {
+
+    /**
+     * @return the length of the content in bytes, or -1 when the provider does not know it
+     */
+    public abstract long getLength();
+
+    /**
+     * Opens the content at the given offset. The caller has to close the stream.
+     *
+     * @param offset the number of bytes to skip
+     * @return a stream that starts at the given offset
+     */
+    public abstract InputStream open(long offset) throws IOException;
+
+    /**
+     * @return a key that identifies this content, and changes when the content changes
+     */
+    public abstract String getKey();
+
+    /**
+     * @return the file that holds the content, or null when the content is streamed from a provider
+     */
+    public File getFile() {
+        return null;
+    }
+
+    /**
+     * Gives you the source of the given file.
+     *
+     * @param context the context used to access the ContentResolver
+     * @param file the file
+     * @return the source of the file
+     */
+    public static UploadSource of(Context context, StructrUploadFile file) throws FileNotFoundException {
+        if (file.getRealPath() != null)
+            return new FileSource(new File(file.getRealPath()), null);
+
+        if (file.getUri() != null)
+            return new ContentSource(context.getContentResolver(), file.getUri());
+
+        throw new FileNotFoundException("File has neither a path nor an Uri");
+    }
+
+    /**
+     * Gives you the source of a local file, e.g. a temporary file that holds a transformed version of
+     * another source.
+     *
+     * @param file the file
+     * @param key the key of the content, or null to derive it from the path, length and modification time
+     * @return the source of the file
+     */
+    public static UploadSource of(File file, String key) {
+        return new FileSource(file, key);
+    }
+
+    /**
+     * Reads the display name of the given URI with a single query of its {@link OpenableColumns}.
+     *
+     * @param context the context used to access the ContentResolver
+     * @param uri the URI
+     * @return the display name, or the last path segment of the URI when the provider does not know a name
+     */
+    public static String getDisplayName(Context context, Uri uri) {
+        String name = null;
+
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            Cursor cursor = null;
+            try {
+                cursor = context.getContentResolver().query(uri, new String[] { OpenableColumns.DISPLAY_NAME }, null, null, null);
+                if (cursor != null && cursor.moveToFirst())
+                    name = cursor.getString(0);
+            } catch (RuntimeException e) {
+                //some providers do not support queries, fall back to the Uri
+            } finally {
+                if (cursor != null)
+                    cursor.close();
+            }
+        }
+
+        return name != null ? name : uri.getLastPathSegment();
+    }
+
+    //A file with a path on the storage
+    private static class FileSource extends UploadSource {
+
+        private File file = null;
+        private String key = null;
+
+        FileSource(File file, String key) {
+            this.file = file;
+            this.key = key;
+        }
+
+        @Override
+        public long getLength() {
+            return file.length();
+        }
+
+        @Override
+        public InputStream open(long offset) throws IOException {
+            FileInputStream input = new FileInputStream(file);
+            try {
+                input.getChannel().position(offset);
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+            return input;
+        }
+
+        @Override
+        public String getKey() {
+            if (key != null)
+                return key;
+            return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        }
+
+        @Override
+        public File getFile() {
+            return file;
+        }
+    }
+
+    //Content that is streamed through the ContentResolver
+    private static class ContentSource extends UploadSource {
+
+        //the number of bytes at the start of the content that are part of the key
+        private static final int SAMPLE_SIZE = 64 * 1024;
+
+        //DocumentsContract.Document.COLUMN_LAST_MODIFIED, which needs API 19
+        private static final String[] LAST_MODIFIED_COLUMNS = { "last_modified", MediaStore.MediaColumns.DATE_MODIFIED };
+
+        private ContentResolver resolver = null;
+        private Uri uri = null;
+        private long length = -2;
+        private String key = null;
+
+        ContentSource(ContentResolver resolver, Uri uri) {
+            this.resolver = resolver;
+            this.uri = uri;
+        }
+
+        @Override
+        public synchronized long getLength() {
+            if (length == -2)
+                length = queryLength();
+            return length;
+        }
+
+        @Override
+        public InputStream open(long offset) throws IOException {
+            InputStream input = openFileDescriptor(offset);
+            if (input != null)
+                return input;
+
+            //the provider cannot hand out a file descriptor, e.g. because it generates the content
+            input = resolver.openInputStream(uri);
+            if (input == null)
+                throw new FileNotFoundException("Could not open " + uri);
+
+            try {
+                skip(input, offset);
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+            return input;
+        }
+
+        //A provider can replace the content of an Uri, so the key also covers the modification time and the first bytes
+        @Override
+        public synchronized String getKey() {
+            if (key == null)
+                key = uri.toString() + ":" + getLength() + ":" + queryLastModified() + ":" + sampleChecksum();
+            return key;
+        }
+
+        private InputStream openFileDescriptor(long offset) throws IOException {
+            ParcelFileDescriptor descriptor;
+            try {
+                descriptor = resolver.openFileDescriptor(uri, "r");
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+
+            if (descriptor == null)
+                return null;
+
+            FileInputStream input = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+            try {
+                if (offset > 0)
+                    input.getChannel().position(offset);
+            } catch (IOException e) {
+                //pipes cannot seek
+                try {
+                    skip(input, offset);
+                } catch (IOException skipException) {
+                    input.close();
+                    throw skipException;
+                }
+            }
+            return input;
+        }
+
+        private long queryLength() {
+            Cursor cursor = null;
+            try {
+                cursor = resolver.query(uri, new String[] { OpenableColumns.SIZE }, null, null, null);
+                if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0))
+                    return cursor.getLong(0);
+            } catch (RuntimeException e) {
+                //some providers do not support queries, ask the file descriptor instead
+            } finally {
+                if (cursor != null)
+                    cursor.close();
+            }
+
+            try {
+                ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r");
+                if (descriptor != null) {
+                    try {
+                        return descriptor.getStatSize();
+                    } finally {
+                        descriptor.close();
+                    }
+                }
+            } catch (IOException e) {
+                //the length stays unknown
+            }
+
+            return -1;
+        }
+
+        private long queryLastModified() {
+            for (String column : LAST_MODIFIED_COLUMNS) {
+                Cursor cursor = null;
+                try {
+                    cursor = resolver.query(uri, new String[] { column }, null, null, null);
+                    if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0))
+                        return cursor.getLong(0);
+                } catch (RuntimeException e) {
+                    //the provider does not know this column
+                } finally {
+                    if (cursor != null)
+                        cursor.close();
+                }
+            }
+            return -1;
+        }
+
+        private long sampleChecksum() {
+            CRC32 checksum = new CRC32();
+            byte[] buffer = new byte[8192];
+            int total = 0;
+
+            try {
+                InputStream input = open(0);
+                try {
+                    int read;
+                    while (total < SAMPLE_SIZE && (read = input.read(buffer, 0, Math.min(buffer.length, SAMPLE_SIZE - total))) > 0) {
+                        checksum.update(buffer, 0, read);
+                        total += read;
+                    }
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                //the upload will fail to read the content as well
+                return -1;
+            }
+
+            return checksum.getValue();
+        }
+
+        private static void skip(InputStream input, long offset) throws IOException {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = input.skip(remaining);
+                if (skipped <= 0) {
+                    if (input.read() < 0)
+                        throw new IOException("Content ends before offset " + offset);
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.annotations.Expose;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the heap used by a {@link CompactList} with the heap used by an
+ * ArrayList of the same entities. The sizes are printed, and the compact list
+ * must need less memory. IDs and names are unique, so most of the saving comes
+ * from the primitive columns and the repeated categories.
+ */
+public class CompactListBenchmarkTest {
+
+	private static final int ENTITIES = 50000;
+	private static final String[] CATEGORIES = { "image", "video", "document", "audio", "archive" };
+
+	@Test
+	public void compareWithArrayList() {
+
+		long empty = usedMemory();
+
+		List<Row> list = new ArrayList<Row>();
+		for (int i=0; i<ENTITIES; i++) {
+			list.add(row(i));
+		}
+
+		long listBytes = usedMemory() - empty;
+
+		// keep the list alive until it was measured
+		assertEquals(ENTITIES, list.size());
+		list = null;
+
+		empty = usedMemory();
+
+		CompactList<Row> compact = new CompactList<Row>(Row.class);
+		for (int i=0; i<ENTITIES; i++) {
+			compact.add(row(i));
+		}
+
+		compact.trimToSize();
+
+		long compactBytes = usedMemory() - empty;
+
+		System.out.println(String.format("ArrayList: %d KB for %d entities", listBytes / 1024, ENTITIES));
+		System.out.println(String.format("CompactList: %d KB for %d entities", compactBytes / 1024, ENTITIES));
+
+		// the rows are materialized from the columns
+		assertEquals(ENTITIES, compact.size());
+		for (int i=0; i<ENTITIES; i += 997) {
+
+			Row expected = row(i);
+			Row actual   = compact.get(i);
+
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.name, actual.name);
+			assertEquals(expected.category, actual.category);
+			assertEquals(expected.count, actual.count);
+			assertEquals(expected.size, actual.size);
+			assertEquals(expected.created, actual.created);
+			assertEquals(expected.shared, actual.shared);
+			assertEquals(expected.score, actual.score);
+		}
+
+		assertTrue("The compact list must need less memory", compactBytes < listBytes);
+	}
+
+	// ----- private methods -----
+	private static Row row(final int i) {
+
+		Row row      = new Row();
+		row.setId(String.format("%032x", i));
+		row.name     = "File " + i;
+		row.category = CATEGORIES[i % CATEGORIES.length];
+		row.count    = i % 100;
+		row.size     = i * 1024L;
+		row.created  = new Date(1400000000000L + i * 1000L);
+		row.shared   = i % 3 == 0;
+		row.score    = i % 7 == 0 ? null : i / 10.0;
+
+		return row;
+	}
+
+	private static long usedMemory() {
+
+		Runtime runtime = Runtime.getRuntime();
+		for (int i=0; i<5; i++) {
+
+			System.gc();
+
+			try {
+				Thread.sleep(50);
+
+			} catch (InterruptedException ignore) {}
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	// ----- nested classes -----
+	public static class Row extends StructrObject {
+
+		@Expose String name;
+		@Expose String category;
+		@Expose int count;
+		@Expose long size;
+		@Expose Date created;
+		@Expose boolean shared;
+		@Expose Double score;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the size and speed of {@link EntityCodec} with Java serialization,
+ * for a list of entities like it is written to an on-disk cache. The timings
+ * are printed, only the size is asserted.
+ */
+public class EntityCodecBenchmarkTest {
+
+	private static final int ENTITIES   = 1000;
+	private static final int ITERATIONS = 20;
+
+	@Test
+	public void compareWithJavaSerialization() throws Exception {
+
+		ArrayList<EntityCodecTest.Item> items = createItems();
+
+		byte[] encoded    = encode(items);
+		byte[] serialized = serialize(items);
+
+		assertEquals(ENTITIES, decode(encoded).size());
+		assertEquals(ENTITIES, deserialize(serialized).size());
+
+		// warm up both paths before measuring
+		long codecNanos = 0;
+		long javaNanos  = 0;
+
+		for (int i=0; i<ITERATIONS * 2; i++) {
+
+			boolean measure = i >= ITERATIONS;
+			long start      = System.nanoTime();
+
+			decode(encode(items));
+
+			long middle = System.nanoTime();
+
+			deserialize(serialize(items));
+
+			long end = System.nanoTime();
+
+			if (measure) {
+				codecNanos += middle - start;
+				javaNanos  += end - middle;
+			}
+		}
+
+		System.out.println(String.format("EntityCodec: %d bytes, %.2f ms per round trip of %d entities", encoded.length, codecNanos / 1e6 / ITERATIONS, ENTITIES));
+		System.out.println(String.format("Java serialization: %d bytes, %.2f ms per round trip of %d entities", serialized.length, javaNanos / 1e6 / ITERATIONS, ENTITIES));
+
+		assertTrue("The codec must be smaller than Java serialization", encoded.length < serialized.length);
+	}
+
+	// ----- private methods -----
+	private static ArrayList<EntityCodecTest.Item> createItems() {
+
+		ArrayList<EntityCodecTest.Item> items = new ArrayList<EntityCodecTest.Item>();
+
+		for (int i=0; i<ENTITIES; i++) {
+
+			EntityCodecTest.Item item = EntityCodecTest.item("Item number " + i, String.format("%032x", i));
+			item.created              = new Date(1400000000000L + i * 1000L);
+			item.state                = i % 2 == 0 ? EntityCodecTest.State.NEW : EntityCodecTest.State.DONE;
+			item.owner                = new StructrRef<EntityCodecTest.Item>(EntityCodecTest.Item.class, String.format("%032x", i % 10));
+			item.counts               = new ArrayList<Integer>(Arrays.asList(i, i * 2, i * 3));
+			item.tags                 = new HashSet<String>(Arrays.asList("tag" + i % 5, "common"));
+
+			items.add(item);
+		}
+
+		return items;
+	}
+
+	private static byte[] encode(final List<EntityCodecTest.Item> items) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out        = new DataOutputStream(bytes);
+
+		EntityCodec.forType(EntityCodecTest.Item.class).writeList(out, items);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	private static List<EntityCodecTest.Item> decode(final byte[] data) throws IOException {
+		return EntityCodec.forType(EntityCodecTest.Item.class).readList(new DataInputStream(new ByteArrayInputStream(data)));
+	}
+
+	private static byte[] serialize(final ArrayList<EntityCodecTest.Item> items) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out      = new ObjectOutputStream(bytes);
+
+		out.writeObject(items);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	private static List<EntityCodecTest.Item> deserialize(final byte[] data) throws IOException, ClassNotFoundException {
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+		try {
+			return (List<EntityCodecTest.Item>)in.readObject();
+
+		} finally {
+			in.close();
+		}
+	}
+}
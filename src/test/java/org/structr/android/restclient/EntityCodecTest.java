@@ -0,0 +1,379 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.annotations.Expose;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round-trip tests for {@link EntityCodec}.
+ */
+public class EntityCodecTest {
+
+	@Test
+	public void primitivesAtBoundaryValues() throws IOException {
+
+		Primitives[] values = { primitives(Boolean.TRUE, Byte.MIN_VALUE, Short.MIN_VALUE, Character.MIN_VALUE, Integer.MIN_VALUE, Long.MIN_VALUE, Float.MIN_VALUE, Double.MIN_VALUE),
+					primitives(Boolean.FALSE, Byte.MAX_VALUE, Short.MAX_VALUE, Character.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, Float.MAX_VALUE, Double.MAX_VALUE),
+					primitives(Boolean.TRUE, (byte)0, (short)0, 'x', 0, 0L, Float.NaN, Double.NEGATIVE_INFINITY),
+					primitives(Boolean.FALSE, (byte)-1, (short)-1, '\u00e9', -1, -1L, -0.0f, Double.POSITIVE_INFINITY) };
+
+		for (Primitives value : values) {
+
+			Primitives copy = roundTrip(Primitives.class, value);
+
+			assertEquals(value.booleanValue, copy.booleanValue);
+			assertEquals(value.byteValue, copy.byteValue);
+			assertEquals(value.shortValue, copy.shortValue);
+			assertEquals(value.charValue, copy.charValue);
+			assertEquals(value.intValue, copy.intValue);
+			assertEquals(value.longValue, copy.longValue);
+			assertEquals(Float.floatToIntBits(value.floatValue), Float.floatToIntBits(copy.floatValue));
+			assertEquals(Double.doubleToLongBits(value.doubleValue), Double.doubleToLongBits(copy.doubleValue));
+
+			assertEquals(value.boxedBoolean, copy.boxedBoolean);
+			assertEquals(value.boxedByte, copy.boxedByte);
+			assertEquals(value.boxedShort, copy.boxedShort);
+			assertEquals(value.boxedChar, copy.boxedChar);
+			assertEquals(value.boxedInt, copy.boxedInt);
+			assertEquals(value.boxedLong, copy.boxedLong);
+			assertEquals(value.boxedFloat, copy.boxedFloat);
+			assertEquals(value.boxedDouble, copy.boxedDouble);
+		}
+	}
+
+	@Test
+	public void smallIntegersTakeOneByte() throws IOException {
+
+		EntityCodec<Primitives> codec = EntityCodec.forType(Primitives.class);
+
+		Primitives small = new Primitives();
+		small.intValue   = -64;
+		small.longValue  = 63;
+
+		Primitives large = new Primitives();
+		large.intValue   = -65;
+		large.longValue  = 64;
+
+		// zigzag encoding needs one more byte for each of the two values
+		assertEquals(codec.toBytes(small).length + 2, codec.toBytes(large).length);
+	}
+
+	@Test
+	public void nullValues() throws IOException {
+
+		Primitives nulls = roundTrip(Primitives.class, new Primitives());
+
+		assertNull(nulls.getId());
+		assertNull(nulls.getView());
+		assertNull(nulls.boxedBoolean);
+		assertNull(nulls.boxedInt);
+		assertNull(nulls.boxedLong);
+		assertNull(nulls.boxedDouble);
+
+		Item item = roundTrip(Item.class, new Item());
+
+		assertNull(item.name);
+		assertNull(item.created);
+		assertNull(item.state);
+		assertNull(item.parent);
+		assertNull(item.owner);
+		assertNull(item.counts);
+		assertNull(item.tags);
+		assertNull(item.refs);
+		assertNull(item.attributes);
+	}
+
+	@Test
+	public void strings() throws IOException {
+
+		for (String name : new String[] { "", "a", "Grüße, 世界 😀", new String(new char[1000]).replace('\0', 'x') }) {
+
+			Item item = new Item();
+			item.name = name;
+
+			assertEquals(name, roundTrip(Item.class, item).name);
+		}
+	}
+
+	@Test
+	public void nestedEntities() throws IOException {
+
+		Item root         = item("root", "n1");
+		root.setView("ui");
+		root.parent       = item("parent", "n2");
+		root.parent.parent = item("grandparent", "n3");
+
+		// the declared type is a super class of the nested entity
+		SpecialItem special = new SpecialItem();
+		special.setId("n4");
+		special.name      = "special";
+		special.priority  = 7;
+		root.child        = special;
+
+		Item copy = roundTrip(Item.class, root);
+
+		assertEquals("ui", copy.getView());
+		assertEquals("root", copy.name);
+		assertEquals("n2", copy.parent.getId());
+		assertEquals("parent", copy.parent.name);
+		assertEquals("grandparent", copy.parent.parent.name);
+		assertNull(copy.parent.parent.parent);
+
+		assertEquals(SpecialItem.class, copy.child.getClass());
+		assertEquals("special", copy.child.name);
+		assertEquals(7, ((SpecialItem)copy.child).priority);
+	}
+
+	@Test
+	public void references() throws IOException {
+
+		Item item  = item("item", "i1");
+		item.owner = new StructrRef<Item>(Item.class, "o1");
+		item.refs  = new ArrayList<StructrRef<Item>>();
+
+		item.refs.add(new StructrRef<Item>(Item.class, "r1"));
+		item.refs.add(null);
+		item.refs.add(new StructrRef<Item>(Item.class, null));
+
+		Item copy = roundTrip(Item.class, item);
+
+		assertEquals(Item.class, copy.owner.getType());
+		assertEquals("o1", copy.owner.getId());
+		assertEquals(item.refs, copy.refs);
+	}
+
+	@Test
+	public void genericCollections() throws IOException {
+
+		Item item       = item("item", "i1");
+		item.state      = State.DONE;
+		item.created    = new Date(1234567890123L);
+		item.counts     = new ArrayList<Integer>(Arrays.asList(1, null, Integer.MIN_VALUE, Integer.MAX_VALUE));
+		item.tags       = new HashSet<String>(Arrays.asList("a", "b", "c"));
+		item.children   = new ArrayList<Item>(Arrays.asList(item("first", "c1"), null, item("second", "c2")));
+		item.attributes = new LinkedHashMap<String, Integer>();
+		item.attributes.put("x", 1);
+		item.attributes.put("y", 2);
+
+		Item copy = roundTrip(Item.class, item);
+
+		assertEquals(State.DONE, copy.state);
+		assertEquals(item.created, copy.created);
+		assertEquals(item.counts, copy.counts);
+		assertEquals(item.tags, copy.tags);
+		assertEquals(item.attributes, copy.attributes);
+
+		assertEquals(3, copy.children.size());
+		assertEquals("first", copy.children.get(0).name);
+		assertNull(copy.children.get(1));
+		assertEquals("c2", copy.children.get(2).getId());
+	}
+
+	@Test
+	public void emptyCollections() throws IOException {
+
+		Item item     = new Item();
+		item.counts   = Collections.emptyList();
+		item.tags     = Collections.emptySet();
+		item.children = new ArrayList<Item>();
+
+		Item copy = roundTrip(Item.class, item);
+
+		assertTrue(copy.counts.isEmpty());
+		assertTrue(copy.tags.isEmpty());
+		assertTrue(copy.children.isEmpty());
+	}
+
+	@Test
+	public void boundedTypes() throws IOException {
+
+		Bounded<Integer> bounded = new Bounded<Integer>();
+		bounded.values           = new ArrayList<Integer>(Arrays.asList(3, 4));
+		bounded.items            = new ArrayList<Item>(Arrays.asList(item("x", "i1")));
+		bounded.grid             = new List[] { new ArrayList<String>(Arrays.asList("a")) };
+
+		Bounded copy = roundTrip(Bounded.class, bounded);
+
+		assertEquals(2, copy.values.size());
+		assertEquals(3, ((Number)copy.values.get(0)).intValue());
+		assertEquals("x", ((Item)copy.items.get(0)).name);
+		assertEquals(bounded.grid[0], copy.grid[0]);
+	}
+
+	@Test
+	public void lists() throws IOException {
+
+		EntityCodec<Item> codec = EntityCodec.forType(Item.class);
+		List<Item> items        = new ArrayList<Item>();
+
+		for (int i=0; i<100; i++) {
+			items.add(item("item " + i, "id" + i));
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		codec.writeList(new DataOutputStream(bytes), items);
+
+		List<Item> copy = codec.readList(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(100, copy.size());
+		for (int i=0; i<100; i++) {
+			assertEquals("id" + i, copy.get(i).getId());
+			assertEquals("item " + i, copy.get(i).name);
+		}
+	}
+
+	@Test
+	public void signatureMismatch() throws IOException {
+
+		byte[] data = EntityCodec.forType(Item.class).toBytes(item("item", "i1"));
+
+		// data of a different field layout is rejected
+		try {
+			EntityCodec.forType(SpecialItem.class).fromBytes(data);
+			fail("Data of a different field layout must be rejected");
+
+		} catch (IOException expected) {
+		}
+
+		// and so is data with a damaged signature
+		data[0] ^= 1;
+
+		try {
+			EntityCodec.forType(Item.class).fromBytes(data);
+			fail("Data with a different signature must be rejected");
+
+		} catch (IOException expected) {
+		}
+	}
+
+	// ----- private methods -----
+	private static <T extends StructrObject> T roundTrip(final Class<T> type, final T entity) throws IOException {
+
+		EntityCodec<T> codec = EntityCodec.forType(type);
+		return codec.fromBytes(codec.toBytes(entity));
+	}
+
+	static Item item(final String name, final String id) {
+
+		Item item = new Item();
+		item.setId(id);
+		item.name = name;
+
+		return item;
+	}
+
+	private static Primitives primitives(final Boolean z, final byte b, final short s, final char c, final int i, final long l, final float f, final double d) {
+
+		Primitives p   = new Primitives();
+		p.booleanValue = z;
+		p.byteValue    = b;
+		p.shortValue   = s;
+		p.charValue    = c;
+		p.intValue     = i;
+		p.longValue    = l;
+		p.floatValue   = f;
+		p.doubleValue  = d;
+		p.boxedBoolean = z;
+		p.boxedByte    = b;
+		p.boxedShort   = s;
+		p.boxedChar    = c;
+		p.boxedInt     = i;
+		p.boxedLong    = l;
+		p.boxedFloat   = f;
+		p.boxedDouble  = d;
+
+		return p;
+	}
+
+	// ----- nested classes -----
+	public enum State { NEW, DONE }
+
+	public static class Primitives extends StructrObject {
+
+		@Expose boolean booleanValue;
+		@Expose byte byteValue;
+		@Expose short shortValue;
+		@Expose char charValue;
+		@Expose int intValue;
+		@Expose long longValue;
+		@Expose float floatValue;
+		@Expose double doubleValue;
+
+		@Expose Boolean boxedBoolean;
+		@Expose Byte boxedByte;
+		@Expose Short boxedShort;
+		@Expose Character boxedChar;
+		@Expose Integer boxedInt;
+		@Expose Long boxedLong;
+		@Expose Float boxedFloat;
+		@Expose Double boxedDouble;
+	}
+
+	public static class Item extends StructrObject {
+
+		@Expose String name;
+		@Expose Date created;
+		@Expose State state;
+		@Expose Item parent;
+		@Expose Item child;
+		@Expose StructrRef<Item> owner;
+		@Expose List<Integer> counts;
+		@Expose Set<String> tags;
+		@Expose List<Item> children;
+		@Expose List<StructrRef<Item>> refs;
+		@Expose Map<String, Integer> attributes;
+
+		// not exposed, not encoded
+		transient String local;
+	}
+
+	public static class SpecialItem extends Item {
+
+		@Expose int priority;
+	}
+
+	public static class Bounded<N extends Number> extends StructrObject {
+
+		@Expose List<N> values;
+		@Expose List<? extends Item> items;
+		@Expose List<String>[] grid;
+	}
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs both {@link StructrTransport} implementations against a local server.
+ */
+@RunWith(Parameterized.class)
+public class StructrTransportTest {
+
+	private MockWebServer server        = null;
+	private StructrTransport transport  = null;
+
+	@Parameterized.Parameters(name = "{0}")
+	public static Collection<Object[]> transports() {
+
+		return Arrays.asList(new Object[][] {
+			{ "UrlConnectionTransport", new UrlConnectionTransport() },
+			{ "OkHttpTransport", new OkHttpTransport() }
+		});
+	}
+
+	public StructrTransportTest(final String name, final StructrTransport transport) {
+		this.transport = transport;
+	}
+
+	@Before
+	public void start() throws IOException {
+
+		server = new MockWebServer();
+		server.start();
+	}
+
+	@After
+	public void stop() throws IOException {
+		server.shutdown();
+	}
+
+	@Test
+	public void get() throws Exception {
+
+		server.enqueue(new MockResponse().setResponseCode(200).setHeader("X-Result", "yes").setBody("{\"result\":[]}"));
+
+		StructrRequest request = new StructrRequest("GET", url("/rest/items?name=a"));
+		request.setHeader("X-User", "admin");
+
+		StructrResponse response = transport.execute(request);
+		try {
+			assertEquals(200, response.getCode());
+			assertEquals("yes", response.getHeader("X-Result"));
+			assertNull(response.getHeader("X-Missing"));
+			assertEquals("{\"result\":[]}", read(response.getBody()));
+
+		} finally {
+			response.close();
+		}
+
+		RecordedRequest recorded = server.takeRequest();
+		assertEquals("GET", recorded.getMethod());
+		assertEquals("/rest/items?name=a", recorded.getPath());
+		assertEquals("admin", recorded.getHeader("X-User"));
+	}
+
+	@Test
+	public void executeReturnsAfterTheHeaders() throws Exception {
+
+		server.setDispatcher(new Dispatcher() {
+
+			@Override
+			public MockResponse dispatch(final RecordedRequest request) throws InterruptedException {
+
+				// the server needs a while before it answers
+				Thread.sleep(300);
+				return new MockResponse().setBody("late");
+			}
+		});
+
+		long start               = System.nanoTime();
+		StructrResponse response = transport.execute(new StructrRequest("GET", url("/rest/items")));
+		long elapsed             = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		try {
+			assertTrue("execute() returned after " + elapsed + " ms", elapsed >= 250);
+			assertEquals(200, response.getCode());
+
+		} finally {
+			response.close();
+		}
+	}
+
+	@Test
+	public void postByteArrayBody() throws Exception {
+
+		server.enqueue(new MockResponse().setResponseCode(201).setHeader("Location", url("/rest/items/abc")));
+
+		byte[] data              = "{\"name\":\"a\"}".getBytes("UTF-8");
+		StructrRequest request   = new StructrRequest("POST", url("/rest/items")).setBody(new StructrRequest.ByteArrayBody("application/json; charset=UTF-8", data));
+		StructrResponse response = transport.execute(request);
+
+		try {
+			assertEquals(201, response.getCode());
+			assertEquals(url("/rest/items/abc"), response.getHeader("Location"));
+
+		} finally {
+			response.close();
+		}
+
+		RecordedRequest recorded = server.takeRequest();
+		assertEquals("POST", recorded.getMethod());
+		assertEquals("application/json; charset=UTF-8", recorded.getHeader("Content-Type"));
+		assertEquals(String.valueOf(data.length), recorded.getHeader("Content-Length"));
+		assertEquals("{\"name\":\"a\"}", recorded.getBody().readUtf8());
+	}
+
+	@Test
+	public void streamedBodyOfUnknownLengthIsChunked() throws Exception {
+
+		server.enqueue(new MockResponse().setResponseCode(200));
+
+		StreamedBody body        = new StreamedBody(100000, -1);
+		StructrRequest request   = new StructrRequest("POST", url("/upload")).setChunkLength(4096).setBody(body);
+		StructrResponse response = transport.execute(request);
+
+		try {
+			assertEquals(200, response.getCode());
+
+		} finally {
+			response.close();
+		}
+
+		RecordedRequest recorded = server.takeRequest();
+		assertEquals("chunked", recorded.getHeader("Transfer-Encoding"));
+		assertEquals(100000, recorded.getBodySize());
+		assertEquals(1, body.writes);
+	}
+
+	@Test
+	public void errorBody() throws Exception {
+
+		server.enqueue(new MockResponse().setResponseCode(404).setBody("not found"));
+
+		StructrResponse response = transport.execute(new StructrRequest("GET", url("/rest/items/x")));
+		try {
+			assertEquals(404, response.getCode());
+			assertEquals("not found", read(response.getBody()));
+
+		} finally {
+			response.close();
+		}
+	}
+
+	@Test
+	public void readTimeout() throws Exception {
+
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+		StructrRequest request = new StructrRequest("GET", url("/rest/items")).setConnectTimeout(1000).setReadTimeout(200);
+
+		try {
+			transport.execute(request).close();
+			fail("The request must time out");
+
+		} catch (SocketTimeoutException expected) {
+		}
+	}
+
+	@Test
+	public void repeatableBodyIsRetriedOnStaleConnection() throws Exception {
+
+		// the kept-alive connection of the first request fails after the second request was read
+		server.enqueue(new MockResponse().setResponseCode(200));
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+		server.enqueue(new MockResponse().setResponseCode(200));
+
+		transport.execute(new StructrRequest("GET", url("/rest/items"))).close();
+
+		StructrRequest request = new StructrRequest("POST", url("/rest/items")).setBody(new StructrRequest.ByteArrayBody("application/json", new byte[10]));
+
+		try {
+			StructrResponse response = transport.execute(request);
+			try {
+				// a body from memory can be sent again
+				assertEquals(200, response.getCode());
+				assertEquals(3, server.getRequestCount());
+
+			} finally {
+				response.close();
+			}
+
+		} catch (IOException ioex) {
+			// HttpURLConnection does not retry requests with a body
+		}
+	}
+
+	@Test
+	public void streamedBodyIsNotResentOnStaleConnection() throws Exception {
+
+		server.enqueue(new MockResponse().setResponseCode(200));
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+		server.enqueue(new MockResponse().setResponseCode(200));
+
+		transport.execute(new StructrRequest("GET", url("/rest/items"))).close();
+
+		StreamedBody body      = new StreamedBody(50000, 50000);
+		StructrRequest request = new StructrRequest("POST", url("/upload")).setBody(body);
+
+		try {
+			transport.execute(request).close();
+			fail("A lost connection must fail the upload");
+
+		} catch (IOException expected) {
+		}
+
+		assertEquals(1, body.writes);
+		assertEquals(2, server.getRequestCount());
+	}
+
+	@Test
+	public void streamedBodyIsNotResentOnRequestTimeout() throws Exception {
+
+		// OkHttp repeats a request when the server answers 408
+		server.enqueue(new MockResponse().setResponseCode(408));
+		server.enqueue(new MockResponse().setResponseCode(200));
+
+		StreamedBody body      = new StreamedBody(50000, 50000);
+		StructrRequest request = new StructrRequest("POST", url("/upload")).setBody(body);
+
+		try {
+			StructrResponse response = transport.execute(request);
+			try {
+				assertEquals(408, response.getCode());
+
+			} finally {
+				response.close();
+			}
+
+		} catch (IOException expected) {
+		}
+
+		assertEquals(1, body.writes);
+		assertEquals(1, server.getRequestCount());
+	}
+
+	// ----- private methods -----
+	private String url(final String path) {
+		return server.url(path).toString();
+	}
+
+	private static String read(final InputStream in) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer             = new byte[1024];
+		int count;
+
+		while ((count = in.read(buffer)) > 0) {
+			out.write(buffer, 0, count);
+		}
+
+		in.close();
+
+		return out.toString("UTF-8");
+	}
+
+	// ----- nested classes -----
+	/**
+	 * A body that can only be produced once, like a file upload.
+	 */
+	private static class StreamedBody implements StructrRequest.Body {
+
+		private int size      = 0;
+		private long length   = 0;
+		private int writes    = 0;
+
+		StreamedBody(final int size, final long length) {
+			this.size   = size;
+			this.length = length;
+		}
+
+		@Override
+		public String getContentType() {
+			return "application/octet-stream";
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+
+		@Override
+		public void writeTo(final OutputStream out) throws IOException {
+
+			writes++;
+
+			byte[] chunk = new byte[1000];
+			for (int i=0; i<size; i += chunk.length) {
+				out.write(chunk, 0, Math.min(chunk.length, size - i));
+			}
+		}
+	}
+}
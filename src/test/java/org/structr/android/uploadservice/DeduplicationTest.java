@@ -0,0 +1,184 @@
+package org.structr.android.uploadservice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.structr.android.restclient.StructrClient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Skipping files that were uploaded before, with the hash computed from the bytes that are sent and the
+ * lookup of the existing File through the REST client.
+ */
+public class DeduplicationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server = null;
+    private TestUploadService service = null;
+    private File file = null;
+    private byte[] content = null;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        StructrClient.getDefault().configure(server.url("/").toString(), "admin", "admin");
+
+        StructrUploadService.setDeduplicationEnabled(true);
+        StructrUploadService.setResumableUploadProtocol(null);
+        StructrUploadService.setImageTransform(null);
+        service = new TestUploadService();
+
+        content = new byte[3 * UploadBufferPool.BUFFER_SIZE + 17];
+        new Random(1).nextBytes(content);
+        file = folder.newFile("photo.jpg");
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        StructrUploadService.setDeduplicationEnabled(false);
+        StructrUploadService.setResumableUploadProtocol(null);
+        service.getUploadEngine().shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void reusesFileOfServer() throws Throwable {
+        server.enqueue(new MockResponse().setResponseCode(201));
+        server.enqueue(new MockResponse().setBody("{\"result\":[{\"id\":\"f00\"}],\"result_count\":1}"));
+
+        upload();
+        assertEquals("POST", server.takeRequest().getMethod());
+
+        upload();
+        RecordedRequest lookup = server.takeRequest();
+        assertEquals("GET", lookup.getMethod());
+        assertTrue(lookup.getPath().startsWith("/rest/file?"));
+        assertTrue(lookup.getPath().contains("checksum=" + crc32(content)));
+        assertTrue(lookup.getPath().contains("size=" + content.length));
+        assertTrue(lookup.getPath().contains("name=photo.jpg"));
+        assertEquals("admin", lookup.getHeader("X-User"));
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(Arrays.asList(201, 200), service.finished);
+        assertEquals("f00", service.responses.get(1));
+    }
+
+    @Test
+    public void uploadsAgainWhenServerDeletedFile() throws Throwable {
+        server.enqueue(new MockResponse().setResponseCode(201));
+        server.enqueue(new MockResponse().setBody("{\"result\":[],\"result_count\":0}"));
+        server.enqueue(new MockResponse().setResponseCode(201));
+
+        upload();
+        upload();
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals(Arrays.asList(201, 201), service.finished);
+    }
+
+    @Test
+    public void uploadsAgainWhenFileChanged() throws Throwable {
+        server.enqueue(new MockResponse().setResponseCode(201));
+        server.enqueue(new MockResponse().setResponseCode(201));
+
+        upload();
+        file.setLastModified(file.lastModified() + 2000);
+        upload();
+
+        assertEquals("POST", server.takeRequest().getMethod());
+        assertEquals("POST", server.takeRequest().getMethod());
+    }
+
+    @Test
+    public void hashesChunksOfResumableUpload() throws Throwable {
+        LocalUploadProtocol protocol = new LocalUploadProtocol(service, folder.newFolder("server"));
+        StructrUploadService.setResumableUploadProtocol(protocol);
+        server.enqueue(new MockResponse().setBody("{\"result\":[{\"id\":\"f00\"}]}"));
+
+        upload();
+        assertEquals(0, server.getRequestCount());
+
+        upload();
+        assertTrue(server.takeRequest().getPath().contains("checksum=" + crc32(content)));
+        assertEquals(Arrays.asList(201, 200), service.finished);
+    }
+
+    @Test
+    public void forgetsResumedUpload() throws Throwable {
+        LocalUploadProtocol protocol = new LocalUploadProtocol(service, folder.newFolder("server"));
+        StructrUploadService.setResumableUploadProtocol(protocol);
+
+        protocol.interruptAt(UploadBufferPool.BUFFER_SIZE);
+        try {
+            upload();
+        } catch (IOException e) {
+            //the connection was lost
+        }
+
+        //the first chunk was sent by the upload before, so the content cannot be hashed
+        upload();
+        upload();
+
+        assertEquals(0, server.getRequestCount());
+        assertEquals(Arrays.asList(201, 201), service.finished);
+    }
+
+    @Test
+    public void hasherSkipsBytesThatWereHashedBefore() {
+        ChecksumIndex.Hasher hasher = new ChecksumIndex.Hasher(content.length);
+        hasher.update(0, content, 1000);
+        hasher.update(500, Arrays.copyOfRange(content, 500, content.length), content.length - 500);
+
+        ChecksumIndex.Content hash = hasher.finish();
+        assertNotNull(hash);
+        assertEquals(crc32(content), hash.getChecksum());
+        assertTrue(hash.getKey().startsWith(content.length + ":"));
+    }
+
+    @Test
+    public void hasherRejectsGap() {
+        ChecksumIndex.Hasher hasher = new ChecksumIndex.Hasher(content.length);
+        hasher.update(0, content, 1000);
+        hasher.update(2000, Arrays.copyOfRange(content, 2000, content.length), content.length - 2000);
+
+        assertNull(hasher.finish());
+    }
+
+    private void upload() throws Throwable {
+        StructrUploadFile uploadFile = new StructrUploadFile(file.getPath(), 1);
+        uploadFile.setFileName(file.getName());
+        service.getUploader().doUpload(uploadFile);
+    }
+
+    private static long crc32(byte[] bytes) {
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, bytes.length);
+        return checksum.getValue();
+    }
+}
@@ -0,0 +1,162 @@
+package org.structr.android.uploadservice;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.structr.android.restclient.StructrClient;
+import org.structr.android.restclient.StructrRequest;
+import org.structr.android.restclient.StructrResponse;
+import org.structr.android.restclient.StructrTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uploads of sparse files through the single-request path into a transport that discards the body,
+ * so that files beyond the 2 GB limit of a Content-Length run through the {@link ReadAheadReader} and
+ * the {@link UploadBufferPool} without a server and without using the disk space.
+ */
+public class LargeUploadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestUploadService service = null;
+    private DiscardingTransport transport = null;
+    private StructrTransport defaultTransport = null;
+
+    @Before
+    public void setUp() {
+        StructrUploadService.setResumableUploadProtocol(null);
+        StructrUploadService.setDeduplicationEnabled(false);
+        StructrUploadService.setImageTransform(null);
+
+        StructrClient client = StructrClient.getDefault();
+        defaultTransport = client.getTransport();
+        transport = new DiscardingTransport();
+        client.configure("http://localhost", "admin", "admin");
+        client.setTransport(transport);
+
+        service = new TestUploadService();
+        UploadBufferPool.getInstance().trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    @After
+    public void tearDown() {
+        service.getUploadEngine().shutdown();
+        StructrClient.getDefault().setTransport(defaultTransport);
+    }
+
+    @Test
+    public void uploadsFileLargerThan2GBWithChunkedEncoding() throws Throwable {
+        long size = Integer.MAX_VALUE + 16L * 1024 * 1024;
+
+        upload(sparseFile(size));
+
+        //the request length does not fit into an int, the body is streamed in chunks of unknown total length
+        assertEquals(-1, transport.contentLength);
+        assertTrue(transport.chunkLength > 0);
+        assertTrue(transport.written > size);
+        assertTrue(transport.written - size < 1024);
+
+        assertEquals(size, service.getUploadEngine().getUploadedBytes());
+        assertEquals(Arrays.asList(201), service.finished);
+        assertEquals(Long.valueOf(size), service.progress.get(service.progress.size() - 1));
+
+        //the read-ahead adapted the chunks to the fast sink and handed its buffers back
+        assertEquals(UploadBufferPool.BUFFER_SIZE, transport.largestWrite);
+        assertTrue(UploadBufferPool.getInstance().size() > 0);
+    }
+
+    @Test
+    public void uploadsFileBelow2GBWithContentLength() throws Throwable {
+        long size = 8L * 1024 * 1024;
+
+        upload(sparseFile(size));
+
+        assertEquals(transport.written, transport.contentLength);
+        assertEquals(size, service.getUploadEngine().getUploadedBytes());
+        assertEquals(Arrays.asList(201), service.finished);
+    }
+
+    private void upload(File file) throws Throwable {
+        service.getUploader().doUpload(new StructrUploadFile(file.getPath(), 1));
+    }
+
+    private File sparseFile(long length) throws IOException {
+        File file = folder.newFile();
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(length);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    //Counts the bytes of the request body instead of sending them
+    private static class DiscardingTransport implements StructrTransport {
+
+        long contentLength = 0;
+        int chunkLength = 0;
+        long written = 0;
+        int largestWrite = 0;
+
+        @Override
+        public StructrResponse execute(StructrRequest request) throws IOException {
+            contentLength = request.getBody().getContentLength();
+            chunkLength = request.getChunkLength();
+
+            request.getBody().writeTo(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    written++;
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) {
+                    written += length;
+                    largestWrite = Math.max(largestWrite, length);
+                }
+            });
+
+            return new StructrResponse() {
+                @Override
+                public int getCode() {
+                    return 201;
+                }
+
+                @Override
+                public String getMessage() {
+                    return "Created";
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
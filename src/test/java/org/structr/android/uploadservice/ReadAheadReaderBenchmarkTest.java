@@ -0,0 +1,150 @@
+package org.structr.android.uploadservice;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the {@link ReadAheadReader} with throttled storage and network: reading ahead has to overlap
+ * both, and the chunk size has to follow the speed of the network. The timings are printed, and the
+ * pipelined upload has to take clearly less time than reading and writing one after the other.
+ */
+public class ReadAheadReaderBenchmarkTest {
+
+    private static final int KB = 1024;
+
+    @Test
+    public void overlapsReadingAndWriting() throws IOException {
+        int length = 4 * KB * KB;
+        int bytesPerSecond = 8 * KB * KB;
+
+        //both take half a second for the content, one after the other they take a second
+        long start = System.nanoTime();
+        long sequential = 0;
+        byte[] buffer = new byte[UploadBufferPool.BUFFER_SIZE];
+        InputStream input = new ThrottledInput(length, bytesPerSecond);
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            sequential += read;
+            throttle(read, bytesPerSecond);
+        }
+        long sequentialNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<Integer> chunks = upload(new ThrottledInput(length, bytesPerSecond), bytesPerSecond);
+        long pipelinedNanos = System.nanoTime() - start;
+
+        System.out.println(String.format("Sequential: %.0f ms for %d bytes", sequentialNanos / 1e6, sequential));
+        System.out.println(String.format("Read-ahead: %.0f ms for %d bytes in %d chunks", pipelinedNanos / 1e6, sum(chunks), chunks.size()));
+
+        assertEquals(length, sum(chunks));
+        assertTrue("Reading ahead must overlap reading and writing", pipelinedNanos < sequentialNanos * 17 / 20);
+    }
+
+    @Test
+    public void growsChunksOnFastNetwork() throws IOException {
+        int length = 16 * KB * KB;
+
+        List<Integer> chunks = upload(new ThrottledInput(length, Integer.MAX_VALUE), Integer.MAX_VALUE);
+
+        System.out.println("Chunks on a fast network: " + describe(chunks));
+
+        assertEquals(length, sum(chunks));
+        assertEquals(UploadBufferPool.BUFFER_SIZE, (int) chunks.get(chunks.size() - 2));
+    }
+
+    @Test
+    public void shrinksChunksOnSlowNetwork() throws IOException {
+        int length = 3 * KB * KB / 2;
+
+        //about 128 KB per quarter of a second, the first chunks were read with the initial size
+        List<Integer> chunks = upload(new ThrottledInput(length, Integer.MAX_VALUE), 512 * KB);
+
+        System.out.println("Chunks on a slow network: " + describe(chunks));
+
+        assertEquals(length, sum(chunks));
+        assertTrue(chunks.get(0) > 128 * KB);
+        assertTrue(chunks.get(chunks.size() - 2) <= 128 * KB);
+    }
+
+    //Writes the content through a reader into a network of the given speed
+    private static List<Integer> upload(InputStream input, int bytesPerSecond) throws IOException {
+        List<Integer> chunks = new ArrayList<>();
+        ReadAheadReader reader = new ReadAheadReader(input);
+
+        try {
+            ReadAheadReader.Chunk chunk;
+            while ((chunk = reader.take()) != null) {
+                long start = System.nanoTime();
+                throttle(chunk.length, bytesPerSecond);
+                reader.release(chunk, System.nanoTime() - start);
+                chunks.add(chunk.length);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return chunks;
+    }
+
+    private static void throttle(int bytes, int bytesPerSecond) {
+        long millis = bytes * 1000L / bytesPerSecond;
+        try {
+            if (millis > 0)
+                Thread.sleep(millis);
+            else
+                Thread.yield();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int sum(List<Integer> chunks) {
+        int sum = 0;
+        for (int chunk : chunks)
+            sum += chunk;
+        return sum;
+    }
+
+    private static String describe(List<Integer> chunks) {
+        StringBuilder description = new StringBuilder();
+        for (int chunk : chunks)
+            description.append(description.length() > 0 ? ", " : "").append(chunk / KB).append(" KB");
+        return description.toString();
+    }
+
+    //Storage of the given speed
+    private static class ThrottledInput extends InputStream {
+
+        private int remaining = 0;
+        private int bytesPerSecond = 0;
+
+        ThrottledInput(int length, int bytesPerSecond) {
+            this.remaining = length;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) > 0 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (remaining == 0)
+                return -1;
+
+            int count = Math.min(Math.min(length, remaining), 64 * KB);
+            throttle(count, bytesPerSecond);
+            remaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package org.structr.android.uploadservice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Resumable uploads against the {@link LocalUploadProtocol}, with connections that are lost at and
+ * between chunk boundaries, servers that are ahead of or behind the client, and restarts.
+ */
+public class ResumableUploadTest {
+
+    private static final int CHUNK = UploadBufferPool.BUFFER_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestUploadService service = null;
+    private LocalUploadProtocol server = null;
+    private RecordingProtocol protocol = null;
+    private File serverDirectory = null;
+    private File file = null;
+    private byte[] content = null;
+
+    @Before
+    public void setUp() throws IOException {
+        serverDirectory = folder.newFolder("server");
+        service = new TestUploadService();
+        server = new LocalUploadProtocol(service, serverDirectory);
+        protocol = new RecordingProtocol(server);
+
+        content = randomBytes(2 * CHUNK + CHUNK / 2, 1);
+        file = write(folder.newFile("upload.bin"), content);
+    }
+
+    @After
+    public void tearDown() {
+        service.getUploadEngine().shutdown();
+    }
+
+    @Test
+    public void uploadsInChunks() throws IOException {
+        upload();
+
+        assertEquals(Arrays.asList(0L, (long) CHUNK, 2L * CHUNK), protocol.offsets);
+        assertEquals(Arrays.asList(201), service.finished);
+        assertEquals(content.length, service.getUploadEngine().getUploadedBytes());
+        assertUploaded(content);
+        assertNull(new ResumableUploadStore(service).getLocation(source().getKey()));
+    }
+
+    @Test
+    public void uploadsEmptyFile() throws IOException {
+        content = new byte[0];
+        write(file, content);
+
+        upload();
+
+        assertEquals(Arrays.asList(0L), protocol.offsets);
+        assertEquals(Arrays.asList(201), service.finished);
+        assertUploaded(content);
+    }
+
+    @Test
+    public void resumesAfterInterruptionAtChunkBoundary() throws IOException {
+        server.interruptAt(CHUNK);
+        uploadAndFail();
+        assertEquals(CHUNK, stored().length());
+
+        protocol.offsets.clear();
+        upload();
+
+        assertEquals(Arrays.asList((long) CHUNK, 2L * CHUNK), protocol.offsets);
+        assertUploaded(content);
+    }
+
+    @Test
+    public void resumesAfterInterruptionInsideChunk() throws IOException {
+        server.interruptAt(CHUNK + 1000);
+        uploadAndFail();
+
+        //the client had read the whole chunk, the server is behind it
+        protocol.offsets.clear();
+        upload();
+
+        assertEquals(Arrays.asList(CHUNK + 1000L, 2L * CHUNK + 1000), protocol.offsets);
+        assertUploaded(content);
+    }
+
+    @Test
+    public void continuesAtOffsetOfServerThatStoredPartOfChunk() throws IOException {
+        protocol.maxLength = CHUNK / 4;
+
+        upload();
+
+        //the source is reopened at every offset the server acknowledged
+        assertEquals(10, protocol.offsets.size());
+        assertEquals(CHUNK / 4, (long) protocol.offsets.get(1));
+        assertUploaded(content);
+    }
+
+    @Test
+    public void resumesAfterLostAcknowledgement() throws IOException {
+        server.loseNextAcknowledgement();
+        uploadAndFail();
+
+        //the chunk reached the server although the client saw an error, the server is ahead
+        assertEquals(CHUNK, stored().length());
+
+        protocol.offsets.clear();
+        upload();
+
+        assertEquals(Arrays.asList((long) CHUNK, 2L * CHUNK), protocol.offsets);
+        assertUploaded(content);
+    }
+
+    @Test
+    public void resumesAtOffsetOfServerThatLostData() throws IOException {
+        server.interruptAt(2 * CHUNK);
+        uploadAndFail();
+
+        RandomAccessFile stored = new RandomAccessFile(stored(), "rw");
+        try {
+            stored.setLength(CHUNK / 2);
+        } finally {
+            stored.close();
+        }
+
+        protocol.offsets.clear();
+        upload();
+
+        assertEquals(Arrays.asList(CHUNK / 2L, CHUNK / 2L + CHUNK), protocol.offsets);
+        assertUploaded(content);
+    }
+
+    @Test
+    public void restartsWhenServerForgotUpload() throws IOException {
+        server.interruptAt(CHUNK);
+        uploadAndFail();
+        String location = protocol.locations.get(0);
+
+        server.reset();
+        protocol.offsets.clear();
+        upload();
+
+        assertEquals(Arrays.asList(0L, (long) CHUNK, 2L * CHUNK), protocol.offsets);
+        assertNotEquals(location, protocol.locations.get(1));
+        assertFalse(server.getFile(location).exists());
+        assertUploaded(content);
+    }
+
+    @Test
+    public void resumesAfterRestart() throws IOException {
+        server.interruptAt(CHUNK);
+        uploadAndFail();
+
+        //a new process, with the preferences and the files of the previous one
+        service = service.restart();
+        server = new LocalUploadProtocol(service, serverDirectory);
+        protocol = new RecordingProtocol(server);
+        upload();
+
+        assertEquals(Arrays.asList((long) CHUNK, 2L * CHUNK), protocol.offsets);
+        assertEquals(0, protocol.locations.size());
+        assertEquals(Arrays.asList(201), service.finished);
+        assertUploaded(content);
+    }
+
+    @Test
+    public void startsNewUploadWhenFileChanged() throws IOException {
+        server.interruptAt(CHUNK);
+        uploadAndFail();
+
+        content = randomBytes(content.length + 10, 2);
+        write(file, content);
+        file.setLastModified(file.lastModified() + 2000);
+
+        protocol.offsets.clear();
+        upload();
+
+        assertEquals(Arrays.asList(0L, (long) CHUNK, 2L * CHUNK), protocol.offsets);
+        assertEquals(2, protocol.locations.size());
+        assertUploaded(content);
+    }
+
+    private void upload() throws IOException {
+        service.getUploader().doResumableUpload(new StructrUploadFile(file.getPath(), 1), source(), protocol);
+    }
+
+    private void uploadAndFail() {
+        try {
+            upload();
+            fail("The upload was not interrupted");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    private UploadSource source() {
+        return UploadSource.of(file, null);
+    }
+
+    private File stored() {
+        return server.getFile(protocol.lastLocation);
+    }
+
+    private void assertUploaded(byte[] expected) throws IOException {
+        File stored = stored();
+        byte[] actual = new byte[(int) stored.length()];
+
+        RandomAccessFile input = new RandomAccessFile(stored, "r");
+        try {
+            input.readFully(actual);
+        } finally {
+            input.close();
+        }
+
+        assertArrayEquals(expected, actual);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static File write(File file, byte[] bytes) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    //Records the calls of the uploader, and lets the server store only a part of each chunk
+    private static class RecordingProtocol implements ResumableUploadProtocol {
+
+        final List<String> locations = new ArrayList<>();
+        final List<Long> offsets = new ArrayList<>();
+        String lastLocation = null;
+        int maxLength = Integer.MAX_VALUE;
+
+        private ResumableUploadProtocol delegate = null;
+
+        RecordingProtocol(ResumableUploadProtocol delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String create(StructrUploadFile file, long length) throws IOException {
+            String location = delegate.create(file, length);
+            locations.add(location);
+            return location;
+        }
+
+        @Override
+        public long getOffset(String location) throws IOException {
+            return delegate.getOffset(location);
+        }
+
+        @Override
+        public Result writeChunk(String location, long offset, byte[] buffer, int length) throws IOException {
+            offsets.add(offset);
+            lastLocation = location;
+            return delegate.writeChunk(location, offset, buffer, Math.min(length, maxLength));
+        }
+    }
+}
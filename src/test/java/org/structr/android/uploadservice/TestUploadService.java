@@ -0,0 +1,72 @@
+package org.structr.android.uploadservice;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An upload service that runs on the JVM. It keeps its preferences in memory and records the
+ * broadcasts instead of sending them. Services created with the same preferences see the state of
+ * each other, like the instances of the service before and after a restart of the process.
+ */
+class TestUploadService extends StructrUploadService {
+
+    final List<Long> progress = new ArrayList<>();
+    final List<Integer> finished = new ArrayList<>();
+    final List<String> responses = new ArrayList<>();
+
+    private Map<String, MemoryPreferences> preferences = null;
+    private StructrFileUploader uploader = null;
+    private UploadEngine uploadEngine = null;
+
+    TestUploadService() {
+        this(new HashMap<String, MemoryPreferences>());
+    }
+
+    TestUploadService(Map<String, MemoryPreferences> preferences) {
+        this.preferences = preferences;
+        this.uploader = new StructrFileUploader(this);
+        this.uploadEngine = new UploadEngine(this, uploader, 1);
+    }
+
+    /**
+     * @return a service with the same preferences, as it would be created after a restart
+     */
+    TestUploadService restart() {
+        uploadEngine.shutdown();
+        return new TestUploadService(preferences);
+    }
+
+    StructrFileUploader getUploader() {
+        return uploader;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        MemoryPreferences result = preferences.get(name);
+        if (result == null) {
+            result = new MemoryPreferences();
+            preferences.put(name, result);
+        }
+        return result;
+    }
+
+    @Override
+    public UploadEngine getUploadEngine() {
+        return uploadEngine;
+    }
+
+    @Override
+    public void broadcastProgress(int fileId, int progress, long bytesSent) {
+        this.progress.add(bytesSent);
+    }
+
+    @Override
+    public void broadcastFinished(int fileId, int serverCode, String serverResponse) {
+        finished.add(serverCode);
+        responses.add(serverResponse);
+    }
+}
@@ -0,0 +1,139 @@
+package org.structr.android.uploadservice;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the progress updates of the {@link StructrUploadFileListAdapter} for 500 queued uploads
+ * with a linear search and a rebind of all visible rows per event, like the adapter did before it
+ * had an index. The timings are printed, only the number of rebound rows is asserted.
+ */
+public class UploadListAdapterBenchmarkTest {
+
+    private static final int UPLOADS = 500;
+    private static final int VISIBLE_ROWS = 10;
+    private static final int ROUNDS = 100;
+
+    @Test
+    public void compareWithLinearSearch() {
+        VisibleRows listView = new VisibleRows();
+        CountingAdapter adapter = new CountingAdapter(listView);
+        adapter.handleResults(createUploads());
+        listView.adapter = adapter;
+
+        //warm up both paths before measuring
+        runIndexed(adapter);
+        runLinear(adapter, listView);
+
+        adapter.binds = 0;
+        long start = System.nanoTime();
+        runIndexed(adapter);
+        long indexedNanos = System.nanoTime() - start;
+        int indexedBinds = adapter.binds;
+
+        adapter.binds = 0;
+        start = System.nanoTime();
+        runLinear(adapter, listView);
+        long linearNanos = System.nanoTime() - start;
+        int linearBinds = adapter.binds;
+
+        System.out.println(String.format("Index: %d rows rebound, %.2f ms for %d progress events", indexedBinds, indexedNanos / 1e6, UPLOADS * ROUNDS));
+        System.out.println(String.format("Linear search: %d rows rebound, %.2f ms for %d progress events", linearBinds, linearNanos / 1e6, UPLOADS * ROUNDS));
+
+        //only the events of visible files rebind a row, and only that row
+        assertEquals(ROUNDS * VISIBLE_ROWS, indexedBinds);
+        assertEquals(ROUNDS * UPLOADS * VISIBLE_ROWS, linearBinds);
+
+        for (StructrUploadFile file : adapter.getUploadFileList())
+            assertEquals(ROUNDS, file.getUploadProgress());
+    }
+
+    private static void runIndexed(CountingAdapter adapter) {
+        for (int progress = 1; progress <= ROUNDS; progress++) {
+            for (int fileId = 0; fileId < UPLOADS; fileId++)
+                adapter.onProgress(fileId, progress);
+        }
+    }
+
+    //The adapter before the index: a search through the list and a redraw of all visible rows per event
+    private static void runLinear(CountingAdapter adapter, VisibleRows listView) {
+        ArrayList<StructrUploadFile> files = adapter.getUploadFileList();
+
+        for (int progress = 1; progress <= ROUNDS; progress++) {
+            for (int fileId = 0; fileId < UPLOADS; fileId++) {
+                for (StructrUploadFile file : files) {
+                    if (file.getFileId() == fileId) {
+                        file.setUploadProgress(progress);
+                        break;
+                    }
+                }
+
+                for (int i = 0; i < listView.getChildCount(); i++)
+                    adapter.getView(listView.getFirstVisiblePosition() + i, listView.getChildAt(i), listView);
+            }
+        }
+    }
+
+    private static ArrayList<StructrUploadFile> createUploads() {
+        ArrayList<StructrUploadFile> files = new ArrayList<>();
+        for (int fileId = 0; fileId < UPLOADS; fileId++)
+            files.add(new StructrUploadFile("/storage/upload" + fileId + ".jpg", fileId));
+        return files;
+    }
+
+    //Counts the rows it binds, and reuses their views like a real adapter
+    private static class CountingAdapter extends StructrUploadFileListAdapter {
+
+        int binds = 0;
+
+        CountingAdapter(ListView listView) {
+            super(listView, new StructrUploadServiceConnection());
+        }
+
+        @Override
+        public View getViewForItem(StructrUploadFile item, View view, ViewGroup vg) {
+            binds++;
+            return view;
+        }
+    }
+
+    //A list that shows the first rows of its adapter
+    private static class VisibleRows extends ListView {
+
+        private final View[] rows = new View[VISIBLE_ROWS];
+        StructrUploadFileListAdapter adapter = null;
+
+        VisibleRows() {
+            super(null);
+            for (int i = 0; i < rows.length; i++)
+                rows[i] = new View(null);
+        }
+
+        @Override
+        public int getChildCount() {
+            return adapter != null ? Math.min(rows.length, adapter.getCount()) : 0;
+        }
+
+        @Override
+        public View getChildAt(int index) {
+            return rows[index];
+        }
+
+        @Override
+        public int getFirstVisiblePosition() {
+            return 0;
+        }
+
+        @Override
+        public int getHeaderViewsCount() {
+            return 0;
+        }
+    }
+}